@@ -0,0 +1,74 @@
+package frc.robot.benchmarks;
+
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.wpilibj.simulation.DriverStationSim;
+import frc.robot.subsystems.swerve.SwerveDrivetrain;
+import frc.robot.subsystems.swerve.SwerveDrivetrain.ModuleType;
+import frc.robot.vision.VisionBlender;
+
+/**
+ * Stands in for the robot hardware in the benchmarks. The simulated HAL replaces the
+ * roboRIO, the vendor libraries run against their simulated devices and the limelights
+ * are fed fake poses through the local Network Tables instance.
+ */
+public class BenchmarkHardware {
+
+    public static class Constants {
+        public static final String[] limelightNames = {"limelight-a", "limelight-b"};
+    }
+
+    private static boolean initialized = false;
+
+    /**
+     * Starts the simulated HAL, only does anything the first time it's called
+     */
+    public static synchronized void init() {
+        if (initialized) return;
+
+        if (!HAL.initialize(500, 0)) {
+            throw new IllegalStateException("Failed to initialize the simulated HAL");
+        }
+
+        // Enabled teleop, so the subsystems behave the way they do in a match
+        DriverStationSim.setEnabled(true);
+        DriverStationSim.setAutonomous(false);
+        DriverStationSim.notifyNewData();
+
+        initialized = true;
+    }
+
+    /**
+     * @return A drivetrain made of simulated modules with stubbed limelights
+     */
+    public static SwerveDrivetrain createDrivetrain() {
+        init();
+        return new SwerveDrivetrain(ModuleType.Sim, createVision());
+    }
+
+    /**
+     * @return A vision blender for the stubbed limelights, each one seeing a tag
+     */
+    public static VisionBlender createVision() {
+        init();
+        for (String name : Constants.limelightNames) {
+            setLimelightPose(name, 2.5, 5.5, 180, 30);
+        }
+        return new VisionBlender(Constants.limelightNames);
+    }
+
+    /**
+     * Publishes a fake pose to a limelight's table
+     * @param name the hostname of the limelight
+     * @param x the x position of the robot (meters)
+     * @param y the y position of the robot (meters)
+     * @param yaw the rotation of the robot (degrees)
+     * @param latency the total latency of the reading (ms)
+     */
+    public static void setLimelightPose(String name, double x, double y, double yaw, double latency) {
+        NetworkTable table = NetworkTableInstance.getDefault().getTable(name);
+        table.getEntry("botpose_orb_wpiblue").setDoubleArray(new double[] {x, y, 0, 0, 0, yaw, latency});
+        table.getEntry("tl").setDouble(latency);
+    }
+}
@@ -0,0 +1,62 @@
+package frc.robot.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import frc.robot.subsystems.swerve.SwerveDrivetrain;
+
+/**
+ * Cost of commanding the drivetrain and of its periodic update
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DrivetrainBenchmark {
+    private SwerveDrivetrain drivetrain;
+    private ChassisSpeeds speeds = new ChassisSpeeds();
+    private int tick = 0;
+
+    @Setup
+    public void setup() {
+        drivetrain = BenchmarkHardware.createDrivetrain();
+    }
+
+    /**
+     * Changes the commanded speeds every op so nothing gets skipped as unchanged
+     */
+    private ChassisSpeeds nextSpeeds() {
+        tick++;
+        speeds.vxMetersPerSecond = 1.5 + (tick & 7) * 0.1;
+        speeds.vyMetersPerSecond = -0.5 + (tick & 3) * 0.1;
+        speeds.omegaRadiansPerSecond = 0.8;
+        return speeds;
+    }
+
+    @Benchmark
+    public void driveVelocity() {
+        drivetrain.driveVelocity(nextSpeeds());
+    }
+
+    @Benchmark
+    public void drivePower() {
+        drivetrain.drivePower(nextSpeeds());
+    }
+
+    @Benchmark
+    public void updateState() {
+        drivetrain.updateState();
+    }
+
+    @Benchmark
+    public void periodic() {
+        drivetrain.periodic();
+    }
+}
@@ -0,0 +1,68 @@
+package frc.robot.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import frc.robot.subsystems.ShooterSubsystem;
+import frc.robot.util.LookupTable;
+
+/**
+ * Cost of looking up a shot from the shooter tables, compared with the old TreeMap table
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LookupTableBenchmark {
+    private final TreeMapLookupTable treeMapAngle = new TreeMapLookupTable(ShooterSubsystem.Constants.angleMap);
+    private final TreeMapLookupTable treeMapPower = new TreeMapLookupTable(ShooterSubsystem.Constants.powerMap);
+    private final LookupTable cubicAngle = new LookupTable(ShooterSubsystem.Constants.angleMap,
+        LookupTable.Interpolation.Cubic, LookupTable.Bounds.Clamp);
+    private final LookupTable uniform = new LookupTable(new double[] {0, 1, 2, 3, 4, 5},
+        new double[] {34.5, 34.5, 44.4, 58.1, 61.3, 61.7}, LookupTable.Interpolation.Linear, LookupTable.Bounds.Extrapolate);
+
+    private int tick = 0;
+
+    /**
+     * Sweeps the distance across (and a little past) the table so every segment gets used
+     */
+    private double nextDistance() {
+        tick = (tick + 1) & 63;
+        return 0.1 + tick * 0.08;
+    }
+
+    @Benchmark
+    public double angleLookup() {
+        return ShooterSubsystem.Constants.angleLookup.getInterpolated(nextDistance());
+    }
+
+    @Benchmark
+    public double powerLookup() {
+        return ShooterSubsystem.Constants.powerLookup.getInterpolated(nextDistance());
+    }
+
+    @Benchmark
+    public double treeMapAngleLookup() {
+        return treeMapAngle.getInterpolated(nextDistance());
+    }
+
+    @Benchmark
+    public double treeMapPowerLookup() {
+        return treeMapPower.getInterpolated(nextDistance());
+    }
+
+    @Benchmark
+    public double cubicAngleLookup() {
+        return cubicAngle.getInterpolated(nextDistance());
+    }
+
+    @Benchmark
+    public double uniformLookup() {
+        return uniform.getInterpolated(nextDistance());
+    }
+}
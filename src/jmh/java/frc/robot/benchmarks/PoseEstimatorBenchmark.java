@@ -0,0 +1,105 @@
+package frc.robot.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.estimator.SwerveDrivePoseEstimator;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import frc.robot.subsystems.swerve.SwerveDrivetrain;
+import frc.robot.subsystems.swerve.SwerveStateBuffer;
+import frc.robot.subsystems.swerve.positioning.SwervePoseEstimator;
+
+/**
+ * Cost of an odometry sample and a vision measurement 60ms in the past, compared against
+ * WPILib's pose estimator with the same standard deviations
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PoseEstimatorBenchmark {
+    private static final double period = 0.004;
+    private static final double visionLatency = 0.06;
+
+    private static final double[] stateStdDevs = {0.05, 0.05, Math.toRadians(5)};
+    private static final double[] visionStdDevs = {0.8, 0.8, Math.toRadians(20)};
+
+    private SwervePoseEstimator estimator;
+    private SwerveDrivePoseEstimator wpilibEstimator;
+
+    private final SwerveModulePosition[] modulePositions = new SwerveModulePosition[4];
+    private final Rotation2d gyroAngle = Rotation2d.fromDegrees(30);
+    private final Pose2d visionPose = new Pose2d(2.5, 5.5, Rotation2d.fromDegrees(31));
+    private double time = 0;
+
+    @Setup
+    public void setup() {
+        double length = SwerveDrivetrain.Constants.length;
+        double width = SwerveDrivetrain.Constants.width;
+        Translation2d[] moduleLocations = {
+            new Translation2d(length / 2, width / 2), new Translation2d(length / 2, -width / 2),
+            new Translation2d(-length / 2, width / 2), new Translation2d(-length / 2, -width / 2)
+        };
+
+        for (int i = 0; i < modulePositions.length; i++) {
+            modulePositions[i] = new SwerveModulePosition();
+        }
+
+        estimator = new SwervePoseEstimator(new SwerveStateBuffer(moduleLocations), stateStdDevs, visionStdDevs);
+        estimator.reset(gyroAngle.getRadians(), modulePositions, 0, 0, gyroAngle.getRadians());
+
+        wpilibEstimator = new SwerveDrivePoseEstimator(new SwerveDriveKinematics(moduleLocations), gyroAngle,
+            modulePositions, new Pose2d(0, 0, gyroAngle),
+            VecBuilder.fill(stateStdDevs[0], stateStdDevs[1], stateStdDevs[2]),
+            VecBuilder.fill(visionStdDevs[0], visionStdDevs[1], visionStdDevs[2]));
+
+        // A full history, so vision has the same odometry to go back through in both
+        for (int i = 0; i < 400; i++) odometry();
+    }
+
+    private void odometry() {
+        time += period;
+        for (SwerveModulePosition position : modulePositions) {
+            position.distanceMeters += 0.01;
+        }
+
+        estimator.update(time, gyroAngle.getRadians(), modulePositions);
+        wpilibEstimator.updateWithTime(time, gyroAngle, modulePositions);
+    }
+
+    @Benchmark
+    public double odometryAndVision() {
+        time += period;
+        for (SwerveModulePosition position : modulePositions) {
+            position.distanceMeters += 0.01;
+        }
+
+        estimator.update(time, gyroAngle.getRadians(), modulePositions);
+        estimator.addVisionMeasurement(visionPose.getX(), visionPose.getY(),
+            visionPose.getRotation().getRadians(), time - visionLatency);
+        return estimator.getX();
+    }
+
+    @Benchmark
+    public Pose2d wpilibOdometryAndVision() {
+        time += period;
+        for (SwerveModulePosition position : modulePositions) {
+            position.distanceMeters += 0.01;
+        }
+
+        wpilibEstimator.updateWithTime(time, gyroAngle, modulePositions);
+        wpilibEstimator.addVisionMeasurement(visionPose, time - visionLatency);
+        return wpilibEstimator.getEstimatedPosition();
+    }
+}
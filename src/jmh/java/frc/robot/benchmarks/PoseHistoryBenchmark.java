@@ -0,0 +1,58 @@
+package frc.robot.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import frc.robot.subsystems.swerve.positioning.PoseHistory;
+
+/**
+ * Cost of recording and looking up past poses at the odometry thread's rate
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PoseHistoryBenchmark {
+    private static final double period = 1 / PoseHistory.Constants.maxSampleRate;
+
+    private PoseHistory history;
+    private PoseHistory.Sample sample;
+    private final double[] moduleSpeeds = {1, 1, 1, 1};
+    private double time = 0;
+    private int tick = 0;
+
+    @Setup
+    public void setup() {
+        history = new PoseHistory(moduleSpeeds.length);
+        sample = new PoseHistory.Sample(moduleSpeeds.length);
+
+        // Fill the whole history so lookups search a full buffer
+        for (int i = 0; i < 1024; i++) add();
+    }
+
+    private void add() {
+        time += period;
+        history.add(time, time, time * 0.5, time % Math.PI, moduleSpeeds);
+    }
+
+    @Benchmark
+    public void add250Hz() {
+        add();
+    }
+
+    /**
+     * Looks up somewhere in the last 100ms, like a vision frame would
+     */
+    @Benchmark
+    public double sample() {
+        tick = (tick + 1) & 63;
+        history.sample(time - tick * 0.0016, sample);
+        return sample.getX() + sample.getVx();
+    }
+}
@@ -0,0 +1,65 @@
+package frc.robot.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import edu.wpi.first.wpilibj2.command.Command;
+import edu.wpi.first.wpilibj2.command.button.CommandXboxController;
+import frc.robot.Teleop;
+import frc.robot.subsystems.AimingSubsystem;
+import frc.robot.subsystems.ArmSubsystem;
+import frc.robot.subsystems.ShooterSubsystem;
+import frc.robot.subsystems.swerve.SwerveDrivetrain;
+import frc.robot.util.LEDs;
+
+/**
+ * Cost of the teleop drive command, which runs every loop while the robot is driven
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TeleopBenchmark {
+    /** Whether the driver is aiming at the speaker, which adds the aiming math to every loop */
+    @Param({"false", "true"})
+    public boolean aiming;
+
+    private Teleop teleop;
+    private AimingSubsystem aimingSubsystem;
+    private Command teleopCommand;
+
+    @Setup
+    public void setup() {
+        SwerveDrivetrain drivetrain = BenchmarkHardware.createDrivetrain();
+        ShooterSubsystem shooter = new ShooterSubsystem();
+        ArmSubsystem arm = new ArmSubsystem();
+        aimingSubsystem = new AimingSubsystem(drivetrain, shooter);
+
+        teleop = new Teleop(drivetrain, aimingSubsystem, new CommandXboxController(0), new CommandXboxController(1), new LEDs());
+        teleopCommand = teleop.getTeleopCommand(arm);
+        teleopCommand.initialize();
+
+        // Instant commands run their action on initialize
+        if (aiming) teleop.startSpeakerAimCommand().initialize();
+        else teleop.cancelTargeting().initialize();
+    }
+
+    @Benchmark
+    public double aimingPeriodic() {
+        aimingSubsystem.periodic();
+        return aimingSubsystem.getTurnRate();
+    }
+
+    @Benchmark
+    public void teleopCommand() {
+        aimingSubsystem.periodic();
+        teleopCommand.execute();
+    }
+}
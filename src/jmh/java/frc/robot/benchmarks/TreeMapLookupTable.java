@@ -0,0 +1,50 @@
+package frc.robot.benchmarks;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * The original TreeMap backed lookup table, kept as a baseline for {@link LookupTableBenchmark}
+ */
+public class TreeMapLookupTable {
+    private NavigableMap<Double, Double> dataPoints = new TreeMap<Double, Double>(); // First value is distance, second is angle
+
+    /**
+     * Creates a new TreeMapLookupTable using the provided map
+     * @param map A map of keys and values to act as the data points
+     */
+    public TreeMapLookupTable(Map<Double, Double> map) {
+        dataPoints.putAll(map);
+    }
+
+    /**
+     * Gets an interpolated value based on a key.
+     * @param key Key to the requested value.
+     * @return Value.
+     */
+    public double getInterpolated(double key) {
+        if(dataPoints.containsKey(key)) {
+            return dataPoints.get(key);
+        }else{
+            Double higherKey = dataPoints.ceilingKey(key);
+            Double lowerKey = dataPoints.floorKey(key);
+
+            if (higherKey == null) { // No idea why it won't just let me use == null
+                higherKey = lowerKey;
+                lowerKey = dataPoints.lowerKey(higherKey); // Use the last two known points to extrapolate
+            }
+
+            if (lowerKey == null) {
+                lowerKey = higherKey;
+                higherKey = dataPoints.higherKey(lowerKey); // Ditto
+            }
+
+            double slope = (dataPoints.get(higherKey) - dataPoints.get(lowerKey)) / (higherKey - lowerKey);
+
+            double intercept = dataPoints.get(lowerKey) - slope * lowerKey;
+
+            return (slope * key) + intercept; // y=mx+b
+        }
+    }
+}
\ No newline at end of file
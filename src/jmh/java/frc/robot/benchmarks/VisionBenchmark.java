@@ -0,0 +1,90 @@
+package frc.robot.benchmarks;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import frc.robot.subsystems.swerve.SwerveDrivetrain;
+import frc.robot.vision.VisionBlender;
+import frc.robot.vision.VisionBlender.VisionReading;
+import frc.robot.vision.VisionPoseEstimator;
+
+/**
+ * Cost of the pose estimator and the vision blending, with both limelights seeing a tag
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class VisionBenchmark {
+    private VisionBlender vision;
+    private VisionPoseEstimator estimator;
+
+    private SwerveModulePosition[] modulePositions = new SwerveModulePosition[4];
+    private double[] moduleSpeeds = new double[4];
+    private Rotation2d gyroAngle = Rotation2d.fromDegrees(180);
+    private int tick = 0;
+
+    @Setup
+    public void setup() {
+        vision = BenchmarkHardware.createVision();
+
+        double length = SwerveDrivetrain.Constants.length;
+        double width = SwerveDrivetrain.Constants.width;
+        Translation2d[] moduleLocations = {
+            new Translation2d(length / 2, width / 2), new Translation2d(length / 2, -width / 2),
+            new Translation2d(-length / 2, width / 2), new Translation2d(-length / 2, -width / 2)
+        };
+
+        for (int i = 0; i < modulePositions.length; i++) {
+            modulePositions[i] = new SwerveModulePosition();
+        }
+
+        estimator = new VisionPoseEstimator(moduleLocations, gyroAngle, modulePositions, vision);
+    }
+
+    /**
+     * Publishes a new frame from each limelight, like they do between loops
+     */
+    private void publishFrames() {
+        tick++;
+        for (String name : BenchmarkHardware.Constants.limelightNames) {
+            BenchmarkHardware.setLimelightPose(name, 2.5 + (tick & 15) * 0.01, 5.5, 180, 30);
+        }
+    }
+
+    @Benchmark
+    public Pose2d poseEstimatorUpdate() {
+        publishFrames();
+
+        // Roll the wheels forward a little so the odometry has something to integrate
+        for (SwerveModulePosition position : modulePositions) {
+            position.distanceMeters += 0.01;
+        }
+
+        estimator.update(gyroAngle, modulePositions, moduleSpeeds);
+        return estimator.grabEstimatedPose();
+    }
+
+    @Benchmark
+    public Pose2d getBlendedPose() {
+        return vision.getBlendedPose();
+    }
+
+    @Benchmark
+    public ArrayList<VisionReading> getReadings() {
+        publishFrames();
+        vision.updateValues(gyroAngle, 0);
+        return vision.getReadings();
+    }
+}
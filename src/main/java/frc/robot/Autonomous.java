@@ -16,25 +16,31 @@ import edu.wpi.first.wpilibj.smartdashboard.SendableChooser;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.CommandScheduler;
 import edu.wpi.first.wpilibj2.command.Commands;
-import frc.robot.Teleop.ShotLocation;
-import frc.robot.subsystems.ShooterSubsystem;
+import frc.robot.subsystems.AimingSubsystem;
+import frc.robot.subsystems.AimingSubsystem.ShotLocation;
 import frc.robot.subsystems.swerve.SwerveDrivetrain;
-import frc.robot.subsystems.swerve.positioning.RobotPositioner.Perspective;
 
 public class Autonomous {
+
+    public static class Constants {
+        /** Longest a shot waits for the aim to settle before firing anyway (seconds) */
+        public static final double aimTimeout = 0.75;
+    }
+
     private SwerveDrivetrain drivetrain;
-    private ShooterSubsystem shooter;
+    private AimingSubsystem aiming;
+    private AimingSubsystem.Request aimRequest;
     private SendableChooser<Command> autoChooser;
 
     private Command autonomousCommand;
 
     private boolean pathTargeting;
     private boolean pathEndTargeting;
-    private Optional<Rotation2d> targetRotation;
 
-    public Autonomous(SwerveDrivetrain drivetrain, ShooterSubsystem shooter) {
+    public Autonomous(SwerveDrivetrain drivetrain, AimingSubsystem aiming) {
         this.drivetrain = drivetrain;
-        this.shooter = shooter;
+        this.aiming = aiming;
+        this.aimRequest = aiming.createRequest();
     }
 
     public void init() {        
@@ -49,21 +55,16 @@ public class Autonomous {
     }
 
     public void periodic() {
-        double rot = RobotContainer.getInstance().teleop.targetUpdate(shooter, ShotLocation.SPEAKER);
-        if (pathEndTargeting) {
-            drivetrain.driveVelocity(new ChassisSpeeds(0, 0, rot));
-        } else if (pathTargeting) {
-            targetRotation = Optional.of(drivetrain.positioner.getRotation(Perspective.Field)
-                .plus(new Rotation2d(rot / 2)));
+        // Path targeting is read by PathPlanner through the rotation override instead
+        if (pathEndTargeting && aiming.hasSolution()) {
+            drivetrain.driveVelocity(new ChassisSpeeds(0, 0, aiming.getTurnRate()));
         }
     }
     
     public Optional<Rotation2d> getRotationTargetOverride() {
-        if (pathTargeting) {
-            if (targetRotation != null) return targetRotation;
-            else return Optional.empty();
-        }
-        else return Optional.empty();
+        // PathPlanner follows the aiming profile's setpoint with its own rotation controller
+        if (pathTargeting && aiming.hasSolution()) return Optional.of(new Rotation2d(aiming.getSetpoint()));
+        return Optional.empty();
     }
 
     public void configure() {
@@ -85,22 +86,42 @@ public class Autonomous {
     }
 
     public Command enableTargetingCommand() {
-        return Commands.runOnce(() -> pathTargeting = true);
+        return Commands.runOnce(() -> {
+            pathTargeting = true;
+            aimRequest.start(ShotLocation.SPEAKER);
+        });
     }
 
     public Command disableTargetingCommand() {
-        return Commands.runOnce(() -> { pathTargeting = false; pathEndTargeting = false; });
+        return Commands.runOnce(() -> {
+            pathTargeting = false;
+            pathEndTargeting = false;
+            aimRequest.stop();
+        });
     }
 
     public boolean isPathTargeting() { return pathTargeting; }
 
+    /**
+     * @return true if the robot is pointed at the speaker and not turning away from it
+     */
+    public boolean isAimSettled() { return aiming.isSettled(); }
+
     public void setAutoChooser(SendableChooser<Command> autoChooser) { this.autoChooser = autoChooser; }
 
     public void cancelAutonomous() {
         if (autonomousCommand != null && !autonomousCommand.isFinished()) autonomousCommand.cancel();
+
+        // Otherwise aiming would keep running the shooter into teleop
+        pathTargeting = false;
+        pathEndTargeting = false;
+        aimRequest.stop();
     }
 
     public Command pathEndAimCommand() {
-       return Commands.runOnce(() -> pathEndTargeting = true);
+       return Commands.runOnce(() -> {
+           pathEndTargeting = true;
+           aimRequest.start(ShotLocation.SPEAKER);
+       });
     }
 }
@@ -1,7 +1,10 @@
 package frc.robot;
 
+import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.wpilibj.TimedRobot;
 import edu.wpi.first.wpilibj2.command.CommandScheduler;
+import frc.robot.util.LoopProfiler;
+import frc.robot.util.Telemetry;
 
 /**
  * This is the main robot class. It shouldn't need to be modified
@@ -9,6 +12,7 @@ import edu.wpi.first.wpilibj2.command.CommandScheduler;
  */
 public class Robot extends TimedRobot {
   public RobotContainer robotContainer;
+  private final LoopProfiler.Stage autonomousStage = LoopProfiler.getInstance().stage("Autonomous");
   
   @Override public void robotInit() {
     try { Thread.sleep(1000); }
@@ -17,13 +21,31 @@ public class Robot extends TimedRobot {
   }
   @Override public void robotPeriodic() { CommandScheduler.getInstance().run(); }
   @Override public void autonomousInit() { robotContainer.runAutonomous(); }
-  @Override public void autonomousPeriodic() { robotContainer.auto.periodic(); }
+  @Override public void autonomousPeriodic() {
+    autonomousStage.start();
+    robotContainer.auto.periodic();
+    autonomousStage.stop();
+  }
   @Override public void teleopInit() { robotContainer.runTeleop(); }
-  @Override public void teleopPeriodic() {}
+  @Override public void teleopPeriodic() { robotContainer.teleop.periodic(); }
   @Override public void disabledInit() { robotContainer.onDisabled(); }
   @Override public void disabledPeriodic() {}
   @Override public void testInit() {}
   @Override public void testPeriodic() {}
   @Override public void simulationInit() {}
   @Override public void simulationPeriodic() {}
+
+  // Times the whole loop (mode periodic, scheduler, dashboards) for the loop profiler,
+  // captures the robot state before anything reads it and then hands this loop's
+  // telemetry to the background thread to publish. The driver station data is refreshed
+  // first, otherwise the state would have last loop's alliance and enable state. The
+  // mode periodic runs before robotPeriodic, so the state can't be captured there instead.
+  @Override protected void loopFunc() {
+    LoopProfiler.getInstance().beginLoop();
+    DriverStation.refreshData();
+    robotContainer.updateRobotState();
+    super.loopFunc();
+    LoopProfiler.getInstance().endLoop();
+    Telemetry.getInstance().flush();
+  }
 }
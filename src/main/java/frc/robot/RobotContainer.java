@@ -19,6 +19,7 @@ import com.pathplanner.lib.auto.NamedCommands;
 import edu.wpi.first.wpilibj.DataLogManager;
 import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.wpilibj.GenericHID.RumbleType;
+import edu.wpi.first.wpilibj.RobotBase;
 
 /**
  * Main class that contains all the robot subsystems, controllers, opModes, etc.
@@ -38,6 +39,7 @@ public class RobotContainer {
     private ClimberSubsystem climberSubsystem;
     private TransferSubsystem transfer;
     private ArmSubsystem arm;
+    private AimingSubsystem aiming;
 
     // Misc stuff
     private final VisionBlender vision = new VisionBlender("limelight-a", "limelight-b");
@@ -67,18 +69,23 @@ public class RobotContainer {
             SmartDashboard.putBoolean("Disable Intake", false);
 
         // Initialize subsystems
-        driveSubsystem = new SwerveDrivetrain(ModuleType.Falcon, vision);
+        driveSubsystem = new SwerveDrivetrain(RobotBase.isSimulation() ? ModuleType.Sim : ModuleType.Falcon, vision);
         intake = new IntakeSubsystem();
         shooter = new ShooterSubsystem();
         climberSubsystem = new ClimberSubsystem();
         transfer = new TransferSubsystem();
         arm = new ArmSubsystem();
         
-        auto = new Autonomous(driveSubsystem, shooter);
-        teleop = new Teleop(driveSubsystem, driverController, operatorController, leds);
+        aiming = new AimingSubsystem(driveSubsystem, shooter);
+
+        auto = new Autonomous(driveSubsystem, aiming);
+        teleop = new Teleop(driveSubsystem, aiming, driverController, operatorController, leds);
 
         NamedCommands.registerCommand("speaker-shoot", auto.enableTargetingCommand()
             .andThen(() -> driveSubsystem.setAllModuleDriveRawPower(0))
+            // The shooter only starts spinning up once targeting is on, so wait for it as well as the aim
+            .andThen(Commands.waitUntil(auto::isAimSettled).withTimeout(Autonomous.Constants.aimTimeout)
+                .alongWith(CommandSequences.waitForShooter(shooter)))
             .andThen(CommandSequences.transferToShooterCommand(intake, transfer, shooter, arm))
             .andThen(auto.disableTargetingCommand()));
     
@@ -122,6 +129,13 @@ public class RobotContainer {
         return "rio";
     }
 
+    /**
+     * Captures the state of the robot, called at the very start of every loop
+     */
+    public void updateRobotState() {
+        driveSubsystem.updateState();
+    }
+
     /**
      * Called when teleop is enabled
      */
@@ -1,29 +1,29 @@
 package frc.robot;
 
-import edu.wpi.first.math.Pair;
-import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.math.geometry.Rotation2d;
-import edu.wpi.first.math.geometry.Translation2d;
 import edu.wpi.first.math.kinematics.ChassisSpeeds;
-import edu.wpi.first.wpilibj.DriverStation;
-import edu.wpi.first.wpilibj.DriverStation.Alliance;
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+import edu.wpi.first.wpilibj.event.EventLoop;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.CommandScheduler;
 import edu.wpi.first.wpilibj2.command.Commands;
 import edu.wpi.first.wpilibj2.command.InstantCommand;
 import edu.wpi.first.wpilibj2.command.RunCommand;
 import edu.wpi.first.wpilibj2.command.button.CommandXboxController;
+import edu.wpi.first.wpilibj2.command.button.Trigger;
 import frc.robot.commands.CommandSequences;
 import frc.robot.commands.RumbleSequences;
+import frc.robot.subsystems.AimingSubsystem;
+import frc.robot.subsystems.AimingSubsystem.ShotLocation;
 import frc.robot.subsystems.ClimberSubsystem;
 import frc.robot.subsystems.IntakeSubsystem;
 import frc.robot.subsystems.ShooterSubsystem;
 import frc.robot.subsystems.TransferSubsystem;
 import frc.robot.subsystems.ArmSubsystem;
 import frc.robot.subsystems.swerve.SwerveDrivetrain;
-import frc.robot.subsystems.swerve.positioning.RobotPositioner.Perspective;
+import frc.robot.subsystems.swerve.positioning.RobotState;
 import frc.robot.util.LEDs;
+import frc.robot.util.LoopProfiler;
+import frc.robot.util.Telemetry;
 
 public class Teleop {
     // Enables and disables field centric modes
@@ -38,6 +38,8 @@ public class Teleop {
     private CommandXboxController driverController;
     private CommandXboxController operatorController;
     private SwerveDrivetrain drivetrain;
+    private AimingSubsystem aiming;
+    private AimingSubsystem.Request aimRequest;
     private LEDs leds;
 
     // The threshold for input on the controller sticks (0.0 - 1.0)
@@ -49,12 +51,23 @@ public class Teleop {
 
     private double prevStickAngle = 0;
     private double prevOperatorY = 0;
-    private boolean isTargetingSpeaker = false;
-    private boolean isTargetingHome = false;
+
+    // Built once by the first init. The bindings live in their own loop instead of the
+    // scheduler's, so they're only polled in teleop (by periodic)
+    private final EventLoop bindings = new EventLoop();
+    private int triggerCount = 0;
+    private boolean configured = false;
+    private Command startCommand;
+    private Command teleopCommand;
+
+    private final Telemetry.NumberEntry triggerCountEntry = Telemetry.getInstance().number("Teleop Triggers");
+    private final LoopProfiler.Stage bindingsStage = LoopProfiler.getInstance().stage("Teleop Bindings");
 
     // Grabs values from the RobotContainer
-    public Teleop(SwerveDrivetrain driveSubsystem, CommandXboxController driverController, CommandXboxController operatorController, LEDs leds) {
+    public Teleop(SwerveDrivetrain driveSubsystem, AimingSubsystem aiming, CommandXboxController driverController, CommandXboxController operatorController, LEDs leds) {
         this.drivetrain = driveSubsystem;
+        this.aiming = aiming;
+        this.aimRequest = aiming.createRequest();
         this.driverController = driverController;
         this.operatorController = operatorController;
         this.leds = leds;
@@ -65,122 +78,158 @@ public class Teleop {
 
         intake.init();
 
+        // Bindings and every command they run are only built the first time teleop starts,
+        // enabling again reuses them instead of binding everything a second time
+        if (!configured) {
+            configureBindings(shooter, intake, transfer, arm, climber);
+            configured = true;
+            triggerCountEntry.set(triggerCount);
+        }
+
+        // Schedule starting commands
+        CommandScheduler.getInstance().schedule(startCommand);
+
+        // Init teleop command
+        drivetrain.resetModuleAngles();
+        drivetrain.setDefaultCommand(teleopCommand);
+    }
+
+    private void configureBindings(ShooterSubsystem shooter, IntakeSubsystem intake, TransferSubsystem transfer, ArmSubsystem arm, ClimberSubsystem climber) {
         // +++ Start controller bindings +++
 
         // +++ DRIVER +++
 
-        driverController.start().onTrue(Commands.runOnce(drivetrain.positioner::resetPerspective)
+        bind(driverController.start(bindings)).onTrue(Commands.runOnce(drivetrain.positioner::resetPerspective)
             .andThen(RumbleSequences.rumbleOnce(driverController)));
 
-        driverController.b().onTrue(
+        bind(driverController.b(bindings)).onTrue(
             CommandSequences.transferToShooterCommand(intake, transfer, shooter, arm)
                 .andThen(shooter.stowPivot().andThen(cancelTargeting()).andThen(CommandSequences.stopAllSubsystems(intake, transfer, shooter, arm))));
 
         // Aiming
-        driverController.a().onTrue(startSpeakerAimCommand());
-        driverController.rightBumper().onTrue(startHomeAimCommand());
+        bind(driverController.a(bindings)).onTrue(startSpeakerAimCommand());
+        bind(driverController.rightBumper(bindings)).onTrue(startHomeAimCommand());
 
         // Manual intake pivot
-        driverController.back().onTrue(intake.togglePivot());
+        bind(driverController.back(bindings)).onTrue(intake.togglePivot());
 
         // Slow button
-        driverController.leftTrigger().onTrue(new InstantCommand(() -> {
+        bind(driverController.leftTrigger(0.5, bindings)).onTrue(new InstantCommand(() -> {
             driveSpeed = slowSpeed;
             rotationSpeed = 0.6;
-        }));
-        driverController.leftTrigger().onFalse(new InstantCommand(() -> {
+        })).onFalse(new InstantCommand(() -> {
             driveSpeed = normalSpeed;
             rotationSpeed = 1.3;
         }));
 
         // Intake phase
-        driverController.rightTrigger().onTrue(CommandSequences.intakeNoteCommand(intake, transfer)
+        bind(driverController.rightTrigger(0.5, bindings)).onTrue(CommandSequences.intakeNoteCommand(intake, transfer)
             .andThen(RumbleSequences.rumbleOnce(driverController)));
         // Force stop
-        driverController.x().onTrue(cancelTargeting().andThen(
+        bind(driverController.x(bindings)).onTrue(cancelTargeting().andThen(
             CommandSequences.stopAllSubsystems(intake, transfer, shooter, arm)));
         // X Lock
-        driverController.y().whileTrue(Commands.run(() -> drivetrain.xLock()));
+        bind(driverController.y(bindings)).whileTrue(Commands.run(() -> drivetrain.xLock()));
 
         // Stow command
-        driverController.leftBumper().onTrue(cancelTargeting()
+        bind(driverController.leftBumper(bindings)).onTrue(cancelTargeting()
             .andThen(CommandSequences.stopAllSubsystems(intake, transfer, shooter, arm))
             .andThen(RumbleSequences.rumbleDualPulse(driverController).andThen(shooter.stowPivot())));
 
-        driverController.povUp().onTrue(CommandSequences.shootIntoArmCommand(arm, shooter)
+        bind(driverController.pov(0, 0, bindings)).onTrue(CommandSequences.shootIntoArmCommand(arm, shooter)
             .andThen(arm.extendPosition()).andThen(shooter.setPivotTarget(60)));
 
         // +++ OPERATOR +++
 
-        operatorController.x().onTrue(intake.reverseRollers().andThen(transfer.reverse()));
-        operatorController.x().onFalse(intake.stopRollers().andThen(transfer.transferForceStop()));
+        bind(operatorController.x(bindings)).onTrue(intake.reverseRollers().andThen(transfer.reverse()))
+            .onFalse(intake.stopRollers().andThen(transfer.transferForceStop()));
 
         // Shooter pivot manual controls
-        operatorController.leftBumper().onTrue(shooter.setPivotTarget(ShooterSubsystem.Constants.manualClose)
+        bind(operatorController.leftBumper(bindings)).onTrue(shooter.setPivotTarget(ShooterSubsystem.Constants.manualClose)
             .andThen(CommandSequences.rawShootCommand(0.7, transfer, shooter)));
-        operatorController.rightBumper().onTrue(shooter.setPivotTarget(42.5)
+        bind(operatorController.rightBumper(bindings)).onTrue(shooter.setPivotTarget(42.5)
             .andThen(CommandSequences.rawShootCommand(0.4, transfer, shooter)));
 
-        operatorController.a().onTrue(arm.runRollers(0.7));
-        operatorController.a().onFalse(arm.stopRollers());
+        bind(operatorController.a(bindings)).onTrue(arm.runRollers(0.7)).onFalse(arm.stopRollers());
 
         // Emergency source intake
-        operatorController.leftStick().onTrue(shooter.setPivotTarget(35.0)
-            .andThen(shooter.startShooter(-0.75)));
-        operatorController.leftStick().onFalse(shooter.stopShooter().andThen(shooter.stowPivot()));
+        bind(operatorController.leftStick(bindings)).onTrue(shooter.setPivotTarget(35.0)
+            .andThen(shooter.startShooter(-0.75)))
+            .onFalse(shooter.stopShooter().andThen(shooter.stowPivot()));
 
         // Arm for amp
-        operatorController.rightTrigger().onTrue(arm.homePosition());
-        operatorController.leftTrigger().onTrue(arm.ampPosition());
+        bind(operatorController.rightTrigger(0.5, bindings)).onTrue(arm.homePosition());
+        bind(operatorController.leftTrigger(0.5, bindings)).onTrue(arm.ampPosition());
 
         // Climber commands
-        operatorController.povUp().onTrue(CommandSequences.climberUpCommand(climber));
-        operatorController.povUp().onFalse(climber.stopClimber());
-        operatorController.povDown().onTrue(CommandSequences.climberDownCommand(climber));
-        operatorController.povDown().onFalse(climber.stopClimber());
+        Command stopClimber = climber.stopClimber();
+        bind(operatorController.pov(0, 0, bindings)).onTrue(CommandSequences.climberUpCommand(climber)).onFalse(stopClimber);
+        bind(operatorController.pov(0, 180, bindings)).onTrue(CommandSequences.climberDownCommand(climber)).onFalse(stopClimber);
 
-        operatorController.povLeft().onTrue(arm.extendPosition());
-        operatorController.povRight().onTrue(CommandSequences.climberHangCommand(climber));
-        operatorController.povRight().onFalse(climber.stopClimber());
+        bind(operatorController.pov(0, 270, bindings)).onTrue(arm.extendPosition());
+        bind(operatorController.pov(0, 90, bindings)).onTrue(CommandSequences.climberHangCommand(climber)).onFalse(stopClimber);
 
         // Arm for climb/trap
-        operatorController.start().onTrue(arm.climbPosition());
-        operatorController.back().onTrue(arm.trapPosition());
+        bind(operatorController.start(bindings)).onTrue(arm.climbPosition());
+        bind(operatorController.back(bindings)).onTrue(arm.trapPosition());
 
         // Shooter manual toggle
-        operatorController.y().onTrue(CommandSequences.stopAllSubsystems(intake, transfer, shooter, arm)
+        bind(operatorController.y(bindings)).onTrue(CommandSequences.stopAllSubsystems(intake, transfer, shooter, arm)
             .andThen(CommandSequences.moveToShooterCommand(arm, shooter, transfer)));
-        operatorController.b().onTrue(CommandSequences.shootIntoArmCommand(arm, shooter));
+        bind(operatorController.b(bindings)).onTrue(CommandSequences.shootIntoArmCommand(arm, shooter));
 
         // +++ End controller bindings +++
 
-        // Schedule starting commands
-        CommandScheduler.getInstance().schedule(shooter.stowPivot());
-        CommandScheduler.getInstance().schedule(Commands.runOnce(() -> isTargetingSpeaker = false));
-        CommandScheduler.getInstance().schedule(CommandSequences.stopAllSubsystems(intake, transfer, shooter, arm));
+        startCommand = Commands.runOnce(aimRequest::stop)
+            .andThen(CommandSequences.stopAllSubsystems(intake, transfer, shooter, arm))
+            .andThen(shooter.stowPivot());
+        teleopCommand = getTeleopCommand(arm);
+    }
 
-        // Init teleop command
-        drivetrain.resetModuleAngles();
-        drivetrain.setDefaultCommand(getTeleopCommand(shooter, arm));
+    /**
+     * Polls the controller bindings, call every teleop loop before the scheduler runs
+     */
+    public void periodic() {
+        bindingsStage.start();
+        bindings.poll();
+        bindingsStage.stop();
+    }
+
+    /**
+     * @return the number of triggers bound on the teleop binding loop
+     */
+    public int getTriggerCount() {
+        return triggerCount;
+    }
+
+    /**
+     * Counts a trigger on the teleop binding loop
+     * @return the trigger
+     */
+    private Trigger bind(Trigger trigger) {
+        triggerCount++;
+        return trigger;
     }
 
     // Setup the teleop drivetrain command
-    public Command getTeleopCommand(ShooterSubsystem shooter, ArmSubsystem arm) {
+    public Command getTeleopCommand(ArmSubsystem arm) {
         return new RunCommand(
             () -> {
                 double operatorY = operatorController.getRightY();
                 operatorY = Math.abs(operatorY) < stickDeadzone ? 0 : operatorY;
 
+                // Set directly instead of scheduling a new command every loop
                 if (operatorY == 0 && prevOperatorY != 0) {
-                    CommandScheduler.getInstance().schedule(arm.stopRollers());
+                    arm.setRollerSpeed(0);
                 } else if (operatorY != 0) {
-                    CommandScheduler.getInstance().schedule(arm.runRollers(operatorY * 0.15));
+                    arm.setRollerSpeed(operatorY * 0.15);
                 }
 
                 prevOperatorY = operatorY;
 
                 // Controller + Pigeon inputs
-                double direction = drivetrain.positioner.getRotation(Perspective.Driver).getRadians();
+                RobotState state = drivetrain.getState();
+                double direction = state.getDriverRotation().getRadians();
                 double controllerX = -driverController.getLeftX();
                 double controllerY = -driverController.getLeftY();
                 double rotationX = -driverController.getRightX();
@@ -218,9 +267,10 @@ public class Teleop {
                     ? error * kP /* Field centric */
                     : rotationX) /* Robot centric */ * rotationSpeed;
 
-                // Actually drive the swerve base
-                if (isTargetingSpeaker) rot = targetUpdate(shooter, ShotLocation.SPEAKER);
-                if (isTargetingHome) rot = targetUpdate(shooter, ShotLocation.HOME);
+                // Actually drive the swerve base, aiming works in rad/s and drivePower scales by the max speed
+                if (aimRequest.isActive() && aiming.hasSolution()) {
+                    rot = aiming.getTurnRate() / SwerveDrivetrain.Constants.driveMaxSpeed;
+                }
 
                 drivetrain.drivePower(new ChassisSpeeds(speedY, speedX, rot));
             },
@@ -228,95 +278,21 @@ public class Teleop {
         );
     }
 
-    /**
-     * @return the rotation error
-     */
-    public double targetUpdate(ShooterSubsystem shooter, ShotLocation location) {
-        double rot = 0;
-        Pair<Double, Double> data = getAimData(shooter, location);
-        rot = data.getFirst();
-
-        switch (location) {
-            case SPEAKER:
-                // Increasing offset makes the robot shoot lower
-                shooter.setFromDistance(data.getSecond() + 0.1);
-                break;
-            // case HOME:
-            default:
-                shooter.setPowerRaw(0.425);
-                shooter.setPivotTargetRaw(42.5);
-                break;
-        }
-
-        return rot;
-    }
-
     public Command startSpeakerAimCommand() {
-        return Commands.runOnce(() -> isTargetingSpeaker = true);
+        return Commands.runOnce(() -> aimRequest.start(ShotLocation.SPEAKER));
     }
 
     public Command startHomeAimCommand() {
-        return Commands.runOnce(() -> isTargetingHome = true);
+        return Commands.runOnce(() -> aimRequest.start(ShotLocation.HOME));
     }
 
     public Command cancelTargeting() {
-        return Commands.runOnce(() -> { isTargetingSpeaker = false; isTargetingHome = false; });
+        return Commands.runOnce(aimRequest::stop);
     }
 
-    public boolean isTargeting() { return isTargetingSpeaker || isTargetingHome; }
-    public boolean isTargetingSpeaker() { return isTargetingSpeaker; }
-    public boolean isTargetingHome() { return isTargetingHome; }
-
-    public Pair<Double, Double> getAimData(ShooterSubsystem shooter, ShotLocation location) {
-        // Flips the aiming if the alliance is blue
-        boolean isBlueAlliance = true;
-        isBlueAlliance = DriverStation.getAlliance().orElse(Alliance.Blue) == Alliance.Blue;
-
-        // Sets where it should point (field space coords)
-        Translation2d targetPos;
-        switch (location) {
-            case SPEAKER:
-                if (isBlueAlliance) targetPos = new Translation2d(0.1, 5.43);
-                else targetPos = new Translation2d(16.5, 5.43);
-                break;
-            // case HOME
-            default:
-                if (isBlueAlliance) targetPos = new Translation2d(3.0, 6.8);
-                else targetPos = new Translation2d(13.6, 6);
-                break;
-        }
-        targetPos = calculateMovingShots(targetPos);
-        drivetrain.targetPosePublisher.set(new Pose2d(targetPos, new Rotation2d(0)));
-
-        // Get robot pose
-        Pose2d robotPose = drivetrain.positioner.getFieldPose();
-        
-        // Calculate stuff
-        double distance = Math.hypot(targetPos.getX() - robotPose.getX(), targetPos.getY() - robotPose.getY());
-        double desiredAngle = Math.atan2(targetPos.getY() - robotPose.getY(), targetPos.getX() - robotPose.getX());
-        Rotation2d currentAngle = drivetrain.positioner.getRotation(Perspective.Field);
-        Rotation2d targetAngle = Rotation2d.fromRadians(desiredAngle + Math.PI);
-
-        double kP = 0.035; // The amount of force it turns to the target with
-        double error = -currentAngle.minus(targetAngle).getDegrees(); // Calculate error
-        if (error > 20) error = 20; if (error < -20) error = -20;
-
-        // Post debug values
-        SmartDashboard.putNumber("Distance", distance);
-
-        return new Pair<>(error * kP, distance);
-    }
-
-    private Translation2d calculateMovingShots(Translation2d targetPos) {
-        ChassisSpeeds speeds = drivetrain.getFieldSpeeds();
-        if (speeds == null) return targetPos;
-        targetPos.plus(new Translation2d(-speeds.vxMetersPerSecond, -speeds.vyMetersPerSecond));
-        return targetPos;
-    }
+    public boolean isTargeting() { return aimRequest.isActive(); }
+    public boolean isTargetingSpeaker() { return aimRequest.isAiming(ShotLocation.SPEAKER); }
+    public boolean isTargetingHome() { return aimRequest.isAiming(ShotLocation.HOME); }
 
     public LEDs getLEDs() { return leds; }
-
-    public enum ShotLocation {
-        SPEAKER, HOME
-    }
 }
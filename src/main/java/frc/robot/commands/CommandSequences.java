@@ -24,7 +24,8 @@ public class CommandSequences {
      * @return
      */
     public static Command rawShootCommand(double speed, TransferSubsystem transfer, ShooterSubsystem shooter) {
-        return shooter.startAndRun(speed, 1.2)
+        return shooter.startShooter(speed)
+            .andThen(waitForShooter(shooter))
             .andThen(startShooterAndTransfer(speed, shooter, transfer).withTimeout(0.8))
             .andThen(stopShooterAndTransfer(shooter, transfer));
     }
@@ -35,7 +36,7 @@ public class CommandSequences {
      */
     public static Command ampShootCommand(double topSpeed, double bottomSpeed, TransferSubsystem transfer, ShooterSubsystem shooter) {
         return shooter.startSeperateShooters(topSpeed, bottomSpeed)
-            .andThen(Commands.waitSeconds(1.2))
+            .andThen(waitForShooter(shooter))
             .andThen(transfer.removeForceStop().andThen(transfer.feedShooterCommand()).withTimeout(0.8))
             .andThen(stopShooterAndTransfer(shooter, transfer));
     }
@@ -70,14 +71,24 @@ public class CommandSequences {
     }
 
     /**
-     * Starts the shooter motors for a specified amount of time. The 
-     * motors will not stop when the command ends.
-     * @param speed the desired RPM of the shooter motors
-     * @param time the amount of time the command will last
+     * Starts the shooter motors and waits until they're up to speed, or
+     * until the time runs out. The motors will not stop when the command ends.
+     * @param speed the desired power of the shooter motors
+     * @param time the longest the command will last
      * @return the command
      */
     public static Command spinUpShooter(double speed, double time, ShooterSubsystem shooter) {
-        return shooter.startShooter(speed).andThen(Commands.waitSeconds(time));
+        return shooter.startShooter(speed).andThen(Commands.waitUntil(shooter::upToSpeed).withTimeout(time));
+    }
+
+    /**
+     * Waits until both shooter wheels are up to speed and the pivot is at its target.
+     * Gives up after {@code ShooterSubsystem.Constants.spinUpTimeout} so a note is never stuck.
+     * @return the command
+     */
+    public static Command waitForShooter(ShooterSubsystem shooter) {
+        return Commands.waitUntil(() -> shooter.upToSpeed() && shooter.pivotAtTarget())
+            .withTimeout(ShooterSubsystem.Constants.spinUpTimeout);
     }
 
     // +++ Intake +++
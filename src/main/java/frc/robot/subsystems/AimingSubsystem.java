@@ -0,0 +1,242 @@
+package frc.robot.subsystems;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.wpilibj.DriverStation.Alliance;
+import edu.wpi.first.wpilibj2.command.SubsystemBase;
+import frc.robot.subsystems.swerve.SwerveDrivetrain;
+import frc.robot.subsystems.swerve.positioning.RobotState;
+import frc.robot.util.HeadingController;
+import frc.robot.util.LoopProfiler;
+import frc.robot.util.ShotSolver;
+import frc.robot.util.Telemetry;
+
+/**
+ * Works out one aim solution per loop for everything that aims: the heading to turn to and
+ * how fast, the distance, and the shooter setpoints. Nothing is solved and the shooter isn't
+ * touched unless a client has an active {@link Request}.
+ *
+ * <p>The solution is worked out in periodic, which runs after the robot state is captured and
+ * before any commands, so every reader in the loop sees the same solution.
+ */
+public class AimingSubsystem extends SubsystemBase {
+
+    public static class Constants {
+        /** Blue alliance speaker position (meters) */
+        public static final double blueSpeakerX = 0.1, blueSpeakerY = 5.43;
+        /** Red alliance speaker position (meters) */
+        public static final double redSpeakerX = 16.5, redSpeakerY = 5.43;
+        /** Blue alliance home shot position (meters) */
+        public static final double blueHomeX = 3.0, blueHomeY = 6.8;
+        /** Red alliance home shot position (meters) */
+        public static final double redHomeX = 13.6, redHomeY = 6;
+
+        /** Pivot angle and flywheel setpoint for the home shot, which has no lookup tables */
+        public static final double homePivotAngle = 42.5;
+        public static final double homePower = 0.425;
+    }
+
+    private final SwerveDrivetrain drivetrain;
+    private final ShooterSubsystem shooter;
+
+    private final ShotSolver shotSolver = new ShotSolver(ShooterSubsystem.Constants.angleLookup,
+        ShooterSubsystem.Constants.powerLookup, ShooterSubsystem.Constants.timeOfFlightLookup,
+        ShooterSubsystem.Constants.speakerDistanceOffset);
+    private final HeadingController headingController = new HeadingController();
+
+    private final Request[] requests = new Request[4];
+    private int requestCount = 0;
+
+    // Target positions for the current alliance, only worked out again when the alliance changes
+    private Alliance cachedAlliance;
+    private final double[] targetX = new double[ShotLocation.values().length];
+    private final double[] targetY = new double[ShotLocation.values().length];
+
+    // The solution for this loop
+    private ShotLocation location;
+    private boolean valid;
+    private double goalHeading, headingError, turnRate, distance, pivotAngle, power;
+
+    private final LoopProfiler.Stage profilerStage = LoopProfiler.getInstance().stage("Aiming");
+    private final Telemetry.NumberEntry distanceEntry = Telemetry.getInstance().number("Distance");
+    private final Telemetry.NumberEntry timeOfFlightEntry = Telemetry.getInstance().number("Shot Time of Flight");
+
+    /**
+     * @param drivetrain the drivetrain to read the robot state from
+     * @param shooter the shooter to send the setpoints to while aiming
+     */
+    public AimingSubsystem(SwerveDrivetrain drivetrain, ShooterSubsystem shooter) {
+        super();
+
+        this.drivetrain = drivetrain;
+        this.shooter = shooter;
+    }
+
+    /**
+     * Creates a handle a client turns aiming on and off with. Only call this during setup.
+     * @return the request, inactive until it's started
+     */
+    public Request createRequest() {
+        if (requestCount == requests.length) {
+            throw new IllegalStateException("Too many aiming clients, increase the request array size");
+        }
+
+        Request request = new Request();
+        requests[requestCount++] = request;
+        return request;
+    }
+
+    @Override
+    public void periodic() {
+        profilerStage.start();
+
+        // The speaker wins over the home shot if clients disagree
+        location = null;
+        for (int i = 0; i < requestCount; i++) {
+            ShotLocation requested = requests[i].location;
+            if (requested != null && (location == null || requested.ordinal() < location.ordinal())) location = requested;
+        }
+
+        valid = location != null;
+        if (valid) solve(drivetrain.getState());
+
+        profilerStage.stop();
+    }
+
+    private void solve(RobotState state) {
+        if (state.getAlliance() != cachedAlliance) cacheTargets(state.getAlliance());
+
+        Pose2d robotPose = state.getFieldPose();
+        ChassisSpeeds speeds = state.getFieldSpeeds();
+        double x = robotPose.getX();
+        double y = robotPose.getY();
+        double heading = state.getFieldRotation().getRadians();
+
+        // Only the speaker has a time of flight table, the home shot is aimed as if the robot was still
+        boolean moving = location == ShotLocation.SPEAKER;
+        shotSolver.solve(x, y, moving ? speeds.vxMetersPerSecond : 0, moving ? speeds.vyMetersPerSecond : 0,
+            targetX[location.ordinal()], targetY[location.ordinal()]);
+
+        // The back of the robot faces the target, and the bearing turns as the robot drives past it
+        distance = shotSolver.getDistance();
+        goalHeading = MathUtil.angleModulus(shotSolver.getHeading() + Math.PI);
+        headingError = MathUtil.angleModulus(goalHeading - heading);
+        double goalRate = HeadingController.bearingRate(x, y, speeds.vxMetersPerSecond, speeds.vyMetersPerSecond,
+            shotSolver.getVirtualTargetX(), shotSolver.getVirtualTargetY());
+
+        turnRate = headingController.calculate(state.getTimestamp(), heading, speeds.omegaRadiansPerSecond,
+            drivetrain.positioner.getYawLatency(), goalHeading, goalRate);
+
+        if (location == ShotLocation.SPEAKER) {
+            // Already includes the distance offset
+            pivotAngle = shotSolver.getPivotAngle();
+            power = shotSolver.getPower();
+        } else {
+            pivotAngle = Constants.homePivotAngle;
+            power = Constants.homePower;
+        }
+
+        shooter.setPivotTargetRaw(pivotAngle);
+        shooter.setPowerRaw(power);
+
+        drivetrain.targetPosePublisher.set(shotSolver.getVirtualTargetX(), shotSolver.getVirtualTargetY(), 0);
+        distanceEntry.set(distance);
+        timeOfFlightEntry.set(shotSolver.getTimeOfFlight());
+    }
+
+    private void cacheTargets(Alliance alliance) {
+        cachedAlliance = alliance;
+        boolean blue = alliance != Alliance.Red;
+
+        targetX[ShotLocation.SPEAKER.ordinal()] = blue ? Constants.blueSpeakerX : Constants.redSpeakerX;
+        targetY[ShotLocation.SPEAKER.ordinal()] = blue ? Constants.blueSpeakerY : Constants.redSpeakerY;
+        targetX[ShotLocation.HOME.ordinal()] = blue ? Constants.blueHomeX : Constants.redHomeX;
+        targetY[ShotLocation.HOME.ordinal()] = blue ? Constants.blueHomeY : Constants.redHomeY;
+    }
+
+    /**
+     * @return true if a solution was worked out this loop, the getters are stale otherwise
+     */
+    public boolean hasSolution() { return valid; }
+
+    /**
+     * @return The location being aimed at this loop, or null if nothing is aiming
+     */
+    public ShotLocation getLocation() { return location; }
+
+    /**
+     * @return The field heading that points the shooter at the target (radians)
+     */
+    public double getGoalHeading() { return goalHeading; }
+
+    /**
+     * @return The goal heading minus the current heading (radians)
+     */
+    public double getHeadingError() { return headingError; }
+
+    /**
+     * @return The turn rate to aim with (rad/s), 0 if nothing is aiming
+     */
+    public double getTurnRate() { return valid ? turnRate : 0; }
+
+    /**
+     * @return The field heading the aiming profile wants right now (radians)
+     */
+    public double getSetpoint() { return headingController.getSetpoint(); }
+
+    /**
+     * @return The distance to the target, after moving it for the robot's velocity (meters)
+     */
+    public double getDistance() { return distance; }
+
+    /**
+     * @return The pivot angle sent to the shooter
+     */
+    public double getPivotAngle() { return pivotAngle; }
+
+    /**
+     * @return The flywheel setpoint sent to the shooter
+     */
+    public double getPower() { return power; }
+
+    /**
+     * @return true if a solution was worked out this loop and the robot is on it
+     */
+    public boolean isSettled() { return valid && headingController.isSettled(); }
+
+    /**
+     * One client's interest in aiming, see {@link #createRequest}
+     */
+    public static class Request {
+        private ShotLocation location;
+
+        private Request() {}
+
+        /**
+         * Starts aiming at a location from the next loop
+         */
+        public void start(ShotLocation location) { this.location = location; }
+
+        /**
+         * Stops this client's aiming, aiming stops once no client wants it
+         */
+        public void stop() { location = null; }
+
+        /**
+         * @return true if this client is aiming
+         */
+        public boolean isActive() { return location != null; }
+
+        /**
+         * @param location the location to check
+         * @return true if this client is aiming at the location
+         */
+        public boolean isAiming(ShotLocation location) { return this.location == location; }
+    }
+
+    /** Places the robot can aim at, in order of priority */
+    public enum ShotLocation {
+        SPEAKER, HOME
+    }
+}
@@ -0,0 +1,483 @@
+package frc.robot.subsystems;
+
+/**
+ * Plans arm and wrist moves that never enter a keep-out region in joint space, the
+ * angles where the wrist would hit the robot while the arm swings past it.
+ *
+ * <p>Each joint normally moves straight to its goal on its own fastest trapezoid profile,
+ * and one joint is held back just long enough that the other clears the region first, so
+ * the path rounds the corner of the region without stopping. If that can't get around the
+ * region, the move falls back to the shortest path of straight lines through the corners
+ * of the region (found with Dijkstra over the corners that can see each other), stopping
+ * at each one. The result is sampled into a {@link Trajectory} of setpoints and velocities
+ * that can be played back without any math.
+ */
+public class ArmPlanner {
+
+    public static class Constants {
+        /** Time between trajectory samples, one robot loop (seconds) */
+        public static final double dt = 0.02;
+        /** Lines this close to the keep-out region count as hitting it (degrees) */
+        public static final double epsilon = 1e-6;
+        /** Time between the checks that a move stays out of the region (seconds) */
+        public static final double checkStep = 0.002;
+        /** How closely the time a joint gets held back for is found (seconds) */
+        public static final double delayResolution = 0.001;
+    }
+
+    private final double armMaxVelocity, armMaxAcceleration;
+    private final double wristMaxVelocity, wristMaxAcceleration;
+
+    // Keep-out region grown by the margin
+    private final double armMin, armMax, wristMin, wristMax;
+
+    /**
+     * @param armMaxVelocity fastest the arm can move (degrees per second)
+     * @param armMaxAcceleration fastest the arm can speed up (degrees per second squared)
+     * @param wristMaxVelocity fastest the wrist can move (degrees per second)
+     * @param wristMaxAcceleration fastest the wrist can speed up (degrees per second squared)
+     * @param armKeepOutMin lowest arm angle of the keep-out region
+     * @param armKeepOutMax highest arm angle of the keep-out region
+     * @param wristKeepOutMin lowest wrist angle of the keep-out region
+     * @param wristKeepOutMax highest wrist angle of the keep-out region
+     * @param margin how far away from the region paths stay (degrees)
+     */
+    public ArmPlanner(double armMaxVelocity, double armMaxAcceleration, double wristMaxVelocity,
+            double wristMaxAcceleration, double armKeepOutMin, double armKeepOutMax,
+            double wristKeepOutMin, double wristKeepOutMax, double margin) {
+        this.armMaxVelocity = armMaxVelocity;
+        this.armMaxAcceleration = armMaxAcceleration;
+        this.wristMaxVelocity = wristMaxVelocity;
+        this.wristMaxAcceleration = wristMaxAcceleration;
+
+        this.armMin = armKeepOutMin - margin;
+        this.armMax = armKeepOutMax + margin;
+        this.wristMin = wristKeepOutMin - margin;
+        this.wristMax = wristKeepOutMax + margin;
+    }
+
+    /**
+     * @return true if the position is inside the keep-out region (or its margin)
+     */
+    public boolean isKeepOut(double arm, double wrist) {
+        return arm > armMin && arm < armMax && wrist > wristMin && wrist < wristMax;
+    }
+
+    /**
+     * Plans a move between two positions. Creates a few small arrays, so plan ahead of time
+     * where possible. A start inside the keep-out region gets out by raising the wrist first.
+     * @param startArm the arm angle to start at (degrees)
+     * @param startWrist the wrist angle to start at (degrees)
+     * @param goalArm the arm angle to end at (degrees)
+     * @param goalWrist the wrist angle to end at (degrees)
+     * @return the trajectory
+     */
+    public Trajectory plan(double startArm, double startWrist, double goalArm, double goalWrist) {
+        if (isKeepOut(goalArm, goalWrist)) {
+            throw new IllegalArgumentException("Arm goal (" + goalArm + ", " + goalWrist + ") is inside the keep-out region");
+        }
+
+        if (!isKeepOut(startArm, startWrist)) {
+            Trajectory overlapped = planOverlapped(startArm, startWrist, goalArm, goalWrist);
+            if (overlapped != null) return overlapped;
+        }
+
+        return planCorners(startArm, startWrist, goalArm, goalWrist);
+    }
+
+    /**
+     * Moves each joint straight to its goal on its own fastest profile, with one of them held
+     * back just long enough for the other to get clear. The joints never stop on the way, so
+     * the path rounds the corner of the keep-out region at speed.
+     * @return the trajectory, or null if holding back either joint can't get around the region
+     */
+    private Trajectory planOverlapped(double startArm, double startWrist, double goalArm, double goalWrist) {
+        double armDistance = goalArm - startArm;
+        double wristDistance = goalWrist - startWrist;
+        double armTime = duration(armDistance, armMaxVelocity, armMaxAcceleration);
+        double wristTime = duration(wristDistance, wristMaxVelocity, wristMaxAcceleration);
+
+        // Try holding back each joint, and keep whichever finishes first
+        double wristDelay = minimumDelay(startArm, startWrist, armDistance, wristDistance, false, armTime);
+        double armDelay = minimumDelay(startArm, startWrist, armDistance, wristDistance, true, wristTime);
+        double wristDelayedTime = Math.max(armTime, wristDelay + wristTime);
+        double armDelayedTime = Math.max(armDelay + armTime, wristTime);
+
+        if (Double.isNaN(wristDelay) && Double.isNaN(armDelay)) return null;
+        if (Double.isNaN(wristDelay) || (!Double.isNaN(armDelay) && armDelayedTime < wristDelayedTime)) {
+            wristDelay = 0;
+        } else {
+            armDelay = 0;
+        }
+
+        double totalTime = Math.max(armDelay + armTime, wristDelay + wristTime);
+        int samples = (int) Math.ceil(totalTime / Constants.dt) + 1;
+        double[] armSamples = new double[samples];
+        double[] wristSamples = new double[samples];
+        double[] armVelocities = new double[samples];
+        double[] wristVelocities = new double[samples];
+
+        for (int i = 0; i < samples; i++) {
+            double armTimeIn = i * Constants.dt - armDelay;
+            double wristTimeIn = i * Constants.dt - wristDelay;
+
+            armSamples[i] = startArm + position(armTimeIn, armDistance, armMaxVelocity, armMaxAcceleration);
+            wristSamples[i] = startWrist + position(wristTimeIn, wristDistance, wristMaxVelocity, wristMaxAcceleration);
+            armVelocities[i] = velocity(armTimeIn, armDistance, armMaxVelocity, armMaxAcceleration);
+            wristVelocities[i] = velocity(wristTimeIn, wristDistance, wristMaxVelocity, wristMaxAcceleration);
+        }
+
+        // Land exactly on the goal
+        armSamples[samples - 1] = goalArm;
+        wristSamples[samples - 1] = goalWrist;
+        armVelocities[samples - 1] = 0;
+        wristVelocities[samples - 1] = 0;
+
+        return new Trajectory(armSamples, wristSamples, armVelocities, wristVelocities);
+    }
+
+    /**
+     * Finds the shortest time one joint can be held back for and still keep the move out of
+     * the region, assuming more delay is never worse
+     * @param delayArm true to hold back the arm, false to hold back the wrist
+     * @param maxDelay the delay where the other joint has already finished (seconds)
+     * @return the delay (seconds), or NaN if even the longest delay doesn't clear the region
+     */
+    private double minimumDelay(double startArm, double startWrist, double armDistance, double wristDistance,
+            boolean delayArm, double maxDelay) {
+        if (isClear(startArm, startWrist, armDistance, wristDistance, 0, 0)) return 0;
+        if (!isClear(startArm, startWrist, armDistance, wristDistance, delayArm ? maxDelay : 0, delayArm ? 0 : maxDelay)) {
+            return Double.NaN;
+        }
+
+        double low = 0;
+        double high = maxDelay;
+        while (high - low > Constants.delayResolution) {
+            double middle = (low + high) / 2;
+            boolean clear = isClear(startArm, startWrist, armDistance, wristDistance,
+                delayArm ? middle : 0, delayArm ? 0 : middle);
+            if (clear) high = middle;
+            else low = middle;
+        }
+
+        return high;
+    }
+
+    /**
+     * Steps through a move where each joint follows its own profile after its delay. Each joint
+     * only ever moves one way, so between two steps the path stays inside the box the steps
+     * span, and the move is clear if none of those boxes touch the region.
+     * @return true if no part of the move is inside the region
+     */
+    private boolean isClear(double startArm, double startWrist, double armDistance, double wristDistance,
+            double armDelay, double wristDelay) {
+        double totalTime = Math.max(armDelay + duration(armDistance, armMaxVelocity, armMaxAcceleration),
+            wristDelay + duration(wristDistance, wristMaxVelocity, wristMaxAcceleration));
+
+        double lastArm = startArm;
+        double lastWrist = startWrist;
+        for (double time = Constants.checkStep; time < totalTime + Constants.checkStep; time += Constants.checkStep) {
+            double arm = startArm + position(time - armDelay, armDistance, armMaxVelocity, armMaxAcceleration);
+            double wrist = startWrist + position(time - wristDelay, wristDistance, wristMaxVelocity, wristMaxAcceleration);
+
+            boolean armOverlaps = Math.max(arm, lastArm) > armMin + Constants.epsilon
+                && Math.min(arm, lastArm) < armMax - Constants.epsilon;
+            boolean wristOverlaps = Math.max(wrist, lastWrist) > wristMin + Constants.epsilon
+                && Math.min(wrist, lastWrist) < wristMax - Constants.epsilon;
+            if (armOverlaps && wristOverlaps) return false;
+
+            lastArm = arm;
+            lastWrist = wrist;
+        }
+
+        return true;
+    }
+
+    /**
+     * Follows the shortest path of straight lines through the corners of the region, stopping
+     * at each corner. Only used when the overlapped move can't get around the region, like
+     * when starting inside it.
+     */
+    private Trajectory planCorners(double startArm, double startWrist, double goalArm, double goalWrist) {
+        // Nodes are the start, the goal, and the corners of the keep-out region
+        double[] arms = {startArm, goalArm, armMin, armMax, armMin, armMax, startArm};
+        double[] wrists = {startWrist, goalWrist, wristMin, wristMin, wristMax, wristMax, wristMax};
+        int count = 6;
+
+        // Starting inside the region, the only way out is straight up
+        boolean escape = isKeepOut(startArm, startWrist);
+        if (escape) count = 7;
+
+        int[] previous = shortestPath(arms, wrists, count, escape);
+
+        // Walk back from the goal to build the path
+        int length = 0;
+        int[] path = new int[count];
+        for (int node = 1; node != -1; node = previous[node]) path[length++] = node;
+
+        // Add up the time of every line to size the samples
+        double[] segmentTimes = new double[length - 1];
+        double totalTime = 0;
+        for (int i = length - 1; i > 0; i--) {
+            int from = path[i];
+            int to = path[i - 1];
+            segmentTimes[length - 1 - i] = segmentTime(arms[to] - arms[from], wrists[to] - wrists[from]);
+            totalTime += segmentTimes[length - 1 - i];
+        }
+
+        int samples = (int) Math.ceil(totalTime / Constants.dt) + 1;
+        double[] armSamples = new double[samples];
+        double[] wristSamples = new double[samples];
+        double[] armVelocities = new double[samples];
+        double[] wristVelocities = new double[samples];
+
+        int segment = 0;
+        double segmentStart = 0;
+        for (int i = 0; i < samples; i++) {
+            double time = Math.min(i * Constants.dt, totalTime);
+
+            while (segment < segmentTimes.length - 1 && time > segmentStart + segmentTimes[segment]) {
+                segmentStart += segmentTimes[segment];
+                segment++;
+            }
+
+            if (segmentTimes.length == 0) {
+                armSamples[i] = goalArm;
+                wristSamples[i] = goalWrist;
+                continue;
+            }
+
+            int from = path[length - 1 - segment];
+            int to = path[length - 2 - segment];
+            double deltaArm = arms[to] - arms[from];
+            double deltaWrist = wrists[to] - wrists[from];
+
+            // Fraction of the line covered, both joints move along it together
+            double lineVelocity = lineLimit(armMaxVelocity, wristMaxVelocity, deltaArm, deltaWrist);
+            double lineAcceleration = lineLimit(armMaxAcceleration, wristMaxAcceleration, deltaArm, deltaWrist);
+            double s = position(time - segmentStart, 1, lineVelocity, lineAcceleration);
+            double ds = velocity(time - segmentStart, 1, lineVelocity, lineAcceleration);
+
+            armSamples[i] = arms[from] + deltaArm * s;
+            wristSamples[i] = wrists[from] + deltaWrist * s;
+            armVelocities[i] = deltaArm * ds;
+            wristVelocities[i] = deltaWrist * ds;
+        }
+
+        // Land exactly on the goal
+        armSamples[samples - 1] = goalArm;
+        wristSamples[samples - 1] = goalWrist;
+        armVelocities[samples - 1] = 0;
+        wristVelocities[samples - 1] = 0;
+
+        return new Trajectory(armSamples, wristSamples, armVelocities, wristVelocities);
+    }
+
+    /**
+     * Dijkstra from the start (node 0) over every pair of nodes with a clear line between them
+     * @return the node before each node on its shortest path, -1 for the start
+     */
+    private int[] shortestPath(double[] arms, double[] wrists, int count, boolean escape) {
+        double[] cost = new double[count];
+        int[] previous = new int[count];
+        boolean[] done = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            cost[i] = Double.POSITIVE_INFINITY;
+            previous[i] = -1;
+        }
+        cost[0] = 0;
+
+        for (int step = 0; step < count; step++) {
+            int node = -1;
+            for (int i = 0; i < count; i++) {
+                if (!done[i] && (node == -1 || cost[i] < cost[node])) node = i;
+            }
+            if (node == -1 || cost[node] == Double.POSITIVE_INFINITY) break;
+            done[node] = true;
+
+            for (int next = 0; next < count; next++) {
+                if (done[next]) continue;
+
+                // The start can only leave the region through the escape node
+                if (escape && node == 0 && next != 6) continue;
+                if (!(escape && node == 0) && crossesKeepOut(arms[node], wrists[node], arms[next], wrists[next])) continue;
+
+                double newCost = cost[node] + segmentTime(arms[next] - arms[node], wrists[next] - wrists[node]);
+                if (newCost < cost[next]) {
+                    cost[next] = newCost;
+                    previous[next] = node;
+                }
+            }
+        }
+
+        if (previous[1] == -1 && count > 1 && (arms[0] != arms[1] || wrists[0] != wrists[1])) {
+            throw new IllegalStateException("No arm path around the keep-out region");
+        }
+
+        return previous;
+    }
+
+    /**
+     * Liang-Barsky clipping against the keep-out region shrunk by epsilon, so lines along
+     * its edges and through its corners are allowed
+     * @return true if any part of the line is inside the region
+     */
+    private boolean crossesKeepOut(double arm0, double wrist0, double arm1, double wrist1) {
+        double[] p = {-(arm1 - arm0), arm1 - arm0, -(wrist1 - wrist0), wrist1 - wrist0};
+        double[] q = {arm0 - (armMin + Constants.epsilon), (armMax - Constants.epsilon) - arm0,
+            wrist0 - (wristMin + Constants.epsilon), (wristMax - Constants.epsilon) - wrist0};
+
+        double enter = 0;
+        double exit = 1;
+        for (int i = 0; i < 4; i++) {
+            if (p[i] == 0) {
+                if (q[i] <= 0) return false; // Parallel and outside
+                continue;
+            }
+
+            double t = q[i] / p[i];
+            if (p[i] < 0) enter = Math.max(enter, t);
+            else exit = Math.min(exit, t);
+        }
+
+        return exit - enter > Constants.epsilon;
+    }
+
+    /**
+     * Both joints move along the line together, so the line is limited by whichever joint
+     * would take longer
+     * @return how long a rest to rest move along the line takes (seconds)
+     */
+    private double segmentTime(double deltaArm, double deltaWrist) {
+        return duration(1, lineLimit(armMaxVelocity, wristMaxVelocity, deltaArm, deltaWrist),
+            lineLimit(armMaxAcceleration, wristMaxAcceleration, deltaArm, deltaWrist));
+    }
+
+    /**
+     * @return how long a rest to rest trapezoid profile over the distance takes (seconds)
+     */
+    private static double duration(double distance, double maxVelocity, double maxAcceleration) {
+        distance = Math.abs(distance);
+        if (distance == 0 || maxVelocity == Double.POSITIVE_INFINITY) return 0;
+
+        // Never reaches cruise velocity
+        if (maxVelocity * maxVelocity / maxAcceleration > distance) return 2 * Math.sqrt(distance / maxAcceleration);
+        return maxVelocity / maxAcceleration + distance / maxVelocity;
+    }
+
+    /**
+     * @param time time since the profile started, clamped to the profile (seconds)
+     * @param distance signed distance the profile covers
+     * @return the distance covered by the time along a rest to rest trapezoid profile
+     */
+    private static double position(double time, double distance, double maxVelocity, double maxAcceleration) {
+        double totalTime = duration(distance, maxVelocity, maxAcceleration);
+        if (time <= 0) return 0;
+        if (time >= totalTime) return distance;
+
+        double sign = Math.signum(distance);
+        double accelTime = Math.min(maxVelocity / maxAcceleration, totalTime / 2);
+        if (time < accelTime) return sign * 0.5 * maxAcceleration * time * time;
+
+        double decelStart = totalTime - accelTime;
+        if (time < decelStart) {
+            return sign * (0.5 * maxAcceleration * accelTime * accelTime + maxAcceleration * accelTime * (time - accelTime));
+        }
+
+        double remaining = totalTime - time;
+        return distance - sign * 0.5 * maxAcceleration * remaining * remaining;
+    }
+
+    /**
+     * @param time time since the profile started (seconds)
+     * @param distance signed distance the profile covers
+     * @return the velocity at the time along a rest to rest trapezoid profile
+     */
+    private static double velocity(double time, double distance, double maxVelocity, double maxAcceleration) {
+        double totalTime = duration(distance, maxVelocity, maxAcceleration);
+        if (time <= 0 || time >= totalTime) return 0;
+
+        double sign = Math.signum(distance);
+        double accelTime = Math.min(maxVelocity / maxAcceleration, totalTime / 2);
+        return sign * maxAcceleration * Math.min(Math.min(time, accelTime), totalTime - time);
+    }
+
+    /**
+     * Converts per joint limits into a limit on how fast the fraction of the line can change
+     */
+    private static double lineLimit(double armLimit, double wristLimit, double deltaArm, double deltaWrist) {
+        double limit = Double.POSITIVE_INFINITY;
+        if (deltaArm != 0) limit = Math.min(limit, armLimit / Math.abs(deltaArm));
+        if (deltaWrist != 0) limit = Math.min(limit, wristLimit / Math.abs(deltaWrist));
+        return limit;
+    }
+
+    /**
+     * Arm and wrist setpoints and velocities sampled every {@code Constants.dt} seconds
+     */
+    public static class Trajectory {
+        private final double[] arm;
+        private final double[] wrist;
+        private final double[] armVelocity;
+        private final double[] wristVelocity;
+
+        private Trajectory(double[] arm, double[] wrist, double[] armVelocity, double[] wristVelocity) {
+            this.arm = arm;
+            this.wrist = wrist;
+            this.armVelocity = armVelocity;
+            this.wristVelocity = wristVelocity;
+        }
+
+        /**
+         * @return how long the trajectory takes (seconds)
+         */
+        public double getDuration() {
+            return (arm.length - 1) * Constants.dt;
+        }
+
+        /**
+         * @param time time since the trajectory started (seconds)
+         * @return the sample to use at the time, the last one once the trajectory is over
+         */
+        public int indexAt(double time) {
+            // Durations are whole samples, don't let rounding land one sample short of the end
+            int index = (int) (time / Constants.dt + Constants.epsilon);
+            return Math.max(0, Math.min(index, arm.length - 1));
+        }
+
+        /**
+         * @return true if the index is the last sample
+         */
+        public boolean isEnd(int index) {
+            return index >= arm.length - 1;
+        }
+
+        /**
+         * @return the arm setpoint at the sample (degrees)
+         */
+        public double getArm(int index) {
+            return arm[index];
+        }
+
+        /**
+         * @return the wrist setpoint at the sample (degrees)
+         */
+        public double getWrist(int index) {
+            return wrist[index];
+        }
+
+        /**
+         * @return the arm velocity at the sample (degrees per second)
+         */
+        public double getArmVelocity(int index) {
+            return armVelocity[index];
+        }
+
+        /**
+         * @return the wrist velocity at the sample (degrees per second)
+         */
+        public double getWristVelocity(int index) {
+            return wristVelocity[index];
+        }
+    }
+}
@@ -8,6 +8,8 @@ import com.revrobotics.CANSparkBase.IdleMode;
 import com.revrobotics.CANSparkLowLevel.MotorType;
 
 import edu.wpi.first.wpilibj.DigitalInput;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.smartdashboard.Mechanism2d;
 import edu.wpi.first.wpilibj.smartdashboard.MechanismLigament2d;
 import edu.wpi.first.wpilibj.smartdashboard.MechanismRoot2d;
@@ -15,9 +17,12 @@ import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 import edu.wpi.first.wpilibj.util.Color;
 import edu.wpi.first.wpilibj.util.Color8Bit;
 import edu.wpi.first.wpilibj2.command.Command;
-import edu.wpi.first.wpilibj2.command.Commands;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
 import frc.robot.util.CanIDs;
+import frc.robot.util.LoopProfiler;
+import frc.robot.util.PID;
+import frc.robot.util.SparkPositionController;
+import frc.robot.util.Telemetry;
 
 public class ArmSubsystem extends SubsystemBase {
     public static class Constants {
@@ -32,15 +37,65 @@ public class ArmSubsystem extends SubsystemBase {
 
         public static final double ARM_EXTEND_ANGLE = 136.8;
         public static final double WRIST_EXTEND_ANGLE = 82.9;
+
+        /** Smart Motion velocity loop gains, FF is power per degree per second (from a constant power
+            velocity sweep, not characterized yet so it's set for cruise to take about 80% of the power limit) */
+        public static final PID ARM_PID = new PID(0.0002, 0, 0, 0.0012);
+        public static final double ARM_POWER_LIMIT = 0.28;
+        public static final double ARM_MAX_VELOCITY = 180; // Degrees per second
+        public static final double ARM_MAX_ACCELERATION = 360; // Degrees per second squared
+        public static final double ARM_GRAVITY_POWER = 0.02; // Power to hold the arm level
+        public static final double ARM_HORIZONTAL_ANGLE = 180;
+        /** Position loop gains for following planned moves, P is power per degree of error */
+        public static final PID ARM_POSITION_PID = new PID(0.01, 0, 0);
+
+        public static final PID WRIST_PID = new PID(0.0002, 0, 0, 0.00065); // Not characterized yet either
+        public static final double WRIST_POWER_LIMIT = 0.2;
+        public static final double WRIST_MAX_VELOCITY = 240; // Degrees per second
+        public static final double WRIST_MAX_ACCELERATION = 480; // Degrees per second squared
+        public static final PID WRIST_POSITION_PID = new PID(0.008, 0, 0);
+
+        public static final double TOLERANCE = 2.0; // Degrees
+
+        /** Angles where the wrist hits the robot while the arm swings past, the wrist has to be tucked up */
+        public static final double KEEP_OUT_ARM_MIN = 155.0;
+        public static final double KEEP_OUT_ARM_MAX = 240.0;
+        public static final double KEEP_OUT_WRIST_MIN = 0.0;
+        public static final double KEEP_OUT_WRIST_MAX = 245.0;
+        public static final double KEEP_OUT_MARGIN = 3.0; // Degrees
+    }
+
+    public enum ArmPose {
+        HOME(Constants.ARM_HOME_ANGLE, Constants.WRIST_HOME_ANGLE),
+        AMP(Constants.ARM_AMP_ANGLE, Constants.WRIST_AMP_ANGLE),
+        CLIMB(Constants.ARM_AMP_ANGLE, Constants.WRIST_HOME_ANGLE),
+        TRAP(Constants.ARM_TRAP_ANGLE, Constants.WRIST_TRAP_ANGLE),
+        EXTEND(Constants.ARM_EXTEND_ANGLE, Constants.WRIST_EXTEND_ANGLE);
+
+        public final double arm;
+        public final double wrist;
+
+        ArmPose(double arm, double wrist) {
+            this.arm = arm;
+            this.wrist = wrist;
+        }
     }
  
+    private final LoopProfiler.Stage profilerStage = LoopProfiler.getInstance().stage("Arm");
+
+    private final Telemetry.NumberEntry wristPositionEntry = Telemetry.getInstance().number("Wrist Position");
+    private final Telemetry.NumberEntry armPositionEntry = Telemetry.getInstance().number("Arm Position");
+
     private CANSparkMax rollers;
+    private double rollerSpeed = 0;
 
     private CANSparkMax wristMotor;
     private AbsoluteEncoder wristEncoder;
+    private SparkPositionController wristController;
 
     private CANSparkMax armMotor;
     private AbsoluteEncoder armEncoder;
+    private SparkPositionController armController;
 
     private DigitalInput noteSensor;
 
@@ -52,6 +107,19 @@ public class ArmSubsystem extends SubsystemBase {
     private double armTarget = Constants.ARM_HOME_ANGLE;
     private double wristTarget = Constants.WRIST_HOME_ANGLE;
 
+    // Every move between named poses is planned once up front
+    private final ArmPlanner planner = new ArmPlanner(Constants.ARM_MAX_VELOCITY, Constants.ARM_MAX_ACCELERATION,
+        Constants.WRIST_MAX_VELOCITY, Constants.WRIST_MAX_ACCELERATION, Constants.KEEP_OUT_ARM_MIN,
+        Constants.KEEP_OUT_ARM_MAX, Constants.KEEP_OUT_WRIST_MIN, Constants.KEEP_OUT_WRIST_MAX, Constants.KEEP_OUT_MARGIN);
+    private final ArmPlanner.Trajectory[][] trajectories = new ArmPlanner.Trajectory[ArmPose.values().length][ArmPose.values().length];
+
+    // The pose the arm is at or moving to, null after a manual target
+    private ArmPose pose = ArmPose.HOME;
+    private ArmPlanner.Trajectory trajectory;
+    private double trajectoryStart;
+    // The latest pose asked for while a trajectory was running, started once it finishes
+    private ArmPose queuedGoal;
+
     public ArmSubsystem() {
         super();
 
@@ -64,6 +132,11 @@ public class ArmSubsystem extends SubsystemBase {
         wristEncoder.setPositionConversionFactor(360);
         wristEncoder.setZeroOffset(100);
 
+        wristController = new SparkPositionController(wristMotor, wristEncoder, Constants.WRIST_PID,
+            Constants.WRIST_POWER_LIMIT, Constants.WRIST_MAX_VELOCITY, Constants.WRIST_MAX_ACCELERATION, Constants.TOLERANCE)
+            .withStreaming(Constants.WRIST_POSITION_PID);
+        wristController.setTarget(wristTarget);
+
         // Arm (the bottom part)
         armMotor = new CANSparkMax(CanIDs.get("trapper-arm"), MotorType.kBrushless);
         armMotor.setInverted(true);
@@ -73,9 +146,25 @@ public class ArmSubsystem extends SubsystemBase {
         armEncoder.setPositionConversionFactor(360);
         armEncoder.setZeroOffset(300);
 
+        armController = new SparkPositionController(armMotor, armEncoder, Constants.ARM_PID,
+            Constants.ARM_POWER_LIMIT, Constants.ARM_MAX_VELOCITY, Constants.ARM_MAX_ACCELERATION, Constants.TOLERANCE)
+            .withGravity(Constants.ARM_GRAVITY_POWER, Constants.ARM_HORIZONTAL_ANGLE)
+            .withStreaming(Constants.ARM_POSITION_PID);
+        armController.setTarget(armTarget);
+
+        for (ArmPose from : ArmPose.values()) {
+            for (ArmPose to : ArmPose.values()) {
+                trajectories[from.ordinal()][to.ordinal()] = planner.plan(from.arm, from.wrist, to.arm, to.wrist);
+            }
+        }
+
         // Rollers (self-explanatory)
         rollers = new CANSparkMax(CanIDs.get("trapper-motor"), MotorType.kBrushless);
 
+        CanBudget.getInstance().spark(wristMotor, CanBudget.SparkFrames.AbsoluteEncoder);
+        CanBudget.getInstance().spark(armMotor, CanBudget.SparkFrames.AbsoluteEncoder);
+        CanBudget.getInstance().spark(rollers, CanBudget.SparkFrames.Output);
+
         // Distance sensor looking for note
         noteSensor = new DigitalInput(3);
 
@@ -87,72 +176,168 @@ public class ArmSubsystem extends SubsystemBase {
     }
 
     public Command runRollers(double speed) {
-        return runOnce(() -> rollers.set(speed));
+        return runOnce(() -> setRollerSpeed(speed));
     }
 
     public Command stopRollers() {
-        return runOnce(() -> rollers.stopMotor());
+        return runOnce(() -> setRollerSpeed(0));
     }
 
+    /**
+     * Sets the roller power directly, for inputs that change every loop like a joystick.
+     * Doesn't require the subsystem, so it won't interrupt an arm move.
+     * @param speed the power to set the rollers to, 0 stops them
+     */
+    public void setRollerSpeed(double speed) {
+        if (speed == rollerSpeed) return;
+        rollerSpeed = speed;
+
+        if (speed == 0) rollers.stopMotor();
+        else rollers.set(speed);
+    }
+
+    /**
+     * Moves the wrist straight to a target, without checking the keep-out region
+     */
     public Command setWristTarget(double target) {
         return runOnce(() -> {
+            cancelTrajectory();
             wristTarget = target;
+            wristController.setTarget(target);
         });
     }
 
+    /**
+     * Moves the arm straight to a target, without checking the keep-out region
+     */
     public Command setArmTarget(double target) {
         return runOnce(() -> {
+            cancelTrajectory();
             armTarget = target;
+            armController.setTarget(target);
         });
     }
 
+    /**
+     * Starts moving the arm and wrist together to a pose, around the keep-out region.
+     * The command finishes right away, use {@link #atTarget()} to wait for the move.
+     *
+     * <p>If a move is already running it finishes first, and the arm then moves from there to the
+     * latest pose asked for. The planner only plans moves that start at rest, so starting a new
+     * move from the middle of one would drop both joints' velocity to zero in one loop.
+     * @param goal the pose to move to
+     * @return the command
+     */
+    public Command moveTo(ArmPose goal) {
+        return runOnce(() -> {
+            if (trajectory != null) {
+                queuedGoal = goal == pose ? null : goal;
+                return;
+            }
+
+            startTrajectory(goal);
+        });
+    }
+
+    private void startTrajectory(ArmPose goal) {
+        // Plan from where the arm is being told to go unless it's exactly at a known pose
+        if (pose != null) {
+            trajectory = trajectories[pose.ordinal()][goal.ordinal()];
+        } else {
+            trajectory = planner.plan(armTarget, wristTarget, goal.arm, goal.wrist);
+        }
+
+        pose = goal;
+        queuedGoal = null;
+        trajectoryStart = Timer.getFPGATimestamp();
+    }
+
+    private void cancelTrajectory() {
+        trajectory = null;
+        pose = null;
+        queuedGoal = null;
+    }
+
+    /**
+     * @return true if the arm is within tolerance of its target
+     */
+    public boolean armAtTarget() {
+        return armController.atTarget();
+    }
+
+    /**
+     * @return true if the wrist is within tolerance of its target
+     */
+    public boolean wristAtTarget() {
+        return wristController.atTarget();
+    }
+
+    /**
+     * @return true if both the arm and the wrist are at their targets
+     */
+    public boolean atTarget() {
+        return trajectory == null && armAtTarget() && wristAtTarget();
+    }
+
     public Command setTargets(double armTarget, double pivotTarget) {
         return setWristTarget(pivotTarget).alongWith(setArmTarget(armTarget));
     }
 
     public Command homePosition() {
-        return setWristTarget(Constants.WRIST_HOME_ANGLE).andThen(Commands.waitSeconds(0.25))
-            .andThen(setArmTarget(Constants.ARM_HOME_ANGLE));
+        return moveTo(ArmPose.HOME);
     }
 
     public Command ampPosition() {
-        return setArmTarget(Constants.ARM_AMP_ANGLE).andThen(Commands.waitSeconds(0.25))
-            .andThen(setWristTarget(Constants.WRIST_AMP_ANGLE));
+        return moveTo(ArmPose.AMP);
     }
 
     public Command climbPosition() {
-        return setArmTarget(Constants.ARM_AMP_ANGLE).andThen(setWristTarget(Constants.WRIST_HOME_ANGLE));
+        return moveTo(ArmPose.CLIMB);
     }
 
     public Command trapPosition() {
-        return setArmTarget(Constants.ARM_TRAP_ANGLE).andThen(setWristTarget(Constants.WRIST_TRAP_ANGLE));
+        return moveTo(ArmPose.TRAP);
     }
 
     public Command extendPosition() {
-        return setArmTarget(Constants.ARM_EXTEND_ANGLE).andThen(setWristTarget(Constants.WRIST_EXTEND_ANGLE));
+        return moveTo(ArmPose.EXTEND);
     }
 
     @Override
     public void periodic() {
+        profilerStage.start();
         super.periodic();
-        trapperArmMech.setAngle(armEncoder.getPosition());
-        trapperWristMech.setAngle(wristEncoder.getPosition());
-
-        // Target the proper angles
-
-        double wristEncoderPos = wristEncoder.getPosition();
-        double wristError = Math.max(Math.min((wristTarget - wristEncoderPos) / 300.0,
-            /* Max motor speed */ 0.20), /* Min motor speed */ -0.20);
-        wristMotor.set(wristError);
-
-        double armEncoderPos = armEncoder.getPosition();
-        double armError = Math.max(Math.min((armTarget - armEncoderPos) / 300.0,
-            /* Max motor speed */ 0.28), /* Min motor speed */ -0.28);
-        armMotor.set(armError);
 
-        SmartDashboard.putNumber("Wrist Position", wristEncoder.getPosition());
-        SmartDashboard.putNumber("Arm Position", armEncoder.getPosition());
-        SmartDashboard.updateValues();
+        // Play back the current trajectory one sample per loop
+        if (trajectory != null && DriverStation.isDisabled()) {
+            // The trajectory runs on the clock, so don't let it carry on while disabled or both
+            // joints jump ahead when enabled again. Hold the last sample until the next move
+            armController.follow(armTarget, 0);
+            wristController.follow(wristTarget, 0);
+            cancelTrajectory();
+        } else if (trajectory != null) {
+            int index = trajectory.indexAt(Timer.getFPGATimestamp() - trajectoryStart);
+            armTarget = trajectory.getArm(index);
+            wristTarget = trajectory.getWrist(index);
+            armController.follow(armTarget, trajectory.getArmVelocity(index));
+            wristController.follow(wristTarget, trajectory.getWristVelocity(index));
+
+            if (trajectory.isEnd(index)) {
+                trajectory = null;
+                if (queuedGoal != null) startTrajectory(queuedGoal);
+            }
+        }
+
+        // The arm and wrist run their own loops on the SPARKs, this is only for the dashboard
+        double wristEncoderPos = wristController.getPosition();
+        double armEncoderPos = armController.getPosition();
+        trapperArmMech.setAngle(armEncoderPos);
+        trapperWristMech.setAngle(wristEncoderPos);
+
+        wristPositionEntry.set(wristEncoderPos);
+        armPositionEntry.set(armEncoderPos);
+
+        profilerStage.stop();
     }
 
     public BooleanSupplier beamBroken() {
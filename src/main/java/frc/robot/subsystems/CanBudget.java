@@ -0,0 +1,197 @@
+package frc.robot.subsystems;
+
+import java.util.ArrayList;
+
+import com.ctre.phoenix6.BaseStatusSignal;
+import com.ctre.phoenix6.CANBus;
+import com.ctre.phoenix6.CANBus.CANBusStatus;
+import com.ctre.phoenix6.hardware.ParentDevice;
+import com.revrobotics.CANSparkLowLevel.PeriodicFrame;
+import com.revrobotics.CANSparkMax;
+
+import edu.wpi.first.hal.can.CANStatus;
+import edu.wpi.first.util.datalog.StringLogEntry;
+import edu.wpi.first.wpilibj.DataLogManager;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.RobotController;
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj2.command.SubsystemBase;
+import frc.robot.RobotContainer;
+import frc.robot.util.Telemetry;
+
+/**
+ * Keeps the CAN buses under budget. Every device declares the status data it actually
+ * reads and how often, everything else gets turned off or slowed way down. The measured
+ * load and errors of each bus get published so the budget can be checked on the robot.
+ */
+public class CanBudget extends SubsystemBase {
+
+    public static class Constants {
+        /** How often the bus status is read (seconds) */
+        public static final double pollPeriod = 0.5;
+    }
+
+    /**
+     * Status frame periods (ms) for a SPARK MAX, in order from status 0 to status 6.
+     * 65535 is the longest period allowed and effectively turns the frame off.
+     */
+    public enum SparkFrames {
+        /** Only commanded, nothing is read back except occasional faults and temperature */
+        Output(100, 500, 500, 65535, 65535, 65535, 65535),
+        /** Reads the position and velocity of the motor's own encoder */
+        Encoder(100, 20, 20, 65535, 65535, 65535, 65535),
+        /** Reads the position of the absolute encoder plugged into it */
+        AbsoluteEncoder(100, 500, 500, 65535, 65535, 20, 65535);
+
+        private final int[] periods;
+
+        SparkFrames(int... periods) {
+            this.periods = periods;
+        }
+    }
+
+    private static final PeriodicFrame[] sparkFrames = {
+        PeriodicFrame.kStatus0, PeriodicFrame.kStatus1, PeriodicFrame.kStatus2, PeriodicFrame.kStatus3,
+        PeriodicFrame.kStatus4, PeriodicFrame.kStatus5, PeriodicFrame.kStatus6
+    };
+
+    private static CanBudget inst;
+
+    private final ArrayList<Bus> buses = new ArrayList<>();
+    private StringLogEntry eventLog;
+    private double lastPoll = 0;
+
+    private CanBudget() {
+        super();
+
+        getBus(RobotContainer.getRioCanBusName());
+        getBus(RobotContainer.getDrivetrainCanBusName());
+    }
+
+    /**
+     * Sets the rate of the signals a Phoenix device needs and turns off every other signal it sends
+     * @param canBus the name of the bus the device is on
+     * @param device the device
+     * @param frequency the rate the signals are read at (hz)
+     * @param signals every signal of the device that gets read
+     */
+    public void phoenix(String canBus, ParentDevice device, double frequency, BaseStatusSignal... signals) {
+        BaseStatusSignal.setUpdateFrequencyForAll(frequency, signals);
+        device.optimizeBusUtilization();
+
+        getBus(canBus).declaredFrameRate += frequency * signals.length;
+    }
+
+    /**
+     * Sets the status frame periods of a SPARK MAX, which are always on the rio bus
+     * @param spark the SPARK MAX
+     * @param frames the data the SPARK needs to send
+     */
+    public void spark(CANSparkMax spark, SparkFrames frames) {
+        Bus bus = getBus(RobotContainer.getRioCanBusName());
+
+        for (int i = 0; i < sparkFrames.length; i++) {
+            spark.setPeriodicFramePeriod(sparkFrames[i], frames.periods[i]);
+            bus.declaredFrameRate += 1000.0 / frames.periods[i];
+        }
+    }
+
+    /**
+     * @param canBus the name of the bus
+     * @return the status frames per second declared on the bus so far, an upper bound for Phoenix
+     *     devices since signals can share a frame
+     */
+    public double getDeclaredFrameRate(String canBus) {
+        return getBus(canBus).declaredFrameRate;
+    }
+
+    private Bus getBus(String name) {
+        for (Bus bus : buses) {
+            if (bus.name.equals(name)) return bus;
+        }
+
+        Bus bus = new Bus(name);
+        buses.add(bus);
+        return bus;
+    }
+
+    @Override
+    public void periodic() {
+        double now = Timer.getFPGATimestamp();
+        if (now - lastPoll < Constants.pollPeriod) return;
+        lastPoll = now;
+
+        for (Bus bus : buses) {
+            if (bus.name.equals(RobotContainer.getRioCanBusName())) {
+                CANStatus status = RobotController.getCANStatus();
+                bus.update(status.percentBusUtilization, status.busOffCount, status.txFullCount,
+                    status.receiveErrorCount, status.transmitErrorCount);
+            } else {
+                CANBusStatus status = CANBus.getStatus(bus.name);
+                if (!status.Status.isOK()) continue;
+                bus.update(status.BusUtilization, status.BusOffCount, status.TxFullCount, status.REC, status.TEC);
+            }
+        }
+    }
+
+    private void logEvent(String message) {
+        if (eventLog == null) eventLog = new StringLogEntry(DataLogManager.getLog(), "CAN/Events");
+        eventLog.append(message);
+        DriverStation.reportWarning(message, false);
+    }
+
+    /**
+     * Published status of one bus
+     */
+    private class Bus {
+        private final String name;
+        private double declaredFrameRate = 0;
+        private int lastBusOffCount = -1;
+
+        private final Telemetry.NumberEntry utilizationEntry;
+        private final Telemetry.NumberEntry busOffEntry;
+        private final Telemetry.NumberEntry txFullEntry;
+        private final Telemetry.NumberEntry receiveErrorEntry;
+        private final Telemetry.NumberEntry transmitErrorEntry;
+        private final Telemetry.NumberEntry declaredEntry;
+
+        private Bus(String name) {
+            this.name = name;
+
+            double rate = 1 / Constants.pollPeriod;
+            String prefix = "CAN/" + name + "/";
+            utilizationEntry = Telemetry.getInstance().number(prefix + "Utilization", rate);
+            busOffEntry = Telemetry.getInstance().number(prefix + "Bus Off Count", rate);
+            txFullEntry = Telemetry.getInstance().number(prefix + "TX Full Count", rate);
+            receiveErrorEntry = Telemetry.getInstance().number(prefix + "RX Errors", rate);
+            transmitErrorEntry = Telemetry.getInstance().number(prefix + "TX Errors", rate);
+            declaredEntry = Telemetry.getInstance().number(prefix + "Declared Frames Per Second", rate);
+        }
+
+        /**
+         * @param utilization the fraction of the bus in use (0 - 1)
+         */
+        private void update(double utilization, int busOffCount, int txFullCount, int receiveErrors, int transmitErrors) {
+            utilizationEntry.set(utilization * 100);
+            busOffEntry.set(busOffCount);
+            txFullEntry.set(txFullCount);
+            receiveErrorEntry.set(receiveErrors);
+            transmitErrorEntry.set(transmitErrors);
+            declaredEntry.set(declaredFrameRate);
+
+            if (lastBusOffCount >= 0 && busOffCount > lastBusOffCount) {
+                logEvent("CAN bus " + name + " went bus off (" + (busOffCount - lastBusOffCount) + " times, "
+                    + receiveErrors + " RX errors, " + transmitErrors + " TX errors)");
+            }
+            lastBusOffCount = busOffCount;
+        }
+    }
+
+    /**
+     * @return The CAN budget for the whole robot
+     */
+    public static synchronized CanBudget getInstance() {
+        if (inst == null) inst = new CanBudget();
+        return inst;
+    }
+}
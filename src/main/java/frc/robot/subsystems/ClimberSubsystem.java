@@ -3,12 +3,16 @@ package frc.robot.subsystems;
 import com.revrobotics.CANSparkLowLevel;
 import com.revrobotics.CANSparkMax;
 
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
 import frc.robot.util.CanIDs;
+import frc.robot.util.LoopProfiler;
+import frc.robot.util.Telemetry;
 
 public class ClimberSubsystem extends SubsystemBase {
+    private final LoopProfiler.Stage profilerStage = LoopProfiler.getInstance().stage("Climber");
+    private final Telemetry.NumberEntry powerEntry = Telemetry.getInstance().number("Climber Power");
+
     private CANSparkMax climbLeft;
     private CANSparkMax climbRight;
 
@@ -20,6 +24,9 @@ public class ClimberSubsystem extends SubsystemBase {
         climbLeft = new CANSparkMax(CanIDs.get("climber-left"), CANSparkLowLevel.MotorType.kBrushless);
         climbRight = new CANSparkMax(CanIDs.get("climber-right"), CANSparkLowLevel.MotorType.kBrushless);
 
+        CanBudget.getInstance().spark(climbLeft, CanBudget.SparkFrames.Output);
+        CanBudget.getInstance().spark(climbRight, CanBudget.SparkFrames.Output);
+
         // setDefaultCommand(run(() -> {
         //     climbLeft.set(-0.015);
         //     climbRight.set(-0.015);
@@ -55,9 +62,11 @@ public class ClimberSubsystem extends SubsystemBase {
 
     @Override
     public void periodic() {
+        profilerStage.start();
         super.periodic();
 
-        SmartDashboard.putNumber("Climber Power", climbLeft.get());
-        SmartDashboard.updateValues();
+        powerEntry.set(climbLeft.get());
+
+        profilerStage.stop();
     }
 }
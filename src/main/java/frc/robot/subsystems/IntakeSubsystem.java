@@ -4,7 +4,6 @@ import com.revrobotics.CANSparkBase.IdleMode;
 
 import edu.wpi.first.wpilibj.DigitalInput;
 import edu.wpi.first.wpilibj.GenericHID.RumbleType;
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.CommandScheduler;
 import edu.wpi.first.wpilibj2.command.ConditionalCommand;
@@ -20,37 +19,55 @@ import frc.robot.commands.RumbleSequences;
 import frc.robot.util.CanIDs;
 import frc.robot.util.LEDColor;
 import frc.robot.util.LEDs;
+import frc.robot.util.LoopProfiler;
 import frc.robot.util.PID;
+import frc.robot.util.SparkPositionController;
+import frc.robot.util.Telemetry;
 
 // everything number is a placeholder
 public class IntakeSubsystem extends SubsystemBase {
 
     public static class Constants {
-        public static double pivotP = 0.00356; // Power the pivot moves to its target with
         public static double rollersP = 0.00356; // Power the rollers move to their targets with
         public static double pivotMotorLimit = 0.4; // Max power of the pivot motor
         public static double rollerMotorLimit = 0.75; // Max power of the pivot motor
-        public static double gravityMod = 0.85; // Reduces power moving the pivot down
 
         public static PID rollerPID = new PID(0.1, 0.2, 0.3, 0.4);
         public static PID pivotPID = new PID(0.01, 0.02, 0.03, 0.04);
+
+        /** Smart Motion velocity loop gains for the pivot, FF is power per degree per second (from a constant
+            power velocity sweep, not characterized yet so it's set for cruise to take about 80% of the power limit) */
+        public static PID pivotMotionPID = new PID(0.0002, 0, 0, 0.001);
+        public static double pivotMaxVelocity = 300; // Degrees per second
+        public static double pivotMaxAcceleration = 900; // Degrees per second squared
+        public static double pivotTolerance = 3.0; // Degrees
+        public static double pivotGravityPower = 0.03; // Power to hold the intake level
+        public static double pivotHorizontalAngle = 39.32; // Deployed, lying flat
     }
 
+    private final LoopProfiler.Stage profilerStage = LoopProfiler.getInstance().stage("Intake");
+
+    private final Telemetry.BooleanEntry sensorEntry = Telemetry.getInstance().bool("Intake Sensor");
+    private final Telemetry.NumberEntry positionEntry = Telemetry.getInstance().number("Intake Position");
+    private final Telemetry.NumberEntry powerEntry = Telemetry.getInstance().number("Intake Power");
+
     private double minPos = 39.32;
     private double maxPos = 190.01;
 
-    private double pivotTarget = maxPos;
     private double rollerTarget = 0;
     
     private CANSparkMax pivotMotor;
     private CANSparkMax rollerMotor;
 
     private AbsoluteEncoder pivotEncoder;
+    private SparkPositionController pivotController;
     private DigitalInput noteSensor;
 
     private boolean isRaised;
     private boolean noteVisible = false;
     private boolean prevNoteVisible = false;
+
+    private Command noteBlinkCommand;
   
     public IntakeSubsystem() {
         super();
@@ -65,6 +82,14 @@ public class IntakeSubsystem extends SubsystemBase {
         pivotEncoder = pivotMotor.getAbsoluteEncoder();
         pivotEncoder.setPositionConversionFactor(360);
         pivotEncoder.setZeroOffset(0);
+
+        pivotController = new SparkPositionController(pivotMotor, pivotEncoder, Constants.pivotMotionPID,
+            Constants.pivotMotorLimit, Constants.pivotMaxVelocity, Constants.pivotMaxAcceleration, Constants.pivotTolerance)
+            .withGravity(Constants.pivotGravityPower, Constants.pivotHorizontalAngle);
+        pivotController.setTarget(maxPos);
+
+        CanBudget.getInstance().spark(rollerMotor, CanBudget.SparkFrames.Output);
+        CanBudget.getInstance().spark(pivotMotor, CanBudget.SparkFrames.AbsoluteEncoder);
     }
 
     public void init() {
@@ -72,10 +97,9 @@ public class IntakeSubsystem extends SubsystemBase {
         leds.setColor(LEDColor.BLUE);
 
         rollerMotor.stopMotor();
-        pivotMotor.stopMotor();
 
         rollerTarget = 0;
-        pivotTarget = maxPos;
+        setPivotTarget(maxPos);
 
         noteVisible = false;
         prevNoteVisible = false;
@@ -95,27 +119,34 @@ public class IntakeSubsystem extends SubsystemBase {
 
     public Command moveIntakeDown() {
         return runOnce(() -> {
-            pivotTarget = minPos;
+            setPivotTarget(minPos);
             isRaised = false;
         });
     }
 
     public Command moveIntakeUp() {
         return runOnce(() -> {
-            pivotTarget = maxPos;
+            setPivotTarget(maxPos);
             isRaised = true;
         });
     }
 
+    private void setPivotTarget(double target) {
+        pivotController.setTarget(target);
+    }
+
+    /**
+     * @return true if the pivot is within tolerance of its target
+     */
+    public boolean pivotAtTarget() {
+        return pivotController.atTarget();
+    }
+
     @Override
     public void periodic() {
+        profilerStage.start();
         super.periodic();
 
-        double pivotError = Math.max(Math.min((pivotTarget - pivotEncoder.getPosition()) * Constants.pivotP,
-            /* Max motor speed */ Constants.pivotMotorLimit), /* Min motor speed */ -Constants.pivotMotorLimit);
-        if (pivotError < 0) pivotError *= Constants.gravityMod; // Reduce power going down
-        pivotMotor.set(pivotError);
-
         /*  I don't even remember why we did this instead of just setting
             the motor power, nor do I know why we are using the pivot motor
             limit, but its too late to change it now I guess */
@@ -127,10 +158,11 @@ public class IntakeSubsystem extends SubsystemBase {
         if (noteVisible && !prevNoteVisible) onNoteEnter();
         prevNoteVisible = noteVisible;
 
-        SmartDashboard.putBoolean("Intake Sensor", noteSensor.get());
-        SmartDashboard.putNumber("Intake Position", pivotEncoder.getPosition());
-        SmartDashboard.putNumber("Intake Power", rollerMotor.get());
-        SmartDashboard.updateValues();
+        sensorEntry.set(noteVisible);
+        positionEntry.set(pivotController.getPosition());
+        powerEntry.set(rollerMotor.get());
+
+        profilerStage.stop();
     }
 
     /**
@@ -163,8 +195,12 @@ public class IntakeSubsystem extends SubsystemBase {
         LEDs leds = RobotContainer.getInstance().teleop.getLEDs();
         if (leds.getCurrentCommand() != null) leds.getCurrentCommand().cancel();
 
-        CommandScheduler.getInstance().schedule(leds.blinkColorCommand(LEDColor.YELLOW, LEDColor.NONE, 0.15, 8,
-            () -> RumbleSequences.rumble(RobotContainer.getInstance().driverController, RumbleType.kBothRumble, 1.0),
-            () -> RumbleSequences.rumble(RobotContainer.getInstance().driverController, RumbleType.kBothRumble, 0.0)));
+        if (noteBlinkCommand == null) {
+            noteBlinkCommand = leds.blinkColorCommand(LEDColor.YELLOW, LEDColor.NONE, 0.15, 8,
+                () -> RumbleSequences.rumble(RobotContainer.getInstance().driverController, RumbleType.kBothRumble, 1.0),
+                () -> RumbleSequences.rumble(RobotContainer.getInstance().driverController, RumbleType.kBothRumble, 0.0));
+        }
+
+        CommandScheduler.getInstance().schedule(noteBlinkCommand);
     }
 }
@@ -3,6 +3,10 @@ package frc.robot.subsystems;
 import java.util.Random;
 import java.util.TreeMap;
 
+import com.ctre.phoenix6.BaseStatusSignal;
+import com.ctre.phoenix6.StatusSignal;
+import com.ctre.phoenix6.configs.TalonFXConfiguration;
+import com.ctre.phoenix6.controls.VelocityVoltage;
 import com.ctre.phoenix6.hardware.TalonFX;
 import com.revrobotics.AbsoluteEncoder;
 import com.revrobotics.CANSparkMax;
@@ -10,36 +14,59 @@ import com.revrobotics.CANSparkBase.IdleMode;
 import com.revrobotics.CANSparkLowLevel.MotorType;
 import com.revrobotics.SparkAbsoluteEncoder.Type;
 
-import edu.wpi.first.math.geometry.Rotation2d;
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.CommandScheduler;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
 import frc.robot.RobotContainer;
 import frc.robot.util.CanIDs;
 import frc.robot.util.LookupTable;
+import frc.robot.util.LoopProfiler;
 import frc.robot.util.PID;
+import frc.robot.util.SparkPositionController;
+import frc.robot.util.Telemetry;
  
 public class ShooterSubsystem extends SubsystemBase {
 
     public static class Constants {
-        public static PID pivotPID = new PID(1.0, 0, 0.01);
-        public static PID flywheelPID = new PID(1.0, 0, 0.01);
+        /** Smart Motion velocity loop gains for the pivot, FF is power per degree per second (from a constant
+            power velocity sweep, not characterized yet so it's set for cruise to take about 80% of the power limit) */
+        public static PID pivotPID = new PID(0.0002, 0, 0, 0.0013);
+        public static double pivotPowerLimit = 0.2;
+        public static double pivotMaxVelocity = 120; // Degrees per second
+        public static double pivotMaxAcceleration = 360; // Degrees per second squared
+        public static double pivotTolerance = 1.0; // Degrees
+        /** Power to hold the pivot level, was a constant -0.005 in the old roboRIO loop */
+        public static double pivotGravityPower = -0.005;
+        public static double pivotHorizontalAngle = 0;
+        /** Flywheel gains in volts per rotation per second, with kS and kV as the feedforward */
+        public static PID flywheelPID = new PID(1.0, 0, 0.01, 0.25, 0.12, 0);
+
+        /** Flywheel speed at full power (rotations per second), powers are scaled to this */
+        public static double maxFlywheelVelocity = 95;
 
         public static double armStage1Angle = 40;
         public static double armStage2Angle = 4.6;
         public static double minAngle = 10;
         public static double manualClose = 36.0;
 
-        public static double maximumRPMError = 10.0;
+        public static double maximumRPMError = 120.0;
+        /** Longest time a shot waits for the flywheels before feeding anyway (seconds) */
+        public static double spinUpTimeout = 1.2;
+        /** Rate of the flywheel velocity signals (hz) */
+        public static double velocityFrequency = 50;
+
+        public static TreeMap<Double, Double> angleMap = new TreeMap<Double, Double>();
+        public static TreeMap<Double, Double> powerMap = new TreeMap<Double, Double>();
+        public static TreeMap<Double, Double> timeOfFlightMap = new TreeMap<Double, Double>();
 
         public static LookupTable angleLookup;
         public static LookupTable powerLookup;
+        public static LookupTable timeOfFlightLookup;
 
-        static {
-            TreeMap<Double, Double> angleMap = new TreeMap<Double, Double>();
-            TreeMap<Double, Double> powerMap = new TreeMap<Double, Double>();
+        /** Added to the speaker distance before the lookup, increasing it makes the robot shoot lower */
+        public static double speakerDistanceOffset = 0.1;
 
+        static {
             /* -- Angle lookup table values -- */
             angleMap.put(0.20, 34.5);
             angleMap.put(1.39, 34.5);
@@ -59,21 +86,45 @@ public class ShooterSubsystem extends SubsystemBase {
             powerMap.put(2.00, 0.65);
             powerMap.put(5.00, 0.7);
 
+            /* -- Time of flight lookup table values (seconds), estimated, time these on the field -- */
+            timeOfFlightMap.put(0.00, 0.10);
+            timeOfFlightMap.put(1.40, 0.22);
+            timeOfFlightMap.put(2.00, 0.27);
+            timeOfFlightMap.put(3.00, 0.36);
+            timeOfFlightMap.put(4.00, 0.45);
+            timeOfFlightMap.put(5.00, 0.54);
+
             angleLookup = new LookupTable(angleMap);
             powerLookup = new LookupTable(powerMap);
+            timeOfFlightLookup = new LookupTable(timeOfFlightMap, LookupTable.Interpolation.Linear, LookupTable.Bounds.Clamp);
         }
     }
 
+    private final LoopProfiler.Stage profilerStage = LoopProfiler.getInstance().stage("Shooter");
+
+    private final Telemetry.NumberEntry topVelocityEntry = Telemetry.getInstance().number("Shooter Top RPM");
+    private final Telemetry.NumberEntry bottomVelocityEntry = Telemetry.getInstance().number("Shooter Bottom RPM");
+    private final Telemetry.BooleanEntry upToSpeedEntry = Telemetry.getInstance().bool("Shooter Up To Speed");
+    private final Telemetry.NumberEntry positionEntry = Telemetry.getInstance().number("Shooter Position");
+
     private TalonFX topMotor;
     private TalonFX bottomMotor;
     private CANSparkMax pivotMotor;
 
+    private StatusSignal<Double> topVelocity;
+    private StatusSignal<Double> bottomVelocity;
+    private final VelocityVoltage topRequest = new VelocityVoltage(0);
+    private final VelocityVoltage bottomRequest = new VelocityVoltage(0);
+
     private AbsoluteEncoder pivotEncoder;
+    private SparkPositionController pivotController;
     
     private double pivotTarget;
     private boolean running;
 
-    private double targetRPM;
+    // Flywheel setpoints in rotations per second, 0 when stopped
+    private double topTarget;
+    private double bottomTarget;
 
     public ShooterSubsystem() {
         super();
@@ -86,6 +137,18 @@ public class ShooterSubsystem extends SubsystemBase {
         bottomMotor = new TalonFX(CanIDs.get("shooter-bottom"), RobotContainer.getRioCanBusName());
         bottomMotor.stopMotor();
 
+        TalonFXConfiguration flywheelConfig = new TalonFXConfiguration();
+        flywheelConfig.Slot0.kP = Constants.flywheelPID.getP();
+        flywheelConfig.Slot0.kI = Constants.flywheelPID.getI();
+        flywheelConfig.Slot0.kD = Constants.flywheelPID.getD();
+        flywheelConfig.Slot0.kS = Constants.flywheelPID.getS();
+        flywheelConfig.Slot0.kV = Constants.flywheelPID.getV();
+        topMotor.getConfigurator().apply(flywheelConfig);
+        bottomMotor.getConfigurator().apply(flywheelConfig);
+
+        topVelocity = topMotor.getVelocity();
+        bottomVelocity = bottomMotor.getVelocity();
+
         pivotMotor = new CANSparkMax(CanIDs.get("shooter-pivot"), MotorType.kBrushless);
         pivotMotor.stopMotor();
         pivotMotor.setIdleMode(IdleMode.kBrake);
@@ -93,6 +156,16 @@ public class ShooterSubsystem extends SubsystemBase {
         pivotEncoder = pivotMotor.getAbsoluteEncoder(Type.kDutyCycle);
         pivotEncoder.setPositionConversionFactor(360);
         pivotEncoder.setZeroOffset(146.6); // 4 degrees from zero for wrapping issues
+
+        pivotController = new SparkPositionController(pivotMotor, pivotEncoder, Constants.pivotPID,
+            Constants.pivotPowerLimit, Constants.pivotMaxVelocity, Constants.pivotMaxAcceleration, Constants.pivotTolerance)
+            .withGravity(Constants.pivotGravityPower, Constants.pivotHorizontalAngle);
+        pivotController.setTarget(pivotTarget);
+
+        String canBus = RobotContainer.getRioCanBusName();
+        CanBudget.getInstance().phoenix(canBus, topMotor, Constants.velocityFrequency, topVelocity);
+        CanBudget.getInstance().phoenix(canBus, bottomMotor, Constants.velocityFrequency, bottomVelocity);
+        CanBudget.getInstance().spark(pivotMotor, CanBudget.SparkFrames.AbsoluteEncoder);
     }
 
     /**
@@ -118,25 +191,21 @@ public class ShooterSubsystem extends SubsystemBase {
      * @return the command
      */
     public Command startShooter(double speed) {
-        return runOnce(() -> {
-            topMotor.set(speed);
-            bottomMotor.set(speed);
-        }).andThen(() -> running = true);
+        return runOnce(() -> setPowerRaw(speed)).andThen(() -> running = true);
     }
 
+    /**
+     * Starts both shooter wheels at a velocity
+     * @param rpm the speed of the wheels in rotations per minute
+     * @return the command
+     */
     public Command startShooterRPM(double rpm) {
-        return runOnce(() -> {
-            // topMotor.setControl(null);
-            // bottomMotor.setControl(null);
-            targetRPM = rpm;
-        });
+        return runOnce(() -> setVelocityRaw(rpm / 60, rpm / 60)).andThen(() -> running = true);
     }
 
     public Command startSeperateShooters(double speedTop, double speedBottom) {
-        return runOnce(() -> {
-            topMotor.set(speedTop);
-            bottomMotor.set(speedBottom);
-        }).andThen(() -> running = true);
+        return runOnce(() -> setVelocityRaw(speedTop * Constants.maxFlywheelVelocity,
+            speedBottom * Constants.maxFlywheelVelocity)).andThen(() -> running = true);
     }
 
     /**
@@ -144,10 +213,7 @@ public class ShooterSubsystem extends SubsystemBase {
      * @return the command
      */
     public Command stopShooter() {
-        return runOnce(() -> {
-            bottomMotor.stopMotor();
-            topMotor.stopMotor();
-        }).andThen(() -> running = false);
+        return runOnce(() -> setVelocityRaw(0, 0)).andThen(() -> running = false);
     }
 
     /**
@@ -163,7 +229,7 @@ public class ShooterSubsystem extends SubsystemBase {
      * @return The command that moves the pivot
      */
     public Command setPivotTarget(double target) {
-        return runOnce(() -> pivotTarget = target);
+        return runOnce(() -> setPivotTargetRaw(target));
     }
 
     /**
@@ -172,10 +238,18 @@ public class ShooterSubsystem extends SubsystemBase {
      */
     public void setPivotTargetRaw(double target) {
         pivotTarget = target;
+        pivotController.setTarget(target);
     }
 
     public void changePivotTarget(double amount) {
-        pivotTarget += amount;
+        setPivotTargetRaw(pivotTarget + amount);
+    }
+
+    /**
+     * @return true if the pivot is within tolerance of its target
+     */
+    public boolean pivotAtTarget() {
+        return pivotController.atTarget();
     }
 
     /**
@@ -198,29 +272,31 @@ public class ShooterSubsystem extends SubsystemBase {
      * @return Boolean determining if they are up to speed
      */
     public boolean upToSpeed() {
-        double topDeviation = Math.abs(targetRPM - topMotor.getVelocity().getValueAsDouble());
-        double bottomDeviation = Math.abs(targetRPM - bottomMotor.getVelocity().getValueAsDouble());
+        if (topTarget == 0 && bottomTarget == 0) return false;
+
+        double topDeviation = Math.abs(topTarget - topVelocity.getValueAsDouble()) * 60;
+        double bottomDeviation = Math.abs(bottomTarget - bottomVelocity.getValueAsDouble()) * 60;
 
         return topDeviation <= Constants.maximumRPMError && bottomDeviation <= Constants.maximumRPMError;
     }
 
     @Override
     public void periodic() {
+        profilerStage.start();
         super.periodic();
 
-        // Calculate the target and current rotations
-        double encoderPos = pivotEncoder.getPosition();
-        Rotation2d target = Rotation2d.fromDegrees(pivotTarget);
-        Rotation2d current = Rotation2d.fromDegrees(encoderPos);
+        BaseStatusSignal.refreshAll(topVelocity, bottomVelocity);
 
-        double error = Math.max(Math.min(target.minus(current).getDegrees() / 160.0, 0.2), -0.2);
-        pivotMotor.set(error - 0.005);
+        // The pivot runs its own loop on the SPARK, this is only for the dashboard
+        double encoderPos = pivotController.getPosition();
 
         // Display values
-        SmartDashboard.putNumber("Shooter Top Power", topMotor.get());
-        SmartDashboard.putNumber("Shooter Bottom Power", bottomMotor.get());
-        SmartDashboard.putNumber("Shooter Position", pivotEncoder.getPosition());
-        SmartDashboard.updateValues();
+        topVelocityEntry.set(topVelocity.getValueAsDouble() * 60);
+        bottomVelocityEntry.set(bottomVelocity.getValueAsDouble() * 60);
+        upToSpeedEntry.set(upToSpeed());
+        positionEntry.set(encoderPos);
+
+        profilerStage.stop();
     }
 
     // Please don't use this
@@ -228,9 +304,28 @@ public class ShooterSubsystem extends SubsystemBase {
         return runOnce(() -> setPivotTargetRaw(new Random().nextInt(32, 50)));
     }
 
+    /**
+     * Runs both wheels at a fraction of their top speed
+     * @param speed the fraction of {@code Constants.maxFlywheelVelocity}, from -1 to 1
+     */
     public void setPowerRaw(double speed) {
-        bottomMotor.set(speed);
-        topMotor.set(speed);
+        setVelocityRaw(speed * Constants.maxFlywheelVelocity, speed * Constants.maxFlywheelVelocity);
+    }
+
+    /**
+     * Closed loop velocity control of each wheel, a target of 0 lets the wheel coast
+     * @param top the speed of the top wheel in rotations per second
+     * @param bottom the speed of the bottom wheel in rotations per second
+     */
+    public void setVelocityRaw(double top, double bottom) {
+        topTarget = top;
+        bottomTarget = bottom;
+
+        if (top == 0) topMotor.stopMotor();
+        else topMotor.setControl(topRequest.withVelocity(top));
+
+        if (bottom == 0) bottomMotor.stopMotor();
+        else bottomMotor.setControl(bottomRequest.withVelocity(bottom));
     }
 
     public void setFromDistance(double distance) {
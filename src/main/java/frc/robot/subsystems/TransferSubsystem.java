@@ -4,13 +4,14 @@ import frc.robot.RobotContainer;
 import frc.robot.util.CanIDs;
 import frc.robot.util.LEDColor;
 import frc.robot.util.LEDs;
+import frc.robot.util.LoopProfiler;
+import frc.robot.util.Telemetry;
 
 import com.revrobotics.CANSparkLowLevel;
 import com.revrobotics.CANSparkMax;
 import com.revrobotics.CANSparkBase.IdleMode;
 
 import edu.wpi.first.wpilibj.DigitalInput;
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.CommandScheduler;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
@@ -18,17 +19,26 @@ import edu.wpi.first.wpilibj2.command.SubsystemBase;
 public class TransferSubsystem extends SubsystemBase {
     private boolean motorsStopped = false;
 
+    private final LoopProfiler.Stage profilerStage = LoopProfiler.getInstance().stage("Transfer");
+
+    private final Telemetry.NumberEntry powerEntry = Telemetry.getInstance().number("Transfer Power");
+    private final Telemetry.BooleanEntry hasRingEntry = Telemetry.getInstance().bool("Has Ring");
+
     private CANSparkMax beltMotor;
 
     // inBeamBreak is mounted so it's broken when a NOTE is fully in the transfer
     private DigitalInput inBeamBreak = new DigitalInput(0);
     private DigitalInput secondBeamBreak = new DigitalInput(1);
 
+    private Command holdColorCommand;
+
     public TransferSubsystem() {
         super();
 
         beltMotor = new CANSparkMax(CanIDs.get("transfer-motor"), CANSparkLowLevel.MotorType.kBrushless);
         beltMotor.setIdleMode(IdleMode.kCoast);
+
+        CanBudget.getInstance().spark(beltMotor, CanBudget.SparkFrames.Output);
     }
 
     /**
@@ -127,17 +137,22 @@ public class TransferSubsystem extends SubsystemBase {
 
     @Override
     public void periodic() {
+        profilerStage.start();
         super.periodic();
 
         if (!inBeamBreak.get()) {
-            LEDs leds = RobotContainer.getInstance().teleop.getLEDs();
-            
-            CommandScheduler.getInstance().schedule(leds.holdColorCommand(LEDColor.YELLOW)
-                .until(() -> inBeamBreak.get()));
+            // Built once, the LEDs don't exist yet when the subsystem is created
+            if (holdColorCommand == null) {
+                LEDs leds = RobotContainer.getInstance().teleop.getLEDs();
+                holdColorCommand = leds.holdColorCommand(LEDColor.YELLOW).until(() -> inBeamBreak.get());
+            }
+
+            if (!holdColorCommand.isScheduled()) CommandScheduler.getInstance().schedule(holdColorCommand);
         }
 
-        SmartDashboard.putNumber("Transfer Power", beltMotor.get());
-        SmartDashboard.putBoolean("Has Ring", !inBeamBreak.get());
-        SmartDashboard.updateValues();
+        powerEntry.set(beltMotor.get());
+        hasRingEntry.set(!inBeamBreak.get());
+
+        profilerStage.stop();
     }
 }
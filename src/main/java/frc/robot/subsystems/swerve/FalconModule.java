@@ -1,5 +1,6 @@
 package frc.robot.subsystems.swerve;
 
+import com.ctre.phoenix6.StatusSignal;
 import com.ctre.phoenix6.configs.CANcoderConfiguration;
 import com.ctre.phoenix6.configs.CurrentLimitsConfigs;
 import com.ctre.phoenix6.configs.FeedbackConfigs;
@@ -12,13 +13,14 @@ import com.ctre.phoenix6.signals.FeedbackSensorSourceValue;
 import com.ctre.phoenix6.signals.InvertedValue;
 import com.ctre.phoenix6.signals.NeutralModeValue;
 import com.ctre.phoenix6.hardware.CANcoder;
+import com.ctre.phoenix6.sim.TalonFXSimState;
 import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.math.MathUtil;
 import edu.wpi.first.math.controller.SimpleMotorFeedforward;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.kinematics.SwerveModuleState;
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 import edu.wpi.first.math.util.Units;
+import frc.robot.subsystems.CanBudget;
 import frc.robot.subsystems.swerve.SwerveDrivetrain.DriveMode;
 import frc.robot.util.PID;
 
@@ -43,13 +45,23 @@ public class FalconModule extends SwerveModule {
         public static final PID driveVelocityPIDConstants = new PID(0.1, 0, 0.01);
         public static final SimpleMotorFeedforward driveFeedforward = 
             new SimpleMotorFeedforward(0, 0.28, 0);
+
+        /** Rate of the signals the module reads (hz), the odometry thread speeds up the ones it uses */
+        public static final double signalFrequency = 100;
+        /** Longest a drive encoder reset waits for the motor to take it, and then for the new position (seconds) */
+        public static final double resetTimeout = 0.05;
     }
 
     private TalonFX driveMotor;
     private TalonFX turningMotor;
     private CANcoder encoder;
 
-    private Rotation2d targetAngle = Rotation2d.fromDegrees(0);
+    private StatusSignal<Double> drivePosition;
+    private StatusSignal<Double> driveVelocity;
+    private StatusSignal<Double> turningPosition;
+    private StatusSignal<Double> encoderPosition;
+
+    private double targetRotations = 0;
     private boolean reverseWheel;
 
     private double driveRawPower;
@@ -152,6 +164,13 @@ public class FalconModule extends SwerveModule {
 
         driveVelocityRequest.UpdateFreqHz = 0;
 
+        // Grab the signals once, they get refreshed by the drivetrain's signal cache
+        drivePosition = driveMotor.getPosition();
+        driveVelocity = driveMotor.getVelocity();
+        turningPosition = turningMotor.getPosition();
+        encoderPosition = encoder.getAbsolutePosition();
+        setupCANFrames();
+
         homeTurningMotor();
 
         this.selfTargetAngle();
@@ -170,9 +189,10 @@ public class FalconModule extends SwerveModule {
      */
     @Override
     public void periodic() {
+        profilerStage.start();
         if(DriverStation.isDisabled()) selfTargetAngle();
 
-        turningMotor.setControl(turnPositionRequest.withPosition(targetAngle.getRotations()));
+        turningMotor.setControl(turnPositionRequest.withPosition(targetRotations));
 
         switch(driveMode) {
             case RawPower:
@@ -191,12 +211,13 @@ public class FalconModule extends SwerveModule {
                 break;
         }
 
-        currentPosition = getModuleRotation().getDegrees();
+        currentPosition = (turningPosition.getValueAsDouble() * 360) % 360;
 
-        SmartDashboard.putNumber(moduleName + "-Position", turningMotor.getPosition().getValueAsDouble());
-        SmartDashboard.putNumber(moduleName + "-Target", MathUtil.inputModulus(targetAngle.getDegrees(), -180, 180));
-        SmartDashboard.putNumber(moduleName + "-CANCoder", encoder.getAbsolutePosition().getValueAsDouble());
-        SmartDashboard.updateValues();
+        positionEntry.set(turningPosition.getValueAsDouble());
+        targetEntry.set(MathUtil.inputModulus(targetRotations * 360, -180, 180));
+        encoderEntry.set(encoderPosition.getValueAsDouble());
+
+        profilerStage.stop();
     }
 
     /**
@@ -204,20 +225,29 @@ public class FalconModule extends SwerveModule {
      */
     @Override
     public Rotation2d getModuleRotation() {
-        return Rotation2d.fromDegrees((turningMotor.getPosition().getValueAsDouble() * 360) % 360);
+        return Rotation2d.fromDegrees((turningPosition.getValueAsDouble() * 360) % 360);
+    }
+
+    /**
+     * @return The rotation of the module in radians direct from encoder (not dealing with optimization)
+     */
+    @Override
+    public double getModuleAngleRadians() {
+        return turningPosition.getValueAsDouble() * 2 * Math.PI;
     }
 
     /**
-     * @param target Rotation2d with the target angle, unoptimized
+     * @param radians the target angle in radians, unoptimized
      */
     @Override
-    public void setTurningTarget(Rotation2d target) {
-        targetAngle = target;
+    public void setTurningTargetRadians(double radians) {
+        targetRotations = radians / (2 * Math.PI);
     }
 
     @Override
     public void homeTurningMotor() {
-        turningMotor.setPosition(encoder.getAbsolutePosition().getValueAsDouble());
+        // Homing needs a fresh value, so refresh here instead of using the cached one
+        turningMotor.setPosition(encoderPosition.refresh().getValueAsDouble());
     }
 
     /**
@@ -244,8 +274,7 @@ public class FalconModule extends SwerveModule {
      */
     @Override
     public double getDriveVelocity() {
-        return driveMotor.getVelocity().getValueAsDouble() / Constants.driveRatio *
-                (Math.PI * Constants.measuredWheelDiameter);
+        return driveRotationsToMeters(driveVelocity.getValueAsDouble());
     }
 
     /**
@@ -253,16 +282,17 @@ public class FalconModule extends SwerveModule {
      */
     @Override
     public double getDriveDistance() {
-        return driveMotor.getPosition().getValueAsDouble() / Constants.driveRatio *
-                (Constants.measuredWheelDiameter * Math.PI);
+        return driveRotationsToMeters(drivePosition.getValueAsDouble());
     }
 
     /**
-     * Resets drive encoder distance to zero.
+     * Resets drive encoder distance to zero. Waits for the reset position to come back so the
+     * cached distance is already zero when odometry is reset right after this.
      */
     @Override
     public void resetDriveEncoder() {
-        driveMotor.setPosition(0, .01);
+        driveMotor.setPosition(0, Constants.resetTimeout);
+        drivePosition.waitForUpdate(Constants.resetTimeout);
     }
 
     @Override
@@ -285,21 +315,58 @@ public class FalconModule extends SwerveModule {
         turningMotor.setNeutralMode(brake ? NeutralModeValue.Brake : NeutralModeValue.Coast);
     }
 
-    public void setupCANFrames() {
-        driveMotor.getPosition().setUpdateFrequency(50);
-        driveMotor.getSupplyCurrent().setUpdateFrequency(4);
-        driveMotor.getStatorCurrent().setUpdateFrequency(4);
-        driveMotor.getTorqueCurrent().setUpdateFrequency(10);
-        driveMotor.getControlMode().setUpdateFrequency(4);
-        driveMotor.getAcceleration().setUpdateFrequency(10);
-        driveMotor.getAppliedRotorPolarity().setUpdateFrequency(10);
-
-        turningMotor.getPosition().setUpdateFrequency(50);
-        turningMotor.getSupplyCurrent().setUpdateFrequency(4);
-        turningMotor.getStatorCurrent().setUpdateFrequency(4);
-        turningMotor.getTorqueCurrent().setUpdateFrequency(10);
-        turningMotor.getControlMode().setUpdateFrequency(4);
-        turningMotor.getAcceleration().setUpdateFrequency(10);
-        turningMotor.getAppliedRotorPolarity().setUpdateFrequency(10);
+    /**
+     * Converts drive motor rotations into meters driven by the wheel
+     * @param rotations rotations of the drive motor (or rotations per second)
+     * @return meters (or meters per second)
+     */
+    public static double driveRotationsToMeters(double rotations) {
+        return rotations / Constants.driveRatio * (Constants.measuredWheelDiameter * Math.PI);
+    }
+
+    /**
+     * @return The simulated drive motor, only used by tests
+     */
+    TalonFXSimState getDriveSimState() {
+        return driveMotor.getSimState();
+    }
+
+    /**
+     * @return The drive motor position signal in rotations
+     */
+    public StatusSignal<Double> getDrivePositionSignal() {
+        return drivePosition;
+    }
+
+    /**
+     * @return The drive motor velocity signal in rotations per second
+     */
+    public StatusSignal<Double> getDriveVelocitySignal() {
+        return driveVelocity;
+    }
+
+    /**
+     * @return The turning motor position signal in module rotations
+     */
+    public StatusSignal<Double> getTurningPositionSignal() {
+        return turningPosition;
+    }
+
+    @Override
+    public void registerSignals(SwerveSignals signals) {
+        signals.register(drivetrainCanBus, drivePosition);
+        signals.register(drivetrainCanBus, driveVelocity);
+        signals.register(drivetrainCanBus, turningPosition);
+        signals.register(drivetrainCanBus, encoderPosition);
+    }
+
+    /**
+     * Turns off every status signal the module doesn't read
+     */
+    private void setupCANFrames() {
+        CanBudget budget = CanBudget.getInstance();
+        budget.phoenix(drivetrainCanBus, driveMotor, Constants.signalFrequency, drivePosition, driveVelocity);
+        budget.phoenix(drivetrainCanBus, turningMotor, Constants.signalFrequency, turningPosition);
+        budget.phoenix(drivetrainCanBus, encoder, Constants.signalFrequency, encoderPosition);
     }
 }
\ No newline at end of file
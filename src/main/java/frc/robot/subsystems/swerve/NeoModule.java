@@ -14,8 +14,8 @@ import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.math.controller.SimpleMotorFeedforward;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.kinematics.SwerveModuleState;
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 import edu.wpi.first.math.util.Units;
+import frc.robot.subsystems.CanBudget;
 import frc.robot.util.PID;
 
 public class NeoModule extends SwerveModule {
@@ -48,7 +48,7 @@ public class NeoModule extends SwerveModule {
     private SparkPIDController drivePID;
     private SparkPIDController turningPID;
 
-    private Rotation2d turningSetpointRaw = Rotation2d.fromDegrees(0);
+    private double turningSetpointDegrees = 0;
 
     private double driveRawPower;
     private double driveVelocityTarget;
@@ -90,6 +90,9 @@ public class NeoModule extends SwerveModule {
         this.driveEncoder.setVelocityConversionFactor(Constants.driveRatio / 60 * Math.PI * Constants.measuredWheelDiameter);
         this.turningEncoder = turningMotor.getEncoder();
         this.turningEncoder.setPositionConversionFactor(Constants.turningRatio * 360);
+
+        CanBudget.getInstance().spark(driveMotor, CanBudget.SparkFrames.Encoder);
+        CanBudget.getInstance().spark(turningMotor, CanBudget.SparkFrames.Encoder);
         
         // Setup turning pid
         this.turningPID = this.turningMotor.getPIDController();
@@ -133,8 +136,9 @@ public class NeoModule extends SwerveModule {
      */
     @Override
     public void periodic() {
-        double targetDegrees = turningSetpointRaw.getDegrees();
-        double currentDegrees = getModuleRotation().getDegrees();
+        profilerStage.start();
+        double targetDegrees = turningSetpointDegrees;
+        double currentDegrees = turningEncoder.getPosition() % 360;
 
         boolean stopTurn = 
             Math.abs(targetDegrees - currentDegrees) < 2 || 
@@ -163,10 +167,11 @@ public class NeoModule extends SwerveModule {
 
         currentPosition = currentDegrees;
 
-        SmartDashboard.putNumber(moduleName + "-Position", currentDegrees);
-        SmartDashboard.putNumber(moduleName + "-Target", targetDegrees);
-        SmartDashboard.putNumber(moduleName + "-CANCoder", encoder.getAbsolutePosition().getValueAsDouble());
-        //SmartDashboard.putNumber("Module-" + moduleName + "-Drive Power", driveMotor.getAppliedOutput());
+        positionEntry.set(currentDegrees);
+        targetEntry.set(targetDegrees);
+        encoderEntry.set(encoder.getAbsolutePosition().getValueAsDouble());
+
+        profilerStage.stop();
     }
 
     /**
@@ -179,11 +184,19 @@ public class NeoModule extends SwerveModule {
     }
 
     /**
-     * @param target Rotation2d with the target angle, unoptimized
+     * @return The rotation of the module in radians direct from encoder (not dealing with optimization)
+     */
+    @Override
+    public double getModuleAngleRadians() {
+        return Math.toRadians(turningEncoder.getPosition() % 360);
+    }
+
+    /**
+     * @param radians the target angle in radians, unoptimized
      */
     @Override
-    public void setTurningTarget(Rotation2d target) {
-        turningSetpointRaw = target;
+    public void setTurningTargetRadians(double radians) {
+        turningSetpointDegrees = Math.toDegrees(radians);
     }
 
     @Override
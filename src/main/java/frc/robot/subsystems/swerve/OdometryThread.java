@@ -0,0 +1,150 @@
+package frc.robot.subsystems.swerve;
+
+import com.ctre.phoenix6.BaseStatusSignal;
+import com.ctre.phoenix6.CANBus;
+import com.ctre.phoenix6.StatusCode;
+import com.ctre.phoenix6.StatusSignal;
+
+import edu.wpi.first.wpilibj.Threads;
+import edu.wpi.first.wpilibj.Timer;
+import frc.robot.RobotContainer;
+import frc.robot.subsystems.swerve.positioning.RobotPositioner;
+
+/**
+ * A background thread that samples the drivetrain much faster than the main
+ * robot loop and feeds every sample into the pose estimator. It waits on the
+ * module signals from the Drivetrain bus so a sample is taken as soon as new
+ * data arrives, instead of whenever the 20ms loop gets around to it.
+ */
+public class OdometryThread extends Thread {
+
+    public static class Constants {
+        /** Update rate of the module signals when the drivetrain bus is CAN FD */
+        public static final double fdFrequency = 250;
+        /** Update rate of the module signals on a regular CAN bus */
+        public static final double frequency = 100;
+        /** Update rate of the gyro signals (the Pigeon2 is on the rio bus) */
+        public static final double gyroFrequency = 100;
+    }
+
+    private RobotPositioner positioner;
+
+    private StatusSignal<Double>[] drivePositions;
+    private StatusSignal<Double>[] driveVelocities;
+    private StatusSignal<Double>[] turningPositions;
+    private StatusSignal<Double> yaw;
+    private StatusSignal<Double> yawRate;
+
+    private BaseStatusSignal[] moduleSignals;
+    private BaseStatusSignal[] gyroSignals;
+
+    // Angles stay in radians so no rotation is created for every sample
+    private double[] moduleDistances;
+    private double[] moduleAngles;
+    private double[] moduleSpeeds;
+    private double updateFrequency;
+
+    private volatile boolean running = true;
+    private volatile int successfulSamples = 0;
+    private volatile int failedSamples = 0;
+
+    /**
+     * Creates the odometry thread. Call {@code start()} to begin sampling.
+     * @param positioner the positioner to feed samples into
+     * @param modules the modules in the order front left, front right, back left, back right
+     */
+    @SuppressWarnings("unchecked")
+    public OdometryThread(RobotPositioner positioner, FalconModule... modules) {
+        this.positioner = positioner;
+
+        drivePositions = new StatusSignal[modules.length];
+        driveVelocities = new StatusSignal[modules.length];
+        turningPositions = new StatusSignal[modules.length];
+        moduleDistances = new double[modules.length];
+        moduleAngles = new double[modules.length];
+        moduleSpeeds = new double[modules.length];
+        moduleSignals = new BaseStatusSignal[modules.length * 3];
+
+        // Clone the signals so this thread never refreshes the same objects as the main loop
+        for (int i = 0; i < modules.length; i++) {
+            drivePositions[i] = modules[i].getDrivePositionSignal().clone();
+            driveVelocities[i] = modules[i].getDriveVelocitySignal().clone();
+            turningPositions[i] = modules[i].getTurningPositionSignal().clone();
+
+            moduleSignals[i * 3] = drivePositions[i];
+            moduleSignals[i * 3 + 1] = driveVelocities[i];
+            moduleSignals[i * 3 + 2] = turningPositions[i];
+        }
+
+        yaw = positioner.getYawSignal().clone();
+        yawRate = positioner.getYawRateSignal().clone();
+        gyroSignals = new BaseStatusSignal[] {yaw, yawRate};
+
+        updateFrequency = CANBus.isNetworkFD(RobotContainer.getDrivetrainCanBusName())
+            ? Constants.fdFrequency : Constants.frequency;
+
+        BaseStatusSignal.setUpdateFrequencyForAll(updateFrequency, moduleSignals);
+        BaseStatusSignal.setUpdateFrequencyForAll(Constants.gyroFrequency, gyroSignals);
+
+        setName("Odometry");
+        setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+        // Run above the main robot thread so a slow loop can't delay samples
+        Threads.setCurrentThreadPriority(true, 1);
+
+        while (running) {
+            // Blocks until every module signal has a new value (or two periods pass)
+            StatusCode status = BaseStatusSignal.waitForAll(2.0 / updateFrequency, moduleSignals);
+            if (!status.isOK()) {
+                failedSamples++;
+                continue;
+            }
+
+            // The gyro is on a different bus so it can't be waited on with the modules
+            BaseStatusSignal.refreshAll(gyroSignals);
+            double timestamp = Timer.getFPGATimestamp();
+
+            for (int i = 0; i < moduleDistances.length; i++) {
+                double driveRotations = BaseStatusSignal.getLatencyCompensatedValue(drivePositions[i], driveVelocities[i]);
+                moduleDistances[i] = FalconModule.driveRotationsToMeters(driveRotations);
+                moduleAngles[i] = turningPositions[i].getValueAsDouble() * 2 * Math.PI;
+                moduleSpeeds[i] = FalconModule.driveRotationsToMeters(driveVelocities[i].getValueAsDouble());
+            }
+
+            double yawDegrees = BaseStatusSignal.getLatencyCompensatedValue(yaw, yawRate);
+            positioner.addOdometrySample(timestamp, yawDegrees, moduleDistances, moduleAngles, moduleSpeeds);
+            successfulSamples++;
+        }
+    }
+
+    /**
+     * Stops the thread after its current sample
+     */
+    public void stopSampling() {
+        running = false;
+    }
+
+    /**
+     * @return The rate the module signals are sampled at in hz
+     */
+    public double getUpdateFrequency() {
+        return updateFrequency;
+    }
+
+    /**
+     * @return The number of samples fed into the pose estimator
+     */
+    public int getSuccessfulSamples() {
+        return successfulSamples;
+    }
+
+    /**
+     * @return The number of samples skipped because the signals didn't update in time
+     */
+    public int getFailedSamples() {
+        return failedSamples;
+    }
+}
@@ -0,0 +1,175 @@
+package frc.robot.subsystems.swerve;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.controller.PIDController;
+import edu.wpi.first.math.controller.SimpleMotorFeedforward;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.system.plant.DCMotor;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.simulation.DCMotorSim;
+import frc.robot.util.PID;
+
+/**
+ * A physics simulated swerve module for running the drivetrain without a robot.
+ * Geared and sized like the Falcon modules, with the control loops running on the
+ * roboRIO instead of the motor controllers.
+ */
+public class SimModule extends SwerveModule {
+
+    public static class Constants {
+        public static final DCMotor driveGearbox = DCMotor.getFalcon500(1);
+        public static final DCMotor turningGearbox = DCMotor.getFalcon500(1);
+
+        public static final double driveRatio = FalconModule.Constants.driveRatio;
+        public static final double turningRatio = FalconModule.Constants.turningRatio;
+        public static final double wheelRadius = FalconModule.Constants.measuredWheelDiameter / 2;
+
+        // Moments of inertia of the wheel and the module (kg m^2)
+        public static final double driveInertia = 0.025;
+        public static final double turningInertia = 0.004;
+
+        public static final double loopTime = 0.02;
+
+        /** Volts per radian of error */
+        public static final PID turningPIDConstants = new PID(8, 0, 0);
+        /** Volts per m/s of error */
+        public static final PID drivePIDConstants = new PID(2, 0, 0);
+    }
+
+    private DCMotorSim driveSim;
+    private DCMotorSim turningSim;
+
+    private PIDController turningPID;
+    private PIDController drivePID;
+    private SimpleMotorFeedforward driveFeedforward;
+
+    private double targetRadians;
+    private double driveRawPower;
+    private double driveMetersPerSecond;
+    private double driveOffsetMeters;
+    private SwerveDrivetrain.DriveMode driveMode = SwerveDrivetrain.DriveMode.RawPower;
+
+    private double driveVolts;
+    private double turningVolts;
+
+    /**
+     * Creates a simulated swerve module
+     * @param constants the swerve module to simulate (only the name is used)
+     */
+    public SimModule(SwerveDrivetrain.Constants.SwerveModuleConstants constants) {
+        super(constants);
+
+        driveSim = new DCMotorSim(Constants.driveGearbox, Constants.driveRatio, Constants.driveInertia);
+        turningSim = new DCMotorSim(Constants.turningGearbox, Constants.turningRatio, Constants.turningInertia);
+
+        turningPID = Constants.turningPIDConstants.getWPIPIDController();
+        turningPID.enableContinuousInput(-Math.PI, Math.PI);
+        drivePID = Constants.drivePIDConstants.getWPIPIDController();
+
+        // Volts needed per m/s at the wheel, straight from the motor's velocity constant
+        double voltsPerMeterPerSecond = Constants.driveRatio / (Constants.driveGearbox.KvRadPerSecPerVolt * Constants.wheelRadius);
+        driveFeedforward = new SimpleMotorFeedforward(0, voltsPerMeterPerSecond);
+    }
+
+    /**
+     * Runs the control loops, the same job the motor controllers do on the real modules
+     */
+    @Override
+    public void periodic() {
+        profilerStage.start();
+        if (DriverStation.isDisabled()) {
+            driveVolts = 0;
+            turningVolts = 0;
+            profilerStage.stop();
+            return;
+        }
+
+        turningVolts = turningPID.calculate(getModuleAngleRadians(), targetRadians);
+
+        switch (driveMode) {
+            case RawPower:
+                driveVolts = driveRawPower * 12;
+                break;
+            case Velocity:
+                driveVolts = driveFeedforward.calculate(driveMetersPerSecond)
+                    + drivePID.calculate(getDriveVelocity(), driveMetersPerSecond);
+                break;
+        }
+
+        turningVolts = MathUtil.clamp(turningVolts, -12, 12);
+        driveVolts = MathUtil.clamp(driveVolts, -12, 12);
+
+        currentPosition = Math.toDegrees(getModuleAngleRadians());
+
+        profilerStage.stop();
+    }
+
+    /**
+     * Steps the physics of the module forward one loop
+     */
+    @Override
+    public void simulationPeriodic() {
+        driveSim.setInputVoltage(driveVolts);
+        turningSim.setInputVoltage(turningVolts);
+
+        driveSim.update(Constants.loopTime);
+        turningSim.update(Constants.loopTime);
+    }
+
+    @Override
+    public Rotation2d getModuleRotation() {
+        return Rotation2d.fromRadians(getModuleAngleRadians());
+    }
+
+    @Override
+    public double getModuleAngleRadians() {
+        return MathUtil.angleModulus(turningSim.getAngularPositionRad());
+    }
+
+    @Override
+    public void setTurningTargetRadians(double radians) {
+        targetRadians = radians;
+    }
+
+    /**
+     * The simulated module always starts at zero, so there is nothing to home
+     */
+    @Override
+    public void homeTurningMotor() {}
+
+    @Override
+    public void setDrivePowerRaw(double power) {
+        driveRawPower = power;
+        driveMode = SwerveDrivetrain.DriveMode.RawPower;
+    }
+
+    @Override
+    public void setDriveVelocity(double velocity) {
+        driveMetersPerSecond = velocity;
+        driveMode = SwerveDrivetrain.DriveMode.Velocity;
+    }
+
+    @Override
+    public double getDriveVelocity() {
+        return driveSim.getAngularVelocityRadPerSec() * Constants.wheelRadius;
+    }
+
+    @Override
+    public double getDriveDistance() {
+        return driveSim.getAngularPositionRad() * Constants.wheelRadius - driveOffsetMeters;
+    }
+
+    @Override
+    public void resetDriveEncoder() {
+        driveOffsetMeters = driveSim.getAngularPositionRad() * Constants.wheelRadius;
+    }
+
+    @Override
+    public void selfTargetAngle() {}
+
+    @Override
+    public void setDriveMode(boolean brake) {}
+
+    @Override
+    public void setTurnBrakeMode(boolean brake) {}
+}
@@ -7,15 +7,17 @@ import edu.wpi.first.math.kinematics.ChassisSpeeds;
 import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
 import edu.wpi.first.math.kinematics.SwerveModulePosition;
 import edu.wpi.first.math.kinematics.SwerveModuleState;
+import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 import edu.wpi.first.math.util.Units;
-import edu.wpi.first.networktables.NetworkTableInstance;
-import edu.wpi.first.networktables.StructArrayPublisher;
-import edu.wpi.first.networktables.StructPublisher;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
 import frc.robot.subsystems.swerve.positioning.RobotPositioner;
 import frc.robot.subsystems.swerve.positioning.RobotPositioner.Perspective;
+import frc.robot.subsystems.swerve.positioning.RobotState;
+import frc.robot.subsystems.swerve.positioning.VelocityEstimator;
 import frc.robot.util.CanIDs;
+import frc.robot.util.LoopProfiler;
+import frc.robot.util.Telemetry;
 import frc.robot.vision.VisionBlender;
 
 // Everything in this file will be done in the order front left, front right, back left, back right
@@ -70,31 +72,53 @@ public class SwerveDrivetrain extends SubsystemBase {
     }
 
     SwerveDriveKinematics kinematics;
+    private Translation2d[] moduleLocations;
     
-    private SwerveModule frontLeftModule;
-    private SwerveModule frontRightModule;
-    private SwerveModule backLeftModule;
-    private SwerveModule backRightModule;
-
-    private SwerveModule[] swerveArray;
-    private SwerveModulePosition[] modulePositions = new SwerveModulePosition[4];
+    private final LoopProfiler.Stage profilerStage = LoopProfiler.getInstance().stage("Drivetrain");
+    private final LoopProfiler.Stage stateStage = LoopProfiler.getInstance().stage("Robot State");
+
+    private SwerveModuleIO frontLeftModule;
+    private SwerveModuleIO frontRightModule;
+    private SwerveModuleIO backLeftModule;
+    private SwerveModuleIO backRightModule;
+
+    private SwerveModuleIO[] swerveArray;
+    // Read as numbers every loop, the positions only get their rotations when something asks for them
+    private double[] moduleDistances = new double[4];
+    private double[] moduleAngles = new double[4];
+    private double[] moduleSpeeds = new double[4];
+    private SwerveModulePosition[] modulePositions = new SwerveModulePosition[] {
+        new SwerveModulePosition(), new SwerveModulePosition(), new SwerveModulePosition(), new SwerveModulePosition()
+    };
+
+    // Reused every loop so driving doesn't create garbage
+    private SwerveStateBuffer stateBuffer;
+    private SwerveModuleState[] measuredStates = new SwerveModuleState[] {
+        new SwerveModuleState(), new SwerveModuleState(), new SwerveModuleState(), new SwerveModuleState()
+    };
+    private ChassisSpeeds measuredSpeeds = new ChassisSpeeds();
+    private final Telemetry.NumberEntry[] modulePositionEntries = {
+        Telemetry.getInstance().number("Module Pos 0"), Telemetry.getInstance().number("Module Pos 1"),
+        Telemetry.getInstance().number("Module Pos 2"), Telemetry.getInstance().number("Module Pos 3")
+    };
+
+    private SwerveSignals signals = new SwerveSignals();
 
     public RobotPositioner positioner;
+    private VelocityEstimator velocityEstimator = new VelocityEstimator(4);
+    private RobotState state;
+    private OdometryThread odometryThread;
 
-    private StructArrayPublisher<SwerveModuleState> swervePublisher = NetworkTableInstance.getDefault()
-        .getStructArrayTopic("Swerve States", SwerveModuleState.struct).publish();
-
-    private StructPublisher<Pose2d> posePublisher = NetworkTableInstance.getDefault()
-        .getStructTopic("Robot Pose", Pose2d.struct).publish();
-
-    public StructPublisher<Pose2d> targetPosePublisher = NetworkTableInstance.getDefault()
-        .getStructTopic("Target Location", Pose2d.struct).publish();
+    private Telemetry.ModuleStatesEntry swervePublisher = Telemetry.getInstance().moduleStates("Swerve States", 4);
 
-    private StructPublisher<Rotation2d> fieldRotPublisher = NetworkTableInstance.getDefault()
-        .getStructTopic("Field Space Rotation", Rotation2d.struct).publish();
+    private Telemetry.StructEntry<Pose2d> posePublisher = Telemetry.getInstance().struct("Robot Pose", Pose2d.struct);
+    public Telemetry.PoseEntry targetPosePublisher = Telemetry.getInstance().pose("Target Location");
+    private Telemetry.StructEntry<Rotation2d> fieldRotPublisher = Telemetry.getInstance().struct("Field Space Rotation", Rotation2d.struct);
+    private Telemetry.StructEntry<Rotation2d> driverRotPublisher = Telemetry.getInstance().struct("Driver Space Rotation", Rotation2d.struct);
 
-    private StructPublisher<Rotation2d> driverRotPublisher = NetworkTableInstance.getDefault()
-        .getStructTopic("Driver Space Rotation", Rotation2d.struct).publish();
+    private Telemetry.NumberEntry robotXEntry = Telemetry.getInstance().number("Robot X");
+    private Telemetry.NumberEntry robotYEntry = Telemetry.getInstance().number("Robot Y");
+    private Telemetry.NumberEntry robotRotationEntry = Telemetry.getInstance().number("Robot Rotation");
 
     /**
      * Creates a swerve drivetrain (uses values from constants)
@@ -108,12 +132,19 @@ public class SwerveDrivetrain extends SubsystemBase {
 
         // the kinematics object for converting chassis speeds to module rotations and powers
         kinematics = new SwerveDriveKinematics(frontLeftLocation, frontRightLocation, backLeftLocation, backRightLocation);
+        moduleLocations = new Translation2d[] {frontLeftLocation, frontRightLocation, backLeftLocation, backRightLocation};
+        stateBuffer = new SwerveStateBuffer(frontLeftLocation, frontRightLocation, backLeftLocation, backRightLocation);
 
         if (moduleType == ModuleType.Neo) {
             frontLeftModule = new NeoModule(Constants.frontLeft);
             frontRightModule = new NeoModule(Constants.frontRight);
             backLeftModule = new NeoModule(Constants.backLeft);
             backRightModule = new NeoModule(Constants.backRight);
+        } else if (moduleType == ModuleType.Sim) {
+            frontLeftModule = new SimModule(Constants.frontLeft);
+            frontRightModule = new SimModule(Constants.frontRight);
+            backLeftModule = new SimModule(Constants.backLeft);
+            backRightModule = new SimModule(Constants.backRight);
         } else {
             frontLeftModule = new FalconModule(Constants.frontLeft);
             frontRightModule = new FalconModule(Constants.frontRight);
@@ -121,17 +152,53 @@ public class SwerveDrivetrain extends SubsystemBase {
             backRightModule = new FalconModule(Constants.backRight);
         }
 
-        swerveArray = new SwerveModule[] {frontLeftModule, frontRightModule, backLeftModule, backRightModule};  
+        swerveArray = new SwerveModuleIO[] {frontLeftModule, frontRightModule, backLeftModule, backRightModule};  
+
+        for (SwerveModuleIO module : swerveArray) {
+            module.registerSignals(signals);
+        }
+        signals.refresh();
 
         updateModulePositions();
-        positioner = new RobotPositioner(this, Constants.gyroID, kinematics, modulePositions, vision);
+        positioner = new RobotPositioner(this, Constants.gyroID, kinematics, getModulePositions(), vision);
+
+        // Falcon modules have Phoenix signals that can be sampled faster than the main loop
+        if (moduleType == ModuleType.Falcon) {
+            odometryThread = new OdometryThread(positioner, (FalconModule) frontLeftModule,
+                (FalconModule) frontRightModule, (FalconModule) backLeftModule, (FalconModule) backRightModule);
+            odometryThread.start();
+        }
+
+        updateState();
     }
 
     public void displayCurrentOffsets() {
-        SmartDashboard.putNumber("Offset FL", swerveArray[0].encoderOffset);
-        SmartDashboard.putNumber("Offset FR", swerveArray[1].encoderOffset);
-        SmartDashboard.putNumber("Offset BL", swerveArray[2].encoderOffset);
-        SmartDashboard.putNumber("Offset BR", swerveArray[3].encoderOffset);
+        SmartDashboard.putNumber("Offset FL", swerveArray[0].getEncoderOffset());
+        SmartDashboard.putNumber("Offset FR", swerveArray[1].getEncoderOffset());
+        SmartDashboard.putNumber("Offset BL", swerveArray[2].getEncoderOffset());
+        SmartDashboard.putNumber("Offset BR", swerveArray[3].getEncoderOffset());
+    }
+
+    /**
+     * Reads the sensors and updates odometry, then captures the state of the robot for the
+     * rest of the loop. Called at the very start of every loop, before anything that drives.
+     */
+    public void updateState() {
+        stateStage.start();
+
+        // Refresh every drivetrain signal at once so the rest of the loop reads cached values
+        signals.refresh();
+
+        updateOdometry();
+
+        double timestamp = Timer.getFPGATimestamp();
+        ChassisSpeeds speeds = getSpeeds();
+        velocityEstimator.update(timestamp, speeds, positioner.getRotation(Perspective.Field).getRadians(),
+            positioner.getYawRate(), positioner.getPoseHistory());
+        state = positioner.captureState(timestamp, speeds, velocityEstimator.getFieldSpeeds(),
+            velocityEstimator.getFieldAcceleration());
+
+        stateStage.stop();
     }
 
     /**
@@ -139,46 +206,53 @@ public class SwerveDrivetrain extends SubsystemBase {
      */
     @Override
     public void periodic() {
-        updateOdometry();
+        profilerStage.start();
 
-        swervePublisher.set(getSwerveModuleStates());
-        fieldRotPublisher.set(positioner.getRotation(Perspective.Field));
-        driverRotPublisher.set(positioner.getRotation(Perspective.Driver));
-        posePublisher.set(positioner.getFieldPose());
+        swervePublisher.set(moduleSpeeds, moduleAngles);
+        fieldRotPublisher.set(state.getFieldRotation());
+        driverRotPublisher.set(state.getDriverRotation());
+        posePublisher.set(state.getFieldPose());
 
-        SmartDashboard.putNumber("Robot X", positioner.getX());
-        SmartDashboard.putNumber("Robot Y", positioner.getY());
-        SmartDashboard.putNumber("Robot Rotation", positioner.getRotation(Perspective.Driver).getDegrees());
+        robotXEntry.set(state.getFieldPose().getX());
+        robotYEntry.set(state.getFieldPose().getY());
+        robotRotationEntry.set(state.getDriverRotation().getDegrees());
+
+        profilerStage.stop();
+    }
+
+    /**
+     * Turns the simulated gyro by however much the simulated modules rotated the robot
+     */
+    @Override
+    public void simulationPeriodic() {
+        double omega = getSpeeds().omegaRadiansPerSecond;
+        positioner.updateSimulatedGyro(omega * SimModule.Constants.loopTime, omega);
     }
 
     private void updateOdometry() {
         updateModulePositions();
-        positioner.update(modulePositions);
+
+        // The odometry thread already feeds module positions, so only vision is added here
+        if (odometryThread != null) positioner.updateVision();
+        else positioner.update(moduleDistances, moduleAngles, moduleSpeeds);
     }
 
     public void updateModulePositions() {
         boolean flipDistances = false;
 
-        double[] distances = new double[] {
-            frontLeftModule.getDriveDistance() * (flipDistances ? -1 : 1),
-            frontRightModule.getDriveDistance() * (flipDistances ? -1 : 1),
-            backLeftModule.getDriveDistance() * (flipDistances ? -1 : 1),
-            backRightModule.getDriveDistance() * (flipDistances ? -1 : 1)
-        };
-
-        modulePositions[0] = new SwerveModulePosition(distances[0], frontLeftModule.getModuleRotation());
-        modulePositions[1] = new SwerveModulePosition(distances[1], frontRightModule.getModuleRotation());
-        modulePositions[2] = new SwerveModulePosition(distances[2], backLeftModule.getModuleRotation());
-        modulePositions[3] = new SwerveModulePosition(distances[3], backRightModule.getModuleRotation());
-
-        SmartDashboard.putNumber("Module Pos 0", distances[0]);
-        SmartDashboard.putNumber("Module Pos 1", distances[1]);
-        SmartDashboard.putNumber("Module Pos 2", distances[2]);
-        SmartDashboard.putNumber("Module Pos 3", distances[3]);
+        for (int i = 0; i < swerveArray.length; i++) {
+            double distance = swerveArray[i].getDriveDistance() * (flipDistances ? -1 : 1);
+
+            moduleDistances[i] = distance;
+            moduleAngles[i] = swerveArray[i].getModuleAngleRadians();
+            moduleSpeeds[i] = swerveArray[i].getDriveVelocity();
+
+            modulePositionEntries[i].set(distance);
+        }
     }
 
     public void resetModuleAngles() {
-        for (SwerveModule module : swerveArray) {
+        for (SwerveModuleIO module : swerveArray) {
             module.homeTurningMotor();
         }
     }
@@ -194,53 +268,58 @@ public class SwerveDrivetrain extends SubsystemBase {
      * @param speeds The requested speeds of the chassis in m/s and rad/s
      */
     public void driveVelocity(ChassisSpeeds speeds) {
-        drive(speeds, DriveMode.Velocity);
+        drive(speeds.vxMetersPerSecond, speeds.vyMetersPerSecond, speeds.omegaRadiansPerSecond, DriveMode.Velocity);
     }
 
     /**
      * @param speeds The requested speeds of the chassis from 1 to -1
      */
     public void drivePower(ChassisSpeeds speeds) {
-        drive(new ChassisSpeeds(speeds.vxMetersPerSecond * Constants.driveMaxSpeed,
-            speeds.vyMetersPerSecond * Constants.driveMaxSpeed, speeds.omegaRadiansPerSecond * Constants.driveMaxSpeed),
+        drive(speeds.vxMetersPerSecond * Constants.driveMaxSpeed, speeds.vyMetersPerSecond * Constants.driveMaxSpeed,
+            speeds.omegaRadiansPerSecond * Constants.driveMaxSpeed,
             DriveMode.Velocity); // TODO switch this back after testing (IMPORTANT)
     }
 
     /**
-     * @param speeds The requested speeds of the chassis
-     * @param maxSpeed The maximum possible value of the {@code ChassisSpeeds} object
+     * Drives the modules without creating any objects
+     * @param vx The requested forward speed of the chassis in m/s
+     * @param vy The requested sideways speed of the chassis in m/s
+     * @param omega The requested rotational speed of the chassis in rad/s
+     * @param driveMode Whether the modules should use velocity control or raw power
      */
-    private void drive(ChassisSpeeds speeds, DriveMode driveMode) {
-        if(speeds.vxMetersPerSecond + speeds.vyMetersPerSecond + speeds.omegaRadiansPerSecond == 0) {
+    private void drive(double vx, double vy, double omega, DriveMode driveMode) {
+        if(vx + vy + omega == 0) {
             setAllModuleDriveRawPower(0);
             selfTargetAllModuleAngles();
         } else {
             // Convert speeds to individual modules
-            SwerveModuleState[] states = kinematics.toSwerveModuleStates(speeds);
-            SwerveDriveKinematics.desaturateWheelSpeeds(states, Constants.driveMaxSpeed);
+            stateBuffer.toModuleStates(vx, vy, omega);
+            stateBuffer.desaturate(Constants.driveMaxSpeed);
 
-            for (int i = 0; i < states.length; i++) {
+            for (int i = 0; i < swerveArray.length; i++) {
                 // Optimize module rotation (instead of a >90 degree turn, turn less and flip wheel direction)
-                states[i] = SwerveModuleState.optimize(states[i], swerveArray[i].getModuleRotation());
+                stateBuffer.optimize(i, swerveArray[i].getModuleAngleRadians());
 
-                swerveArray[i].setTurningTarget(states[i].angle);
+                swerveArray[i].setTurningTargetRadians(stateBuffer.getAngle(i));
                 if (driveMode == DriveMode.Velocity)
-                    swerveArray[i].setDriveVelocity(states[i].speedMetersPerSecond);
+                    swerveArray[i].setDriveVelocity(stateBuffer.getSpeed(i));
                 else
-                    swerveArray[i].setDrivePowerRaw(states[i].speedMetersPerSecond / Constants.driveMaxSpeed);
+                    swerveArray[i].setDrivePowerRaw(stateBuffer.getSpeed(i) / Constants.driveMaxSpeed);
             }
         }
     }
 
     /**
+     * The returned array and states are reused every call, copy them if they need to be kept.
+     * Creates a rotation for every module, so it isn't used by the loop.
      * @return Swerve module states in m/s
      */
     public SwerveModuleState[] getSwerveModuleStates() {
-        SwerveModuleState[] states = new SwerveModuleState[4];
         for(int i = 0; i < swerveArray.length; i++) {
-            states[i] = swerveArray[i].getSwerveModuleState();
+            measuredStates[i].speedMetersPerSecond = swerveArray[i].getDriveVelocity();
+            measuredStates[i].angle = swerveArray[i].getModuleRotation();
         }
-        return states;
+        return measuredStates;
     }
 
     /**
@@ -311,24 +390,65 @@ public class SwerveDrivetrain extends SubsystemBase {
         this.backRightModule.setTurnBrakeMode(brake);
     }
 
+    /**
+     * The returned object is reused every call, copy it if it needs to be kept
+     * @return The measured robot relative speeds of the chassis
+     */
     public ChassisSpeeds getSpeeds() {
-        return kinematics.toChassisSpeeds(getSwerveModuleStates());
+        for (int i = 0; i < swerveArray.length; i++) {
+            stateBuffer.setModuleState(i, swerveArray[i].getDriveVelocity(), swerveArray[i].getModuleAngleRadians());
+        }
+        return stateBuffer.toChassisSpeeds(measuredSpeeds);
     }
 
-    // TODO
+    /**
+     * Estimated once per loop from the modules, the gyro and the pose history. The returned
+     * object is reused every loop, copy it if it needs to be kept.
+     * @return The filtered field relative speeds of the chassis
+     */
     public ChassisSpeeds getFieldSpeeds() {
-        return new ChassisSpeeds(0, 0, 0);
+        return velocityEstimator.getFieldSpeeds();
+    }
+
+    /**
+     * @return The state of the robot captured at the start of this loop
+     */
+    public RobotState getState() {
+        return state;
     }
 
     public SwerveDriveKinematics getKinematics() {
         return kinematics;
     }
 
+    /**
+     * @return The locations of the modules relative to the center of the robot, in module order
+     */
+    public Translation2d[] getModuleLocations() {
+        return moduleLocations;
+    }
+
+    /**
+     * The returned array and positions are reused every call. Creates a rotation for every module,
+     * so only call this for resets.
+     * @return The module positions as of the last update
+     */
     public SwerveModulePosition[] getModulePositions() {
+        for (int i = 0; i < modulePositions.length; i++) {
+            modulePositions[i].distanceMeters = moduleDistances[i];
+            modulePositions[i].angle = new Rotation2d(moduleAngles[i]);
+        }
         return modulePositions;
     }
 
-    public enum ModuleType { Neo, Falcon }
+    /**
+     * @return The status signal cache that is refreshed at the start of every loop
+     */
+    public SwerveSignals getSignals() {
+        return signals;
+    }
+
+    public enum ModuleType { Neo, Falcon, Sim }
 
     public enum DriveMode { RawPower, Velocity }
 }
\ No newline at end of file
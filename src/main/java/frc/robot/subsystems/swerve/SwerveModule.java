@@ -1,38 +1,50 @@
 package frc.robot.subsystems.swerve;
 
-import edu.wpi.first.math.geometry.Rotation2d;
-import edu.wpi.first.math.kinematics.SwerveModuleState;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
 import frc.robot.RobotContainer;
+import frc.robot.util.LoopProfiler;
+import frc.robot.util.Telemetry;
 
-public abstract class SwerveModule extends SubsystemBase {
+/**
+ * Base for the module implementations, holds the values every module shares
+ */
+public abstract class SwerveModule extends SubsystemBase implements SwerveModuleIO {
     public final String moduleName;
     public final String rioCanBus;
     public final String drivetrainCanBus;
     public final double encoderOffset;
     public double currentPosition;
 
+    protected final LoopProfiler.Stage profilerStage;
+
+    // Built once here so periodic() doesn't put the key strings together every loop
+    protected final Telemetry.NumberEntry positionEntry;
+    protected final Telemetry.NumberEntry targetEntry;
+    protected final Telemetry.NumberEntry encoderEntry;
+
     public SwerveModule(int driveID, int turningID, int encoderID, double encoderOffset, String moduleName) {
         this.moduleName = moduleName;
         this.encoderOffset = encoderOffset;
         this.drivetrainCanBus = RobotContainer.getDrivetrainCanBusName();
         this.rioCanBus = RobotContainer.getRioCanBusName();
+        this.profilerStage = LoopProfiler.getInstance().stage("Modules/" + moduleName);
+
+        this.positionEntry = Telemetry.getInstance().number(moduleName + "-Position");
+        this.targetEntry = Telemetry.getInstance().number(moduleName + "-Target");
+        this.encoderEntry = Telemetry.getInstance().number(moduleName + "-CANCoder", 10);
     }
 
     public SwerveModule(SwerveDrivetrain.Constants.SwerveModuleConstants constants) {
         this(constants.driveID, constants.turningID, constants.encoderID, constants.offset, constants.moduleName);
     }
 
-    public abstract Rotation2d getModuleRotation();
-    public abstract void setTurningTarget(Rotation2d target);
-    public abstract void homeTurningMotor();
-    public abstract void setDrivePowerRaw(double power);
-    public abstract void setDriveVelocity(double velocity);
-    public abstract double getDriveVelocity();
-    public abstract double getDriveDistance();
-    public abstract void resetDriveEncoder();
-    public abstract SwerveModuleState getSwerveModuleState();
-    public abstract void selfTargetAngle();
-    public abstract void setDriveMode(boolean brake);
-    public abstract void setTurnBrakeMode(boolean brake);
+    @Override
+    public double getEncoderOffset() {
+        return encoderOffset;
+    }
+
+    @Override
+    public String getModuleName() {
+        return moduleName;
+    }
 }
@@ -0,0 +1,91 @@
+package frc.robot.subsystems.swerve;
+
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+
+/**
+ * Everything the drivetrain needs from a single swerve module. Implemented by
+ * the Falcon and Neo hardware modules, and by {@link SimModule} so the drivetrain
+ * can run without a robot.
+ */
+public interface SwerveModuleIO {
+    /**
+     * @return Rotation2d with the rotation of the module direct from encoder (not dealing with optimization)
+     */
+    Rotation2d getModuleRotation();
+
+    /**
+     * @return The rotation of the module in radians, without creating a Rotation2d
+     */
+    double getModuleAngleRadians();
+
+    /**
+     * @param radians the target angle in radians, unoptimized
+     */
+    void setTurningTargetRadians(double radians);
+
+    /**
+     * @param target Rotation2d with the target angle, unoptimized
+     */
+    default void setTurningTarget(Rotation2d target) {
+        setTurningTargetRadians(target.getRadians());
+    }
+
+    /**
+     * Sets the turning motor position from the absolute encoder
+     */
+    void homeTurningMotor();
+
+    /**
+     * @param power from -1 to 1
+     */
+    void setDrivePowerRaw(double power);
+
+    /**
+     * @param velocity in meters per second
+     */
+    void setDriveVelocity(double velocity);
+
+    /**
+     * @return Drive wheel velocity in meters per second
+     */
+    double getDriveVelocity();
+
+    /**
+     * @return The distance the wheel has driven in meters
+     */
+    double getDriveDistance();
+
+    /**
+     * Resets drive encoder distance to zero.
+     */
+    void resetDriveEncoder();
+
+    /**
+     * @return The current speed and angle of the module
+     */
+    default SwerveModuleState getSwerveModuleState() {
+        return new SwerveModuleState(getDriveVelocity(), getModuleRotation());
+    }
+
+    void selfTargetAngle();
+    void setDriveMode(boolean brake);
+    void setTurnBrakeMode(boolean brake);
+
+    /**
+     * @return The offset of the absolute encoder
+     */
+    double getEncoderOffset();
+
+    /**
+     * @return The name of the module for debug purposes
+     */
+    String getModuleName();
+
+    /**
+     * Registers the status signals this module reads with the drivetrain's signal cache.
+     * Modules that don't use Phoenix 6 hardware have nothing to register.
+     * @param signals the drivetrain's signal cache
+     */
+    default void registerSignals(SwerveSignals signals) {}
+}
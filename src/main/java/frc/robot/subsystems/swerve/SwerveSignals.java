@@ -0,0 +1,46 @@
+package frc.robot.subsystems.swerve;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+import com.ctre.phoenix6.BaseStatusSignal;
+import com.ctre.phoenix6.StatusSignal;
+
+/**
+ * Cache for every Phoenix 6 status signal the drivetrain reads. All of the signals
+ * get refreshed together once at the start of the loop, so any reads after that in
+ * the same loop don't touch the CAN bus and all share the same sample time.
+ */
+public class SwerveSignals {
+    private LinkedHashMap<String, ArrayList<BaseStatusSignal>> registered = new LinkedHashMap<>();
+    private BaseStatusSignal[][] busGroups = new BaseStatusSignal[0][];
+
+    /**
+     * Adds a signal to the cache. Only call this during setup.
+     * @param canBus The name of the CAN bus the device is on
+     * @param signal The signal to refresh every loop
+     * @return The same signal so it can be stored in a field
+     */
+    public <T> StatusSignal<T> register(String canBus, StatusSignal<T> signal) {
+        registered.computeIfAbsent(canBus, bus -> new ArrayList<>()).add(signal);
+
+        // Flatten into arrays so refresh() doesn't have to walk the map every loop
+        busGroups = new BaseStatusSignal[registered.size()][];
+        int i = 0;
+        for (ArrayList<BaseStatusSignal> signals : registered.values()) {
+            busGroups[i++] = signals.toArray(new BaseStatusSignal[0]);
+        }
+
+        return signal;
+    }
+
+    /**
+     * Refreshes every registered signal. Phoenix can only refresh signals
+     * from the same CAN bus together, so this is one call per bus.
+     */
+    public void refresh() {
+        for (BaseStatusSignal[] group : busGroups) {
+            BaseStatusSignal.refreshAll(group);
+        }
+    }
+}
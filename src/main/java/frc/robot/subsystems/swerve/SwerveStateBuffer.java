@@ -0,0 +1,168 @@
+package frc.robot.subsystems.swerve;
+
+import org.ejml.simple.SimpleMatrix;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+
+/**
+ * Preallocated swerve kinematics that work in place on primitive arrays. This does the same
+ * math as {@code SwerveDriveKinematics.toSwerveModuleStates}, {@code desaturateWheelSpeeds},
+ * {@code SwerveModuleState.optimize} and {@code toChassisSpeeds}, but without creating any
+ * objects, so it can run every loop without making garbage for the roboRIO to collect.
+ *
+ * <p>Not thread safe, every thread that needs kinematics should have its own buffer.
+ */
+public class SwerveStateBuffer {
+    private final int moduleCount;
+    private final double[] moduleX;
+    private final double[] moduleY;
+
+    /** Pseudo-inverse of the inverse kinematics matrix, stored row major (3 x 2n) */
+    private final double[] forwardKinematics;
+
+    private final double[] speeds;
+    private final double[] angles;
+
+    /**
+     * Creates a new buffer for a drivetrain with modules at the given locations
+     * @param moduleLocations locations of the modules relative to the center of the robot
+     */
+    public SwerveStateBuffer(Translation2d... moduleLocations) {
+        moduleCount = moduleLocations.length;
+        moduleX = new double[moduleCount];
+        moduleY = new double[moduleCount];
+        speeds = new double[moduleCount];
+        angles = new double[moduleCount];
+
+        // Same inverse kinematics matrix WPILib builds, only used once to find the forward kinematics
+        SimpleMatrix inverseKinematics = new SimpleMatrix(moduleCount * 2, 3);
+        for (int i = 0; i < moduleCount; i++) {
+            moduleX[i] = moduleLocations[i].getX();
+            moduleY[i] = moduleLocations[i].getY();
+
+            inverseKinematics.setRow(i * 2, 0, 1, 0, -moduleY[i]);
+            inverseKinematics.setRow(i * 2 + 1, 0, 0, 1, moduleX[i]);
+        }
+
+        SimpleMatrix pseudoInverse = inverseKinematics.pseudoInverse();
+        forwardKinematics = new double[3 * moduleCount * 2];
+        for (int row = 0; row < 3; row++) {
+            for (int col = 0; col < moduleCount * 2; col++) {
+                forwardKinematics[row * moduleCount * 2 + col] = pseudoInverse.get(row, col);
+            }
+        }
+    }
+
+    /**
+     * Converts chassis speeds into module speeds and angles, stored in this buffer.
+     * If the chassis isn't moving the modules keep their previous angles.
+     * @param vx forward velocity in m/s
+     * @param vy sideways velocity in m/s
+     * @param omega rotational velocity in rad/s
+     */
+    public void toModuleStates(double vx, double vy, double omega) {
+        if (vx == 0 && vy == 0 && omega == 0) {
+            for (int i = 0; i < moduleCount; i++) speeds[i] = 0;
+            return;
+        }
+
+        for (int i = 0; i < moduleCount; i++) {
+            double x = vx - omega * moduleY[i];
+            double y = vy + omega * moduleX[i];
+
+            speeds[i] = Math.hypot(x, y);
+            angles[i] = Math.atan2(y, x);
+        }
+    }
+
+    /**
+     * Scales down all of the module speeds if any of them are faster than the max speed
+     * @param maxSpeed the maximum attainable speed of a module in m/s
+     */
+    public void desaturate(double maxSpeed) {
+        double realMaxSpeed = 0;
+        for (int i = 0; i < moduleCount; i++) {
+            realMaxSpeed = Math.max(realMaxSpeed, Math.abs(speeds[i]));
+        }
+
+        if (realMaxSpeed > maxSpeed) {
+            for (int i = 0; i < moduleCount; i++) {
+                speeds[i] = speeds[i] / realMaxSpeed * maxSpeed;
+            }
+        }
+    }
+
+    /**
+     * Optimizes a module so it never turns more than 90 degrees, flipping
+     * the wheel direction instead
+     * @param module index of the module
+     * @param currentAngle the current angle of the module in radians
+     */
+    public void optimize(int module, double currentAngle) {
+        double delta = MathUtil.angleModulus(angles[module] - currentAngle);
+        if (Math.abs(delta) > Math.PI / 2) {
+            speeds[module] = -speeds[module];
+            angles[module] = MathUtil.angleModulus(angles[module] + Math.PI);
+        }
+    }
+
+    /**
+     * Sets a module state in the buffer, used before {@link #toChassisSpeeds}
+     * @param module index of the module
+     * @param speed speed of the module in m/s
+     * @param angle angle of the module in radians
+     */
+    public void setModuleState(int module, double speed, double angle) {
+        speeds[module] = speed;
+        angles[module] = angle;
+    }
+
+    /**
+     * Converts the module states in the buffer into chassis speeds
+     * @param output the object to store the robot relative speeds in
+     * @return the output object
+     */
+    public ChassisSpeeds toChassisSpeeds(ChassisSpeeds output) {
+        double vx = 0, vy = 0, omega = 0;
+        int columns = moduleCount * 2;
+
+        for (int i = 0; i < moduleCount; i++) {
+            double moduleVx = speeds[i] * Math.cos(angles[i]);
+            double moduleVy = speeds[i] * Math.sin(angles[i]);
+
+            vx += forwardKinematics[i * 2] * moduleVx + forwardKinematics[i * 2 + 1] * moduleVy;
+            vy += forwardKinematics[columns + i * 2] * moduleVx + forwardKinematics[columns + i * 2 + 1] * moduleVy;
+            omega += forwardKinematics[columns * 2 + i * 2] * moduleVx + forwardKinematics[columns * 2 + i * 2 + 1] * moduleVy;
+        }
+
+        output.vxMetersPerSecond = vx;
+        output.vyMetersPerSecond = vy;
+        output.omegaRadiansPerSecond = omega;
+        return output;
+    }
+
+    /**
+     * @param module index of the module
+     * @return the speed of the module in m/s
+     */
+    public double getSpeed(int module) {
+        return speeds[module];
+    }
+
+    /**
+     * @param module index of the module
+     * @return the angle of the module in radians
+     */
+    public double getAngle(int module) {
+        return angles[module];
+    }
+
+    /**
+     * @return the number of modules in the buffer
+     */
+    public int getModuleCount() {
+        return moduleCount;
+    }
+}
@@ -0,0 +1,253 @@
+package frc.robot.subsystems.swerve.positioning;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+
+/**
+ * A fixed size history of where the robot was, for looking up the pose or velocity of the
+ * robot at some point in the past. Everything is stored in parallel primitive arrays used
+ * as a ring buffer, so adding samples and looking them up never creates any objects.
+ *
+ * <p>Samples come from the odometry thread and lookups from the main loop, so every
+ * method is synchronized.
+ */
+public class PoseHistory {
+
+    public static class Constants {
+        /** How far back the history goes at the odometry thread's fastest rate (seconds) */
+        public static final double length = 1.5;
+        /** Fastest rate samples get added at (hz) */
+        public static final double maxSampleRate = 250;
+    }
+
+    private final int mask;
+    private final int moduleCount;
+
+    private final double[] timestamps;
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] headings;
+    private final double[] moduleSpeeds;
+
+    private int start = 0;
+    private int count = 0;
+
+    /**
+     * @param moduleCount the number of swerve modules
+     */
+    public PoseHistory(int moduleCount) {
+        int capacity = Integer.highestOneBit((int) Math.ceil(Constants.length * Constants.maxSampleRate) - 1) << 1;
+        this.mask = capacity - 1;
+        this.moduleCount = moduleCount;
+
+        timestamps = new double[capacity];
+        xs = new double[capacity];
+        ys = new double[capacity];
+        headings = new double[capacity];
+        moduleSpeeds = new double[capacity * moduleCount];
+    }
+
+    /**
+     * Adds a sample, samples older than the newest one are ignored
+     * @param timestamp the FPGA time of the sample (seconds)
+     * @param x the blue origin x position (meters)
+     * @param y the blue origin y position (meters)
+     * @param heading the field perspective rotation (radians)
+     * @param speeds the drive speed of every module (m/s)
+     */
+    public synchronized void add(double timestamp, double x, double y, double heading, double[] speeds) {
+        if (count > 0 && timestamp <= timestamps[physical(count - 1)]) return;
+
+        int index;
+        if (count <= mask) {
+            index = physical(count);
+            count++;
+        } else {
+            // Full, overwrite the oldest sample
+            index = start;
+            start = (start + 1) & mask;
+        }
+
+        timestamps[index] = timestamp;
+        xs[index] = x;
+        ys[index] = y;
+        headings[index] = heading;
+        System.arraycopy(speeds, 0, moduleSpeeds, index * moduleCount, moduleCount);
+    }
+
+    /**
+     * Interpolates the history at a time. Times outside of the history are clamped to the
+     * oldest or newest sample. The velocity is the average between the two samples around the time.
+     * @param timestamp the FPGA time to look up (seconds)
+     * @param output the sample to store the result in
+     * @return false if the history is empty
+     */
+    public synchronized boolean sample(double timestamp, Sample output) {
+        if (count == 0) return false;
+
+        if (count == 1) {
+            set(output, 0, 0, 0);
+            return true;
+        }
+
+        int upper = search(timestamp);
+        int lower = upper - 1;
+        int lowerIndex = physical(lower);
+        int upperIndex = physical(upper);
+
+        double dt = timestamps[upperIndex] - timestamps[lowerIndex];
+        double t = MathUtil.clamp((timestamp - timestamps[lowerIndex]) / dt, 0, 1);
+
+        set(output, lower, upper, t);
+
+        output.vx = (xs[upperIndex] - xs[lowerIndex]) / dt;
+        output.vy = (ys[upperIndex] - ys[lowerIndex]) / dt;
+        output.omega = MathUtil.angleModulus(headings[upperIndex] - headings[lowerIndex]) / dt;
+        return true;
+    }
+
+    /**
+     * Allocates a pose, use {@link #sample} in code that runs every loop
+     * @param timestamp the FPGA time to look up (seconds)
+     * @return the interpolated pose, or null if the history is empty
+     */
+    public Pose2d getPose(double timestamp) {
+        Sample sample = new Sample(moduleCount);
+        if (!sample(timestamp, sample)) return null;
+        return new Pose2d(sample.x, sample.y, Rotation2d.fromRadians(sample.heading));
+    }
+
+    /**
+     * @return the time of the oldest sample (seconds), or NaN if the history is empty
+     */
+    public synchronized double getOldestTimestamp() {
+        return count == 0 ? Double.NaN : timestamps[start];
+    }
+
+    /**
+     * @return the time of the newest sample (seconds), or NaN if the history is empty
+     */
+    public synchronized double getNewestTimestamp() {
+        return count == 0 ? Double.NaN : timestamps[physical(count - 1)];
+    }
+
+    /**
+     * Moves every sample newer than a time by the same rigid transform, used when a past
+     * pose gets corrected and everything after it has to follow
+     * @param timestamp only samples after this FPGA time are moved (seconds)
+     * @param fromX x position of the pose before the correction (meters)
+     * @param fromY y position of the pose before the correction (meters)
+     * @param toX x position of the pose after the correction (meters)
+     * @param toY y position of the pose after the correction (meters)
+     * @param rotation how much the correction turned the pose (radians)
+     */
+    public synchronized void transformAfter(double timestamp, double fromX, double fromY, double toX, double toY,
+            double rotation) {
+        double cos = Math.cos(rotation);
+        double sin = Math.sin(rotation);
+
+        for (int i = count - 1; i >= 0; i--) {
+            int index = physical(i);
+            if (timestamps[index] <= timestamp) break;
+
+            double dx = xs[index] - fromX;
+            double dy = ys[index] - fromY;
+            xs[index] = toX + dx * cos - dy * sin;
+            ys[index] = toY + dx * sin + dy * cos;
+            headings[index] = MathUtil.angleModulus(headings[index] + rotation);
+        }
+    }
+
+    /**
+     * Removes every sample, used when the pose gets reset
+     */
+    public synchronized void clear() {
+        start = 0;
+        count = 0;
+    }
+
+    /**
+     * @return The number of modules each sample stores a speed for
+     */
+    public int getModuleCount() {
+        return moduleCount;
+    }
+
+    /**
+     * Finds the first sample at or after the time, never the oldest sample so there's always one before it
+     */
+    private int search(double timestamp) {
+        int low = 1;
+        int high = count - 1;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (timestamps[physical(middle)] < timestamp) low = middle + 1;
+            else high = middle;
+        }
+
+        return low;
+    }
+
+    private void set(Sample output, int lower, int upper, double t) {
+        int lowerIndex = physical(lower);
+        int upperIndex = physical(upper);
+
+        output.timestamp = MathUtil.interpolate(timestamps[lowerIndex], timestamps[upperIndex], t);
+        output.x = MathUtil.interpolate(xs[lowerIndex], xs[upperIndex], t);
+        output.y = MathUtil.interpolate(ys[lowerIndex], ys[upperIndex], t);
+        output.heading = MathUtil.angleModulus(headings[lowerIndex]
+            + MathUtil.angleModulus(headings[upperIndex] - headings[lowerIndex]) * t);
+
+        for (int i = 0; i < moduleCount; i++) {
+            output.moduleSpeeds[i] = MathUtil.interpolate(moduleSpeeds[lowerIndex * moduleCount + i],
+                moduleSpeeds[upperIndex * moduleCount + i], t);
+        }
+
+        output.vx = 0;
+        output.vy = 0;
+        output.omega = 0;
+    }
+
+    private int physical(int logical) {
+        return (start + logical) & mask;
+    }
+
+    /**
+     * A reusable holder for a looked up sample, create one per caller and keep it
+     */
+    public static class Sample {
+        private double timestamp, x, y, heading;
+        private double vx, vy, omega;
+        private final double[] moduleSpeeds;
+
+        /**
+         * @param moduleCount the number of swerve modules
+         */
+        public Sample(int moduleCount) {
+            moduleSpeeds = new double[moduleCount];
+        }
+
+        /** @return the time of the sample, clamped to the history (seconds) */
+        public double getTimestamp() { return timestamp; }
+        /** @return the blue origin x position (meters) */
+        public double getX() { return x; }
+        /** @return the blue origin y position (meters) */
+        public double getY() { return y; }
+        /** @return the field perspective rotation (radians) */
+        public double getHeading() { return heading; }
+        /** @return the field relative x velocity (m/s) */
+        public double getVx() { return vx; }
+        /** @return the field relative y velocity (m/s) */
+        public double getVy() { return vy; }
+        /** @return the rotational velocity (rad/s) */
+        public double getOmega() { return omega; }
+
+        /**
+         * @param module index of the module
+         * @return the drive speed of the module (m/s)
+         */
+        public double getModuleSpeed(int module) { return moduleSpeeds[module]; }
+    }
+}
@@ -1,18 +1,23 @@
 package frc.robot.subsystems.swerve.positioning;
 
+import com.ctre.phoenix6.StatusSignal;
 import com.ctre.phoenix6.configs.Pigeon2Configuration;
 import com.ctre.phoenix6.hardware.Pigeon2;
 
 import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
 import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
 import edu.wpi.first.math.kinematics.SwerveModulePosition;
 import edu.wpi.first.networktables.NetworkTableInstance;
 import edu.wpi.first.networktables.StructPublisher;
 import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.wpilibj.DriverStation.Alliance;
+import edu.wpi.first.wpilibj.Timer;
 import frc.robot.RobotContainer;
+import frc.robot.subsystems.CanBudget;
+import frc.robot.subsystems.swerve.OdometryThread;
 import frc.robot.subsystems.swerve.SwerveDrivetrain;
 import frc.robot.vision.VisionBlender;
 import frc.robot.vision.VisionPoseEstimator;
@@ -25,7 +30,15 @@ public class RobotPositioner {
     
     private SwerveDrivetrain drivetrain;
     private Pigeon2 pigeon;
+    private StatusSignal<Double> yaw;
+    private StatusSignal<Double> yawRate;
     private VisionPoseEstimator poseEstimator;
+    private PoseHistory poseHistory;
+
+    private static final Rotation2d flipRotation = Rotation2d.fromDegrees(180);
+
+    // Read by the odometry thread, which can't afford to ask the driver station every sample
+    private volatile boolean redAlliance = false;
 
     private StructPublisher<Pose2d> autoStartPose = NetworkTableInstance.getDefault()
         .getStructTopic("Auto Start Pose", Pose2d.struct).publish();
@@ -36,9 +49,16 @@ public class RobotPositioner {
         pigeon = new Pigeon2(gyroID, RobotContainer.getRioCanBusName());
         pigeon.getConfigurator().apply(new Pigeon2Configuration());
         pigeon.reset();
+        yaw = drivetrain.getSignals().register(RobotContainer.getRioCanBusName(), pigeon.getYaw());
+        yawRate = drivetrain.getSignals().register(RobotContainer.getRioCanBusName(), pigeon.getAngularVelocityZWorld());
+        CanBudget.getInstance().phoenix(RobotContainer.getRioCanBusName(), pigeon, OdometryThread.Constants.gyroFrequency, yaw, yawRate);
 
-        poseEstimator = new VisionPoseEstimator(drivetrain.getKinematics(),
+        poseHistory = new PoseHistory(modulePositions.length);
+        vision.setPoseHistory(poseHistory);
+        poseEstimator = new VisionPoseEstimator(drivetrain.getModuleLocations(),
             getRotation(Perspective.Field), modulePositions, vision);
+        poseEstimator.setPoseHistory(poseHistory);
+        poseEstimator.startVisionWorker();
         resetPerspective();
     }
 
@@ -55,15 +75,57 @@ public class RobotPositioner {
      * @return A {@code Rotation2d} representing the rotation
      */
     public Rotation2d getRotation(Perspective perspective) {
-        double raw = pigeon.getYaw().getValueAsDouble();
+        return getRotation(yaw.getValueAsDouble(), perspective);
+    }
+
+    /**
+     * Converts a raw gyro yaw into a rotation as of the specified perspective
+     * @param raw The yaw of the pigeon in degrees
+     * @param perspective The perspective that the rotation is viewed from
+     * @return A {@code Rotation2d} representing the rotation
+     */
+    private Rotation2d getRotation(double raw, Perspective perspective) {
+        return getRotation(raw, perspective, DriverStation.getAlliance().orElse(Alliance.Blue));
+    }
+
+    /**
+     * Converts a raw gyro yaw into a field perspective heading without creating any objects,
+     * using the alliance from the last captured state
+     * @param raw The yaw of the pigeon in degrees
+     * @return The field perspective heading in radians
+     */
+    private double getFieldHeading(double raw) {
+        double heading = Math.toRadians(raw);
+        return redAlliance ? heading + Math.PI : heading;
+    }
+
+    private Rotation2d getRotation(double raw, Perspective perspective, Alliance alliance) {
         Rotation2d rot = Rotation2d.fromDegrees(raw);
 
         // Flip rotation as necessary
-        if (perspective == Perspective.Driver) return rot;
-        else {
-            Alliance alliance = DriverStation.getAlliance().orElse(Alliance.Blue);
-            return rot.plus(Rotation2d.fromDegrees(alliance == Alliance.Red ? 180 : 0));
-        }
+        if (perspective == Perspective.Driver || alliance != Alliance.Red) return rot;
+        return rot.plus(flipRotation);
+    }
+
+    /**
+     * Reads the gyro, pose estimate and alliance once into a snapshot for the rest of the loop
+     * @param timestamp The FPGA time in seconds
+     * @param robotSpeeds The measured robot relative speeds
+     * @param fieldSpeeds The estimated field relative speeds
+     * @param fieldAcceleration The estimated field relative acceleration
+     * @return The snapshot
+     */
+    public RobotState captureState(double timestamp, ChassisSpeeds robotSpeeds, ChassisSpeeds fieldSpeeds,
+            ChassisSpeeds fieldAcceleration) {
+        Alliance alliance = DriverStation.getAlliance().orElse(Alliance.Blue);
+        redAlliance = alliance == Alliance.Red;
+        double raw = yaw.getValueAsDouble();
+
+        Pose2d estimate = poseEstimator.grabEstimatedPose();
+        Pose2d fieldPose = new Pose2d(estimate.getX(), estimate.getY(), getRotation(raw, Perspective.Field, alliance));
+
+        return new RobotState(timestamp, fieldPose, getRotation(raw, Perspective.Driver, alliance),
+            robotSpeeds, fieldSpeeds, fieldAcceleration, alliance);
     }
 
     /**
@@ -100,7 +162,10 @@ public class RobotPositioner {
      * Resets the pigeon gyro so zero degrees represents the current
      * angle of the robot
      */
-    public void resetGyro() { pigeon.reset(); }
+    public void resetGyro() {
+        pigeon.reset();
+        yaw.refresh();
+    }
 
     /**
      * Sets the pigeon gyro so the specified degrees represents the
@@ -114,7 +179,34 @@ public class RobotPositioner {
      * current angle of the robot
      * @param rotation The rotation to be set as the current angle
      */
-    public void setGyro(Rotation2d rotation) { pigeon.setYaw(rotation.getDegrees()); }
+    public void setGyro(Rotation2d rotation) {
+        pigeon.setYaw(rotation.getDegrees());
+        yaw.refresh();
+    }
+
+    /**
+     * @return The rotation rate of the robot measured by the pigeon in rad/s, counterclockwise positive
+     */
+    public double getYawRate() {
+        return Math.toRadians(yawRate.getValueAsDouble());
+    }
+
+    /**
+     * @return How long ago the pigeon measured the yaw that was last read, in seconds
+     */
+    public double getYawLatency() {
+        return yaw.getTimestamp().getLatency();
+    }
+
+    /**
+     * Adds rotation to the simulated pigeon. Only does anything in simulation.
+     * @param radians The amount the robot turned since the last call
+     * @param radiansPerSecond The rotation rate of the robot
+     */
+    public void updateSimulatedGyro(double radians, double radiansPerSecond) {
+        pigeon.getSimState().addYaw(Math.toDegrees(radians));
+        pigeon.getSimState().setAngularVelocityZ(Math.toDegrees(radiansPerSecond));
+    }
 
     /**
      * Resets the perspective of both the module state positioning and
@@ -143,6 +235,7 @@ public class RobotPositioner {
         
         resetDriveDistances();
         poseEstimator.resetPosition(getRotation(Perspective.Driver), pose, drivetrain.getModulePositions());
+        poseHistory.clear();
     }
 
     /**
@@ -152,6 +245,7 @@ public class RobotPositioner {
         System.out.println("Reset odometry to " + pose);
         poseEstimator.resetPosition(getRotation(Perspective.Field), new Pose2d(pose.getX(), pose.getY(),
             pose.getRotation()), drivetrain.getModulePositions());
+        poseHistory.clear();
     }
 
     /**
@@ -170,10 +264,60 @@ public class RobotPositioner {
 
     /**
      * Updates the positioner with all the robot data
-     * @param modulePositions
+     * @param moduleDistances the drive distance of every module (meters)
+     * @param moduleAngles the angle of every module (radians)
+     * @param moduleSpeeds the drive speed of every module (m/s)
+     */
+    public void update(double[] moduleDistances, double[] moduleAngles, double[] moduleSpeeds) {
+        double timestamp = Timer.getFPGATimestamp();
+        Rotation2d rotation = getRotation(Perspective.Field);
+
+        poseEstimator.updateOdometry(timestamp, rotation.getRadians(), moduleDistances, moduleAngles, moduleSpeeds);
+        poseEstimator.updateVision(rotation);
+    }
+
+    /**
+     * Adds vision readings to the pose estimator without adding an odometry sample.
+     * Used when the odometry thread is the one feeding module positions.
+     */
+    public void updateVision() {
+        poseEstimator.updateVision(getRotation(Perspective.Field));
+    }
+
+    /**
+     * Adds a single odometry sample to the pose estimator and the pose history. Called from the
+     * odometry thread, so it creates no objects.
+     * @param timestamp The FPGA time of the sample in seconds
+     * @param yawDegrees The raw pigeon yaw at the timestamp
+     * @param moduleDistances The drive distance of every module at the timestamp (meters)
+     * @param moduleAngles The angle of every module at the timestamp (radians)
+     * @param moduleSpeeds The drive speed of every module at the timestamp (m/s)
+     */
+    public void addOdometrySample(double timestamp, double yawDegrees, double[] moduleDistances,
+            double[] moduleAngles, double[] moduleSpeeds) {
+        poseEstimator.updateOdometry(timestamp, getFieldHeading(yawDegrees), moduleDistances, moduleAngles,
+            moduleSpeeds);
+    }
+
+    /**
+     * @return Where the robot has been over the last few moments, for looking up past poses and velocities
+     */
+    public PoseHistory getPoseHistory() {
+        return poseHistory;
+    }
+
+    /**
+     * @return The pigeon yaw signal in degrees
+     */
+    public StatusSignal<Double> getYawSignal() {
+        return yaw;
+    }
+
+    /**
+     * @return The pigeon yaw rate signal in degrees per second
      */
-    public void update(SwerveModulePosition[] modulePositions) {
-        poseEstimator.update(getRotation(Perspective.Field), modulePositions);
+    public StatusSignal<Double> getYawRateSignal() {
+        return yawRate;
     }
 
     public enum Perspective { Driver, Field }
@@ -0,0 +1,111 @@
+package frc.robot.subsystems.swerve.positioning;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.wpilibj.DriverStation.Alliance;
+
+/**
+ * Everything about where the robot is and how it's moving, captured once at the start of the loop.
+ * Everything that runs during the loop reads from the same snapshot, so the sensors and the driver
+ * station are only read once per loop no matter how many things need them.
+ *
+ * <p>The chassis speeds are copies owned by the snapshot, don't modify them.
+ */
+public class RobotState {
+    private final double timestamp;
+    private final Pose2d fieldPose;
+    private final Rotation2d fieldRotation;
+    private final Rotation2d driverRotation;
+    private final ChassisSpeeds robotSpeeds;
+    private final ChassisSpeeds fieldSpeeds;
+    private final ChassisSpeeds fieldAcceleration;
+    private final Alliance alliance;
+
+    /**
+     * @param timestamp The FPGA time the snapshot was taken at in seconds
+     * @param fieldPose The field perspective pose of the robot
+     * @param driverRotation The driver perspective rotation of the robot
+     * @param robotSpeeds The measured robot relative speeds (copied)
+     * @param fieldSpeeds The estimated field relative speeds (copied)
+     * @param fieldAcceleration The estimated field relative acceleration (copied)
+     * @param alliance The alliance of the robot, blue when the driver station doesn't know yet
+     */
+    public RobotState(double timestamp, Pose2d fieldPose, Rotation2d driverRotation,
+            ChassisSpeeds robotSpeeds, ChassisSpeeds fieldSpeeds, ChassisSpeeds fieldAcceleration, Alliance alliance) {
+        this.timestamp = timestamp;
+        this.fieldPose = fieldPose;
+        this.fieldRotation = fieldPose.getRotation();
+        this.driverRotation = driverRotation;
+        this.robotSpeeds = new ChassisSpeeds(robotSpeeds.vxMetersPerSecond,
+            robotSpeeds.vyMetersPerSecond, robotSpeeds.omegaRadiansPerSecond);
+        this.fieldSpeeds = new ChassisSpeeds(fieldSpeeds.vxMetersPerSecond,
+            fieldSpeeds.vyMetersPerSecond, fieldSpeeds.omegaRadiansPerSecond);
+        this.fieldAcceleration = new ChassisSpeeds(fieldAcceleration.vxMetersPerSecond,
+            fieldAcceleration.vyMetersPerSecond, fieldAcceleration.omegaRadiansPerSecond);
+        this.alliance = alliance;
+    }
+
+    /**
+     * @return The FPGA time the snapshot was taken at in seconds
+     */
+    public double getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return The field perspective pose of the robot in meters
+     */
+    public Pose2d getFieldPose() {
+        return fieldPose;
+    }
+
+    /**
+     * @return The rotation of the robot as of {@code Perspective.Field}
+     */
+    public Rotation2d getFieldRotation() {
+        return fieldRotation;
+    }
+
+    /**
+     * @return The rotation of the robot as of {@code Perspective.Driver}
+     */
+    public Rotation2d getDriverRotation() {
+        return driverRotation;
+    }
+
+    /**
+     * @return The measured robot relative speeds of the chassis
+     */
+    public ChassisSpeeds getRobotSpeeds() {
+        return robotSpeeds;
+    }
+
+    /**
+     * @return The estimated field relative speeds of the chassis
+     */
+    public ChassisSpeeds getFieldSpeeds() {
+        return fieldSpeeds;
+    }
+
+    /**
+     * @return The estimated field relative acceleration of the chassis in m/s^2 and rad/s^2
+     */
+    public ChassisSpeeds getFieldAcceleration() {
+        return fieldAcceleration;
+    }
+
+    /**
+     * @return The alliance of the robot, blue if it isn't known yet
+     */
+    public Alliance getAlliance() {
+        return alliance;
+    }
+
+    /**
+     * @return true if the robot is on the blue alliance (or the alliance isn't known yet)
+     */
+    public boolean isBlueAlliance() {
+        return alliance == Alliance.Blue;
+    }
+}
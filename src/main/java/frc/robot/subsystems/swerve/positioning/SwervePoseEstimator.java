@@ -0,0 +1,252 @@
+package frc.robot.subsystems.swerve.positioning;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import frc.robot.subsystems.swerve.SwerveStateBuffer;
+
+/**
+ * A swerve pose estimator that does the same math as WPILib's {@code SwerveDrivePoseEstimator}
+ * with primitives, so odometry and vision updates never create any objects.
+ *
+ * <p>Odometry works like {@code SwerveDriveOdometry}: the module distance changes are turned
+ * into a twist with the forward kinematics, and the heading comes straight from the gyro.
+ * Every estimate is kept in a {@link PoseHistory}.
+ *
+ * <p>A vision measurement is blended with the estimate at its timestamp using the same
+ * steady state Kalman gain as WPILib. WPILib then replays odometry from that point to get
+ * the current pose. Odometry only depends on the gyro and module changes, so the replay
+ * always moves every later pose by the same rigid transform as the corrected one. Here that
+ * transform is applied directly to the later history and the current pose instead.
+ *
+ * <p>Not thread safe, the caller has to lock around it.
+ */
+public class SwervePoseEstimator {
+
+    public static class Constants {
+        /** Vision measurements older than this compared to the newest odometry sample are ignored (seconds) */
+        public static final double historyLength = 1.5;
+    }
+
+    private final SwerveStateBuffer kinematics;
+    private final ChassisSpeeds twist = new ChassisSpeeds();
+    private final PoseHistory history = new PoseHistory(0);
+    private final PoseHistory.Sample sample = new PoseHistory.Sample(0);
+    private final double[] noSpeeds = new double[0];
+
+    // Diagonal of the state covariance (Q) and the default vision gain (K)
+    private final double[] stateVariance = new double[3];
+    private final double[] visionGain = new double[3];
+
+    private final double[] previousDistances;
+    // Module positions split into numbers for the primitive update
+    private final double[] distances, angles;
+    private double previousGyro;
+    private double gyroOffset;
+
+    private double x, y, heading;
+
+    /**
+     * @param kinematics a buffer with the drivetrain's module locations, only used by this estimator
+     * @param stateStdDevs trust in odometry as x, y (meters) and heading (radians), larger trusts it less
+     * @param visionStdDevs trust in vision as x, y (meters) and heading (radians), larger trusts it less
+     */
+    public SwervePoseEstimator(SwerveStateBuffer kinematics, double[] stateStdDevs, double[] visionStdDevs) {
+        this.kinematics = kinematics;
+        this.previousDistances = new double[kinematics.getModuleCount()];
+        this.distances = new double[kinematics.getModuleCount()];
+        this.angles = new double[kinematics.getModuleCount()];
+
+        for (int i = 0; i < 3; i++) stateVariance[i] = stateStdDevs[i] * stateStdDevs[i];
+        for (int i = 0; i < 3; i++) visionGain[i] = gain(i, visionStdDevs[i]);
+    }
+
+    /**
+     * Moves the estimate to a pose and clears the history
+     * @param gyroRadians the current field gyro angle (radians)
+     * @param modulePositions the current module positions
+     * @param poseX blue origin x position to reset to (meters)
+     * @param poseY blue origin y position to reset to (meters)
+     * @param poseHeading field heading to reset to (radians)
+     */
+    public void reset(double gyroRadians, SwerveModulePosition[] modulePositions, double poseX, double poseY,
+            double poseHeading) {
+        x = poseX;
+        y = poseY;
+        heading = MathUtil.angleModulus(poseHeading);
+        gyroOffset = poseHeading - gyroRadians;
+        previousGyro = gyroRadians;
+
+        for (int i = 0; i < previousDistances.length; i++) {
+            previousDistances[i] = modulePositions[i].distanceMeters;
+        }
+
+        history.clear();
+    }
+
+    /**
+     * Adds an odometry sample
+     * @param timestamp the FPGA time of the sample (seconds)
+     * @param gyroRadians the field gyro angle at the timestamp (radians)
+     * @param modulePositions the module positions at the timestamp
+     */
+    public void update(double timestamp, double gyroRadians, SwerveModulePosition[] modulePositions) {
+        for (int i = 0; i < distances.length; i++) {
+            distances[i] = modulePositions[i].distanceMeters;
+            angles[i] = modulePositions[i].angle.getRadians();
+        }
+        update(timestamp, gyroRadians, distances, angles);
+    }
+
+    /**
+     * Adds an odometry sample, without needing a Rotation2d for every module
+     * @param timestamp the FPGA time of the sample (seconds)
+     * @param gyroRadians the field gyro angle at the timestamp (radians)
+     * @param moduleDistances the drive distance of every module at the timestamp (meters)
+     * @param moduleAngles the angle of every module at the timestamp (radians)
+     */
+    public void update(double timestamp, double gyroRadians, double[] moduleDistances, double[] moduleAngles) {
+        for (int i = 0; i < previousDistances.length; i++) {
+            double distance = moduleDistances[i];
+            kinematics.setModuleState(i, distance - previousDistances[i], moduleAngles[i]);
+            previousDistances[i] = distance;
+        }
+        kinematics.toChassisSpeeds(twist);
+
+        // The gyro is trusted for the heading, the kinematics only give the translation
+        double deltaHeading = MathUtil.angleModulus(gyroRadians - previousGyro);
+        previousGyro = gyroRadians;
+
+        exp(x, y, heading, twist.vxMetersPerSecond, twist.vyMetersPerSecond, deltaHeading);
+        heading = MathUtil.angleModulus(gyroRadians + gyroOffset);
+
+        history.add(timestamp, x, y, heading, noSpeeds);
+    }
+
+    /**
+     * Blends in a vision measurement using the default vision standard deviations
+     * @param visionX blue origin x position measured by vision (meters)
+     * @param visionY blue origin y position measured by vision (meters)
+     * @param visionHeading field heading measured by vision (radians)
+     * @param timestamp the FPGA time the measurement was taken at (seconds)
+     * @return false if the measurement was too old to use
+     */
+    public boolean addVisionMeasurement(double visionX, double visionY, double visionHeading, double timestamp) {
+        return correct(visionX, visionY, visionHeading, timestamp, visionGain[0], visionGain[1], visionGain[2]);
+    }
+
+    /**
+     * Blends in a vision measurement with its own standard deviations
+     * @param visionX blue origin x position measured by vision (meters)
+     * @param visionY blue origin y position measured by vision (meters)
+     * @param visionHeading field heading measured by vision (radians)
+     * @param timestamp the FPGA time the measurement was taken at (seconds)
+     * @param stdDevX trust in the x position (meters)
+     * @param stdDevY trust in the y position (meters)
+     * @param stdDevHeading trust in the heading (radians)
+     * @return false if the measurement was too old to use
+     */
+    public boolean addVisionMeasurement(double visionX, double visionY, double visionHeading, double timestamp,
+            double stdDevX, double stdDevY, double stdDevHeading) {
+        return correct(visionX, visionY, visionHeading, timestamp,
+            gain(0, stdDevX), gain(1, stdDevY), gain(2, stdDevHeading));
+    }
+
+    private boolean correct(double visionX, double visionY, double visionHeading, double timestamp,
+            double gainX, double gainY, double gainHeading) {
+        if (!history.sample(timestamp, sample)) return false;
+        if (history.getNewestTimestamp() - Constants.historyLength > timestamp) return false;
+
+        double sampleX = sample.getX();
+        double sampleY = sample.getY();
+        double sampleHeading = sample.getHeading();
+
+        // Twist from the estimate at the timestamp to the measurement (Pose2d.log)
+        double cos = Math.cos(sampleHeading);
+        double sin = Math.sin(sampleHeading);
+        double offsetX = visionX - sampleX;
+        double offsetY = visionY - sampleY;
+        double relativeX = offsetX * cos + offsetY * sin;
+        double relativeY = -offsetX * sin + offsetY * cos;
+        double deltaHeading = MathUtil.angleModulus(visionHeading - sampleHeading);
+
+        double halfDelta = deltaHeading / 2;
+        double cosMinusOne = Math.cos(deltaHeading) - 1;
+        double halfByTan = Math.abs(cosMinusOne) < 1e-9
+            ? 1 - deltaHeading * deltaHeading / 12
+            : -(halfDelta * Math.sin(deltaHeading)) / cosMinusOne;
+
+        double twistX = relativeX * halfByTan + relativeY * halfDelta;
+        double twistY = relativeY * halfByTan - relativeX * halfDelta;
+
+        // Only move part of the way there to find the corrected pose (Pose2d.exp)
+        double currentX = x, currentY = y, currentHeading = heading;
+        double rotation = deltaHeading * gainHeading;
+        exp(sampleX, sampleY, sampleHeading, twistX * gainX, twistY * gainY, rotation);
+        double newX = x, newY = y;
+
+        // Everything after the timestamp moves with the corrected pose
+        history.transformAfter(timestamp, sampleX, sampleY, newX, newY, rotation);
+
+        double rotationCos = Math.cos(rotation);
+        double rotationSin = Math.sin(rotation);
+        double fromSampleX = currentX - sampleX;
+        double fromSampleY = currentY - sampleY;
+        x = newX + fromSampleX * rotationCos - fromSampleY * rotationSin;
+        y = newY + fromSampleX * rotationSin + fromSampleY * rotationCos;
+        heading = MathUtil.angleModulus(currentHeading + rotation);
+        gyroOffset += rotation;
+
+        return true;
+    }
+
+    /**
+     * Sets the estimate to the start pose followed by a robot relative twist (Pose2d.exp)
+     */
+    private void exp(double startX, double startY, double startHeading, double dx, double dy, double dtheta) {
+        double sinTheta = Math.sin(dtheta);
+        double cosTheta = Math.cos(dtheta);
+
+        double s, c;
+        if (Math.abs(dtheta) < 1e-9) {
+            s = 1 - dtheta * dtheta / 6;
+            c = 0.5 * dtheta;
+        } else {
+            s = sinTheta / dtheta;
+            c = (1 - cosTheta) / dtheta;
+        }
+
+        double moveX = dx * s - dy * c;
+        double moveY = dx * c + dy * s;
+
+        double cos = Math.cos(startHeading);
+        double sin = Math.sin(startHeading);
+        x = startX + moveX * cos - moveY * sin;
+        y = startY + moveX * sin + moveY * cos;
+        heading = MathUtil.angleModulus(startHeading + dtheta);
+    }
+
+    /**
+     * Steady state Kalman gain for one axis, the same closed form WPILib uses
+     */
+    private double gain(int axis, double visionStdDev) {
+        double q = stateVariance[axis];
+        if (q == 0) return 0;
+        return q / (q + Math.sqrt(q * visionStdDev * visionStdDev));
+    }
+
+    /**
+     * @return blue origin x position of the estimate (meters)
+     */
+    public double getX() { return x; }
+
+    /**
+     * @return blue origin y position of the estimate (meters)
+     */
+    public double getY() { return y; }
+
+    /**
+     * @return field heading of the estimate (radians)
+     */
+    public double getHeading() { return heading; }
+}
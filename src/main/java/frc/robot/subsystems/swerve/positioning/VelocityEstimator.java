@@ -0,0 +1,133 @@
+package frc.robot.subsystems.swerve.positioning;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import frc.robot.util.Telemetry;
+
+/**
+ * Estimates the field relative velocity and acceleration of the chassis once per loop.
+ *
+ * <p>The translation comes from the module kinematics, nudged towards the velocity of the
+ * pose history so wheel slip shows up. The rotation comes from the gyro rate, which is far
+ * less noisy than the modules. Each axis then goes through an alpha-beta filter, which
+ * smooths the noise with very little lag and gives the acceleration for free.
+ */
+public class VelocityEstimator {
+
+    public static class Constants {
+        /** How much of the error each loop goes into the velocity, higher has less lag and more noise */
+        public static final double alpha = 0.6;
+        /** How much of the error each loop goes into the acceleration */
+        public static final double beta = 0.15;
+
+        /** How much the pose history velocity is trusted compared to the module kinematics */
+        public static final double historyWeight = 0.2;
+        /** Most the pose history velocity can pull away from the kinematics (m/s), vision jumps would be way past this */
+        public static final double maxHistoryDisagreement = 0.5;
+        /** Loops longer than this start the filters over instead of predicting across the gap (seconds) */
+        public static final double maxTimeStep = 0.25;
+    }
+
+    private final AlphaBetaFilter vx = new AlphaBetaFilter();
+    private final AlphaBetaFilter vy = new AlphaBetaFilter();
+    private final AlphaBetaFilter omega = new AlphaBetaFilter();
+
+    private final PoseHistory.Sample sample;
+    private final ChassisSpeeds fieldSpeeds = new ChassisSpeeds();
+    private final ChassisSpeeds fieldAcceleration = new ChassisSpeeds();
+    private double lastTimestamp = Double.NaN;
+
+    private final Telemetry.NumberEntry vxEntry = Telemetry.getInstance().number("Velocity X");
+    private final Telemetry.NumberEntry vyEntry = Telemetry.getInstance().number("Velocity Y");
+    private final Telemetry.NumberEntry omegaEntry = Telemetry.getInstance().number("Velocity Omega");
+    private final Telemetry.NumberEntry axEntry = Telemetry.getInstance().number("Acceleration X");
+    private final Telemetry.NumberEntry ayEntry = Telemetry.getInstance().number("Acceleration Y");
+    private final Telemetry.NumberEntry alphaEntry = Telemetry.getInstance().number("Acceleration Omega");
+
+    /**
+     * @param moduleCount the number of swerve modules in the pose history
+     */
+    public VelocityEstimator(int moduleCount) {
+        sample = new PoseHistory.Sample(moduleCount);
+    }
+
+    /**
+     * Adds this loop's measurements, call this once at the start of the loop
+     * @param timestamp the FPGA time of the measurements (seconds)
+     * @param robotSpeeds the robot relative speeds from the module kinematics
+     * @param heading the field perspective rotation of the robot (radians)
+     * @param gyroRate the rotation rate measured by the gyro (rad/s)
+     * @param history where the robot has been according to odometry
+     */
+    public void update(double timestamp, ChassisSpeeds robotSpeeds, double heading, double gyroRate, PoseHistory history) {
+        double cos = Math.cos(heading);
+        double sin = Math.sin(heading);
+        double measuredX = robotSpeeds.vxMetersPerSecond * cos - robotSpeeds.vyMetersPerSecond * sin;
+        double measuredY = robotSpeeds.vxMetersPerSecond * sin + robotSpeeds.vyMetersPerSecond * cos;
+
+        // The pose history sees the robot moving even when the wheels slip
+        if (history.sample(timestamp, sample)) {
+            double limit = Constants.maxHistoryDisagreement;
+            measuredX += Constants.historyWeight * MathUtil.clamp(sample.getVx() - measuredX, -limit, limit);
+            measuredY += Constants.historyWeight * MathUtil.clamp(sample.getVy() - measuredY, -limit, limit);
+        }
+
+        double dt = timestamp - lastTimestamp;
+        lastTimestamp = timestamp;
+
+        vx.update(measuredX, dt);
+        vy.update(measuredY, dt);
+        omega.update(gyroRate, dt);
+
+        fieldSpeeds.vxMetersPerSecond = vx.value;
+        fieldSpeeds.vyMetersPerSecond = vy.value;
+        fieldSpeeds.omegaRadiansPerSecond = omega.value;
+        fieldAcceleration.vxMetersPerSecond = vx.rate;
+        fieldAcceleration.vyMetersPerSecond = vy.rate;
+        fieldAcceleration.omegaRadiansPerSecond = omega.rate;
+
+        vxEntry.set(vx.value);
+        vyEntry.set(vy.value);
+        omegaEntry.set(omega.value);
+        axEntry.set(vx.rate);
+        ayEntry.set(vy.rate);
+        alphaEntry.set(omega.rate);
+    }
+
+    /**
+     * The returned object is reused every loop, copy it if it needs to be kept
+     * @return The filtered field relative speeds in m/s and rad/s
+     */
+    public ChassisSpeeds getFieldSpeeds() {
+        return fieldSpeeds;
+    }
+
+    /**
+     * The returned object is reused every loop, copy it if it needs to be kept
+     * @return The filtered field relative acceleration in m/s^2 and rad/s^2
+     */
+    public ChassisSpeeds getFieldAcceleration() {
+        return fieldAcceleration;
+    }
+
+    /**
+     * Tracks a value and its rate of change
+     */
+    private static class AlphaBetaFilter {
+        private double value, rate;
+
+        private void update(double measurement, double dt) {
+            // First measurement or a bad time step, start over from the measurement
+            if (!(dt > 0) || dt > Constants.maxTimeStep) {
+                value = measurement;
+                rate = 0;
+                return;
+            }
+
+            double predicted = value + rate * dt;
+            double error = measurement - predicted;
+            value = predicted + Constants.alpha * error;
+            rate += Constants.beta * error / dt;
+        }
+    }
+}
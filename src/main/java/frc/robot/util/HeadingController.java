@@ -0,0 +1,155 @@
+package frc.robot.util;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.util.datalog.DoubleLogEntry;
+import edu.wpi.first.wpilibj.DataLogManager;
+
+/**
+ * Turns the robot to a heading that may be moving, like the bearing to a target while driving.
+ *
+ * <p>The setpoint follows a trapezoid profile to the goal, so the robot turns as fast as it's
+ * allowed and stops without overshooting. The goal's own rate is fed forward, so a moving
+ * target is tracked without the feedback having to lag behind it. The gyro heading is
+ * predicted forward by its latency before it's compared to the setpoint.
+ *
+ * <p>The controller starts over on its own when it hasn't been updated for a moment, and
+ * logs how long it took from starting to being settled on the goal.
+ */
+public class HeadingController {
+
+    public static class Constants {
+        /** Fastest the setpoint turns (rad/s) */
+        public static final double maxVelocity = 4.0;
+        /** Fastest the setpoint speeds up (rad/s^2) */
+        public static final double maxAcceleration = 20.0;
+
+        /** Rad/s per radian of error between the setpoint and the heading */
+        public static final double kP = 5.0;
+        /** Rad/s per rad/s of error between the setpoint rate and the gyro rate */
+        public static final double kD = 0.1;
+
+        /** Settled when the heading is this close to the goal (radians) */
+        public static final double headingTolerance = Math.toRadians(2);
+        /** Settled when the turn rate is this close to the goal's rate (rad/s) */
+        public static final double rateTolerance = Math.toRadians(10);
+
+        /** Gyro readings older than this are only predicted forward by this much (seconds) */
+        public static final double maxLatency = 0.1;
+        /** Not updated for this long means the next update starts over (seconds) */
+        public static final double restartTime = 0.1;
+    }
+
+    private double setpoint, setpointVelocity;
+    private double lastTimestamp = Double.NEGATIVE_INFINITY;
+    private double startTimestamp;
+    private boolean settled;
+    private boolean locked;
+
+    private final Telemetry.BooleanEntry settledEntry = Telemetry.getInstance().bool("Aim Settled");
+    private final Telemetry.NumberEntry timeToLockEntry = Telemetry.getInstance().number("Aim Time To Lock");
+    private DoubleLogEntry timeToLockLog;
+
+    /**
+     * Works out the turn rate for this loop
+     * @param timestamp the FPGA time of the update (seconds)
+     * @param heading the field heading measured by the gyro (radians)
+     * @param rate the turn rate measured by the gyro (rad/s)
+     * @param latency how old the gyro reading is (seconds)
+     * @param goal the field heading to turn to (radians)
+     * @param goalRate how fast the goal is turning (rad/s)
+     * @return the turn rate to drive at (rad/s)
+     */
+    public double calculate(double timestamp, double heading, double rate, double latency, double goal, double goalRate) {
+        double predicted = heading + rate * MathUtil.clamp(latency, 0, Constants.maxLatency);
+
+        double dt = timestamp - lastTimestamp;
+        lastTimestamp = timestamp;
+
+        if (dt > Constants.restartTime) {
+            // Start the profile from where the robot is and how it's already turning
+            setpoint = MathUtil.angleModulus(predicted);
+            setpointVelocity = rate;
+            startTimestamp = timestamp;
+            locked = false;
+        } else if (dt > 0) {
+            step(goal, goalRate, dt);
+        }
+
+        double error = MathUtil.angleModulus(setpoint - predicted);
+        double output = setpointVelocity + Constants.kP * error + Constants.kD * (setpointVelocity - rate);
+
+        settled = Math.abs(MathUtil.angleModulus(goal - predicted)) < Constants.headingTolerance
+            && Math.abs(rate - goalRate) < Constants.rateTolerance;
+        settledEntry.set(settled);
+
+        if (settled && !locked) {
+            locked = true;
+            logTimeToLock(timestamp - startTimestamp);
+        }
+
+        return output;
+    }
+
+    /**
+     * Moves the setpoint one step along a trapezoid profile towards the goal, with the goal
+     * moving at its own rate
+     */
+    private void step(double goal, double goalRate, double dt) {
+        double error = MathUtil.angleModulus(goal - setpoint);
+        double relativeVelocity = setpointVelocity - goalRate;
+
+        // Fastest the setpoint can close in on the goal and still stop on it
+        double stoppingVelocity = Math.copySign(Math.sqrt(2 * Constants.maxAcceleration * Math.abs(error)), error);
+        double desired = MathUtil.clamp(stoppingVelocity, -Constants.maxVelocity, Constants.maxVelocity);
+
+        double maxChange = Constants.maxAcceleration * dt;
+        relativeVelocity += MathUtil.clamp(desired - relativeVelocity, -maxChange, maxChange);
+
+        // Don't step past the goal, that's the last step of the profile
+        if (Math.abs(relativeVelocity * dt) > Math.abs(error) && Math.signum(relativeVelocity) == Math.signum(error)) {
+            relativeVelocity = error / dt;
+        }
+
+        setpointVelocity = MathUtil.clamp(goalRate + relativeVelocity, -Constants.maxVelocity, Constants.maxVelocity);
+        setpoint = MathUtil.angleModulus(setpoint + setpointVelocity * dt);
+    }
+
+    private void logTimeToLock(double seconds) {
+        if (timeToLockLog == null) timeToLockLog = new DoubleLogEntry(DataLogManager.getLog(), "Aim/Time To Lock", "s");
+        timeToLockLog.append(seconds);
+        timeToLockEntry.set(seconds);
+    }
+
+    /**
+     * @return true if the heading and turn rate were both on the goal at the last update
+     */
+    public boolean isSettled() {
+        return settled;
+    }
+
+    /**
+     * @return The field heading the profile wants the robot at right now (radians)
+     */
+    public double getSetpoint() {
+        return setpoint;
+    }
+
+    /**
+     * How fast the bearing from the robot to a target turns while the robot moves
+     * @param robotX blue origin x position of the robot (meters)
+     * @param robotY blue origin y position of the robot (meters)
+     * @param vx field relative x velocity of the robot (m/s)
+     * @param vy field relative y velocity of the robot (m/s)
+     * @param targetX blue origin x position of the target (meters)
+     * @param targetY blue origin y position of the target (meters)
+     * @return the rate of the bearing, counterclockwise positive (rad/s)
+     */
+    public static double bearingRate(double robotX, double robotY, double vx, double vy, double targetX, double targetY) {
+        double dx = targetX - robotX;
+        double dy = targetY - robotY;
+        double distanceSquared = dx * dx + dy * dy;
+        if (distanceSquared < 1e-6) return 0;
+
+        return (dy * vx - dx * vy) / distanceSquared;
+    }
+}
@@ -1,21 +1,133 @@
 package frc.robot.util;
 
+import java.util.Collection;
 import java.util.Map;
-import java.util.NavigableMap;
 import java.util.TreeMap;
 
 /**
  * A table of keys and values that can get an interpolated result between data points.
+ *
+ * <p>The table is immutable. The data points are copied into sorted arrays and every curve
+ * coefficient is worked out when it's created, so a lookup is a search and a polynomial
+ * with no objects created. Tables with evenly spaced keys skip the search entirely.
  */
 public class LookupTable {
-    private NavigableMap<Double, Double> dataPoints = new TreeMap<Double, Double>(); // First value is distance, second is angle
+
+    public enum Interpolation {
+        /** Straight lines between the data points */
+        Linear,
+        /** A monotone cubic (PCHIP) curve, smooth and never overshoots the data points */
+        Cubic
+    }
+
+    public enum Bounds {
+        /** Keys outside the table continue the slope at the closest end */
+        Extrapolate,
+        /** Keys outside the table use the value at the closest end */
+        Clamp
+    }
+
+    // Evenly spaced keys can't be exactly even in floating point, this is close enough
+    private static final double uniformTolerance = 1e-9;
+
+    private final double[] keys;
+    private final double[] values;
+
+    // Each segment is values[i] + c1 * dx + c2 * dx^2 + c3 * dx^3, where dx = key - keys[i]
+    private final double[] c1;
+    private final double[] c2;
+    private final double[] c3;
+
+    private final double startSlope;
+    private final double endSlope;
+    private final Bounds bounds;
+
+    // Zero if the keys aren't evenly spaced
+    private final double inverseStep;
 
     /**
-     * Creates a new LookupTable using the provided map
+     * Creates a new linear LookupTable that extrapolates past its ends
      * @param map A map of keys and values to act as the data points
      */
     public LookupTable(Map<Double, Double> map) {
-        dataPoints.putAll(map);
+        this(map, Interpolation.Linear, Bounds.Extrapolate);
+    }
+
+    /**
+     * Creates a new LookupTable using the provided map
+     * @param map A map of keys and values to act as the data points
+     * @param interpolation How values between data points are found
+     * @param bounds What happens to keys outside of the table
+     */
+    public LookupTable(Map<Double, Double> map, Interpolation interpolation, Bounds bounds) {
+        this(toArray(new TreeMap<>(map).keySet()), toArray(new TreeMap<>(map).values()), interpolation, bounds);
+    }
+
+    /**
+     * Creates a new LookupTable from arrays of data points
+     * @param keys The keys, sorted from lowest to highest with no duplicates
+     * @param values The value for each key
+     * @param interpolation How values between data points are found
+     * @param bounds What happens to keys outside of the table
+     */
+    public LookupTable(double[] keys, double[] values, Interpolation interpolation, Bounds bounds) {
+        if (keys.length == 0 || keys.length != values.length) {
+            throw new IllegalArgumentException("A lookup table needs the same number of keys and values, and at least one of each");
+        }
+
+        for (int i = 1; i < keys.length; i++) {
+            if (!(keys[i] > keys[i - 1])) throw new IllegalArgumentException("Lookup table keys must be sorted with no duplicates");
+        }
+
+        this.keys = keys.clone();
+        this.values = values.clone();
+        this.bounds = bounds;
+
+        int segments = Math.max(keys.length - 1, 1);
+        c1 = new double[segments];
+        c2 = new double[segments];
+        c3 = new double[segments];
+
+        if (keys.length == 1) {
+            startSlope = 0;
+            endSlope = 0;
+            inverseStep = 0;
+            return;
+        }
+
+        double[] slopes = new double[keys.length - 1];
+        for (int i = 0; i < slopes.length; i++) {
+            slopes[i] = (values[i + 1] - values[i]) / (keys[i + 1] - keys[i]);
+        }
+
+        if (interpolation == Interpolation.Cubic) {
+            double[] tangents = pchipTangents(this.keys, slopes);
+
+            for (int i = 0; i < segments; i++) {
+                double h = keys[i + 1] - keys[i];
+                c1[i] = tangents[i];
+                c2[i] = (3 * slopes[i] - 2 * tangents[i] - tangents[i + 1]) / h;
+                c3[i] = (tangents[i] + tangents[i + 1] - 2 * slopes[i]) / (h * h);
+            }
+
+            startSlope = tangents[0];
+            endSlope = tangents[tangents.length - 1];
+        } else {
+            System.arraycopy(slopes, 0, c1, 0, segments);
+
+            startSlope = slopes[0];
+            endSlope = slopes[slopes.length - 1];
+        }
+
+        double step = (keys[keys.length - 1] - keys[0]) / segments;
+        boolean uniform = true;
+        for (int i = 1; i < keys.length; i++) {
+            if (Math.abs(keys[i] - (keys[0] + step * i)) > uniformTolerance * Math.max(1, Math.abs(keys[i]))) {
+                uniform = false;
+                break;
+            }
+        }
+        inverseStep = uniform ? 1 / step : 0;
     }
 
     /**
@@ -24,27 +136,107 @@ public class LookupTable {
      * @return Value.
      */
     public double getInterpolated(double key) {
-        if(dataPoints.containsKey(key)) {
-            return dataPoints.get(key);
-        }else{
-            Double higherKey = dataPoints.ceilingKey(key);
-            Double lowerKey = dataPoints.floorKey(key);
-
-            if (higherKey == null) { // No idea why it won't just let me use == null
-                higherKey = lowerKey;
-                lowerKey = dataPoints.lowerKey(higherKey); // Use the last two known points to extrapolate
-            }
+        int last = keys.length - 1;
 
-            if (lowerKey == null) {
-                lowerKey = higherKey;
-                higherKey = dataPoints.higherKey(lowerKey); // Ditto
-            }
+        if (key <= keys[0]) {
+            return bounds == Bounds.Clamp ? values[0] : values[0] + startSlope * (key - keys[0]);
+        }
+
+        if (key >= keys[last]) {
+            return bounds == Bounds.Clamp ? values[last] : values[last] + endSlope * (key - keys[last]);
+        }
 
-            double slope = (dataPoints.get(higherKey) - dataPoints.get(lowerKey)) / (higherKey - lowerKey);
+        int i = segment(key);
+        double dx = key - keys[i];
+        return values[i] + dx * (c1[i] + dx * (c2[i] + dx * c3[i]));
+    }
 
-            double intercept = dataPoints.get(lowerKey) - slope * lowerKey;
+    /**
+     * @return The lowest key in the table
+     */
+    public double getMinKey() {
+        return keys[0];
+    }
+
+    /**
+     * @return The highest key in the table
+     */
+    public double getMaxKey() {
+        return keys[keys.length - 1];
+    }
+
+    /**
+     * Finds the segment a key inside the table falls in
+     * @return The index of the data point at the start of the segment
+     */
+    private int segment(double key) {
+        int last = keys.length - 2;
+
+        if (inverseStep != 0) {
+            int i = (int) ((key - keys[0]) * inverseStep);
+            return Math.min(Math.max(i, 0), last);
+        }
 
-            return (slope * key) + intercept; // y=mx+b
+        // Highest key that's at or below the requested key
+        int low = 0;
+        int high = last;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (keys[middle] <= key) low = middle;
+            else high = middle - 1;
         }
+
+        return low;
+    }
+
+    /**
+     * Fritsch-Carlson tangents, which keep the curve from overshooting between data points
+     * @param keys The keys of the data points
+     * @param slopes The slope of each straight segment between data points
+     * @return The slope of the curve at each data point
+     */
+    private static double[] pchipTangents(double[] keys, double[] slopes) {
+        int n = keys.length;
+        double[] tangents = new double[n];
+
+        if (n == 2) {
+            tangents[0] = slopes[0];
+            tangents[1] = slopes[0];
+            return tangents;
+        }
+
+        for (int i = 1; i < n - 1; i++) {
+            if (slopes[i - 1] * slopes[i] <= 0) continue; // Local peak or flat, keep the tangent at 0
+
+            // Weighted harmonic mean of the slopes on either side
+            double h0 = keys[i] - keys[i - 1];
+            double h1 = keys[i + 1] - keys[i];
+            double w0 = 2 * h1 + h0;
+            double w1 = h1 + 2 * h0;
+            tangents[i] = (w0 + w1) / (w0 / slopes[i - 1] + w1 / slopes[i]);
+        }
+
+        tangents[0] = endTangent(keys[1] - keys[0], keys[2] - keys[1], slopes[0], slopes[1]);
+        tangents[n - 1] = endTangent(keys[n - 1] - keys[n - 2], keys[n - 2] - keys[n - 3], slopes[n - 2], slopes[n - 3]);
+        return tangents;
+    }
+
+    /**
+     * Three point estimate of the tangent at an end of the table, limited so it keeps the shape
+     * @param h0 The width of the segment at the end
+     * @param h1 The width of the segment next to it
+     * @param slope0 The slope of the segment at the end
+     * @param slope1 The slope of the segment next to it
+     */
+    private static double endTangent(double h0, double h1, double slope0, double slope1) {
+        double tangent = ((2 * h0 + h1) * slope0 - h0 * slope1) / (h0 + h1);
+
+        if (Math.signum(tangent) != Math.signum(slope0)) return 0;
+        if (Math.signum(slope0) != Math.signum(slope1) && Math.abs(tangent) > 3 * Math.abs(slope0)) return 3 * slope0;
+        return tangent;
+    }
+
+    private static double[] toArray(Collection<Double> numbers) {
+        return numbers.stream().mapToDouble(Double::doubleValue).toArray();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,267 @@
+package frc.robot.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import edu.wpi.first.networktables.DoubleArrayPublisher;
+import edu.wpi.first.networktables.IntegerPublisher;
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.networktables.StringPublisher;
+import edu.wpi.first.util.datalog.StringLogEntry;
+import edu.wpi.first.wpilibj.DataLogManager;
+import edu.wpi.first.wpilibj2.command.Command;
+import edu.wpi.first.wpilibj2.command.CommandScheduler;
+
+/**
+ * Times every part of the robot loop so overruns can be traced back to what caused them.
+ *
+ * <p>Subsystems time their {@code periodic()} with a {@link Stage}, and commands are timed
+ * through the scheduler's execute hook. Each stage keeps the time it took in the last few
+ * hundred loops, and one stage per loop gets its p50/p95/p99/max published to the
+ * LoopProfiler table (which also ends up in the DataLog). When a loop goes over budget the
+ * slowest stages of that loop are written to the DataLog.
+ *
+ * <p>Only the main robot thread may use this. A stage costs two {@code System.nanoTime()}
+ * calls and no allocations, so the profiler stays well under 1% of the loop.
+ */
+public class LoopProfiler {
+
+    public static class Constants {
+        /** Time the whole loop should fit in (seconds) */
+        public static final double loopBudget = 0.02;
+        /** Loops kept for the percentiles, about 5 seconds worth */
+        public static final int historySize = 256;
+        /** How deep stages can be nested inside each other */
+        public static final int maxDepth = 8;
+        /** Number of stages named in an overrun message */
+        public static final int overrunStages = 3;
+    }
+
+    private static LoopProfiler inst;
+
+    private final NetworkTable table = NetworkTableInstance.getDefault().getTable("LoopProfiler");
+    private final IntegerPublisher overrunPublisher = table.getIntegerTopic("Overruns").publish();
+    private final StringPublisher lastOverrunPublisher = table.getStringTopic("Last Overrun").publish();
+    private StringLogEntry overrunLog;
+
+    private final ArrayList<Stage> stages = new ArrayList<>();
+    private final HashMap<String, Stage> commandStages = new HashMap<>();
+    private final Stage loopStage;
+
+    // Stages that ran this loop, so only those get recorded
+    private Stage[] touched = new Stage[32];
+    private int touchedCount = 0;
+
+    // Currently running stages, a parent is paused while a child runs so times don't overlap
+    private final Stage[] stack = new Stage[Constants.maxDepth];
+    private int depth = 0;
+
+    private final long[] sortBuffer = new long[Constants.historySize];
+    private final long budgetNanos = (long) (Constants.loopBudget * 1e9);
+
+    private long loopCount = 0;
+    private long loopStart;
+    private long lastMark;
+    private int publishIndex = 0;
+    private long overruns = 0;
+
+    private LoopProfiler() {
+        loopStage = new Stage("Loop");
+        stages.add(loopStage);
+
+        // Called right after each command's execute(), so the time since the last mark is that command
+        CommandScheduler.getInstance().onCommandExecute(this::onCommandExecute);
+    }
+
+    /**
+     * Creates a new stage to time part of the loop
+     * @param name The name it's published under
+     * @return The stage, keep it in a field and reuse it every loop
+     */
+    public Stage stage(String name) {
+        Stage stage = new Stage(name);
+        stages.add(stage);
+        return stage;
+    }
+
+    /**
+     * Call at the very start of every robot loop
+     */
+    public void beginLoop() {
+        loopCount++;
+        touchedCount = 0;
+        depth = 0;
+        loopStart = System.nanoTime();
+        lastMark = loopStart;
+    }
+
+    /**
+     * Call at the very end of every robot loop. Records the loop, logs it if it
+     * overran and publishes the stats of one of the stages.
+     */
+    public void endLoop() {
+        long loopNanos = System.nanoTime() - loopStart;
+        loopStage.record(loopNanos);
+
+        long stagedNanos = 0;
+        for (int i = 0; i < touchedCount; i++) {
+            touched[i].record(touched[i].loopNanos);
+            stagedNanos += touched[i].loopNanos;
+        }
+
+        if (loopNanos > budgetNanos) logOverrun(loopNanos, loopNanos - stagedNanos);
+
+        // Spread the sorting out, one stage per loop
+        publishIndex = (publishIndex + 1) % stages.size();
+        stages.get(publishIndex).publish();
+    }
+
+    private void onCommandExecute(Command command) {
+        long now = System.nanoTime();
+
+        // Keyed by name, some commands get created again every loop
+        String name = command.getName();
+        Stage stage = commandStages.get(name);
+        if (stage == null) {
+            stage = stage("Commands/" + name);
+            commandStages.put(name, stage);
+        }
+
+        // Also includes the button polling before the first command and isFinished() of the previous one
+        stage.add(now - lastMark);
+        lastMark = now;
+    }
+
+    private void push(Stage stage) {
+        if (depth == Constants.maxDepth) return;
+
+        long now = System.nanoTime();
+        if (depth > 0) stack[depth - 1].add(now - stack[depth - 1].startTime);
+
+        stack[depth++] = stage;
+        stage.startTime = now;
+    }
+
+    private void pop(Stage stage) {
+        if (depth == 0 || stack[depth - 1] != stage) return; // Unbalanced start and stop
+
+        long now = System.nanoTime();
+        stage.add(now - stage.startTime);
+
+        depth--;
+        if (depth > 0) stack[depth - 1].startTime = now;
+        else lastMark = now;
+    }
+
+    private void logOverrun(long loopNanos, long otherNanos) {
+        overruns++;
+
+        // Only runs on overruns, so allocating here is fine
+        Stage[] slowest = Arrays.copyOf(touched, touchedCount);
+        Arrays.sort(slowest, (a, b) -> Long.compare(b.loopNanos, a.loopNanos));
+
+        StringBuilder message = new StringBuilder()
+            .append(String.format("Loop %.2fms:", loopNanos / 1e6));
+        for (int i = 0; i < Math.min(Constants.overrunStages, slowest.length); i++) {
+            message.append(String.format(" %s %.2fms,", slowest[i].name, slowest[i].loopNanos / 1e6));
+        }
+        message.append(String.format(" untracked %.2fms", otherNanos / 1e6));
+
+        if (overrunLog == null) overrunLog = new StringLogEntry(DataLogManager.getLog(), "LoopProfiler/Overruns");
+        overrunLog.append(message.toString());
+
+        overrunPublisher.set(overruns);
+        lastOverrunPublisher.set(message.toString());
+    }
+
+    /**
+     * A timed part of the loop. Wrap the code with {@link #start()} and {@link #stop()}.
+     */
+    public class Stage {
+        private final String name;
+        private final DoubleArrayPublisher publisher;
+
+        private final long[] history = new long[Constants.historySize];
+        private int historyIndex = 0;
+        private int historyCount = 0;
+
+        private long startTime;
+        private long loopNanos;
+        private long touchedLoop = -1;
+
+        // p50, p95, p99, max in milliseconds
+        private final double[] stats = new double[4];
+
+        private Stage(String name) {
+            this.name = name;
+            publisher = table.getDoubleArrayTopic(name).publish();
+        }
+
+        /**
+         * Starts timing, pauses whatever stage this is nested in
+         */
+        public void start() {
+            push(this);
+        }
+
+        /**
+         * Stops timing, resumes whatever stage this is nested in
+         */
+        public void stop() {
+            pop(this);
+        }
+
+        /**
+         * @return The name of the stage
+         */
+        public String getName() {
+            return name;
+        }
+
+        private void add(long nanos) {
+            if (touchedLoop != loopCount) {
+                touchedLoop = loopCount;
+                loopNanos = 0;
+
+                if (touchedCount == touched.length) touched = Arrays.copyOf(touched, touched.length * 2);
+                touched[touchedCount++] = this;
+            }
+
+            loopNanos += nanos;
+        }
+
+        private void record(long nanos) {
+            history[historyIndex] = nanos;
+            historyIndex = (historyIndex + 1) % history.length;
+            historyCount = Math.min(historyCount + 1, history.length);
+        }
+
+        private void publish() {
+            if (historyCount == 0) return;
+
+            System.arraycopy(history, 0, sortBuffer, 0, historyCount);
+            Arrays.sort(sortBuffer, 0, historyCount);
+
+            stats[0] = percentile(0.50);
+            stats[1] = percentile(0.95);
+            stats[2] = percentile(0.99);
+            stats[3] = sortBuffer[historyCount - 1] / 1e6;
+            publisher.set(stats);
+        }
+
+        private double percentile(double percentile) {
+            int index = Math.min(historyCount - 1, (int) (percentile * historyCount));
+            return sortBuffer[index] / 1e6;
+        }
+    }
+
+    /**
+     * @return The profiler for the main robot loop
+     */
+    public static LoopProfiler getInstance() {
+        if (inst == null) inst = new LoopProfiler();
+        return inst;
+    }
+}
@@ -0,0 +1,135 @@
+package frc.robot.util;
+
+/**
+ * Works out where to aim so a shot lands on target while the robot is moving. The note
+ * keeps the robot's velocity after it leaves the shooter, so the robot aims at a virtual
+ * target moved backwards by that velocity times the note's time of flight. The time of
+ * flight depends on the distance to the virtual target, so the two are solved together
+ * by repeating the guess a few times.
+ *
+ * <p>A solver keeps its last solution in fields instead of creating objects, so give
+ * each user its own solver.
+ */
+public class ShotSolver {
+
+    public static class Constants {
+        /** Most guesses per solve, keeps the worst case cost of a solve fixed */
+        public static final int maxIterations = 5;
+        /** Solved when the virtual target moves less than this between guesses (meters) */
+        public static final double tolerance = 0.01;
+    }
+
+    private final LookupTable angleLookup;
+    private final LookupTable powerLookup;
+    private final LookupTable timeOfFlightLookup;
+    private final double distanceOffset;
+
+    private double virtualX, virtualY;
+    private double distance;
+    private double heading;
+    private double timeOfFlight;
+    private double pivotAngle;
+    private double power;
+    private int iterations;
+    private boolean converged;
+
+    /**
+     * @param angleLookup distance (meters) to pivot angle
+     * @param powerLookup distance (meters) to flywheel setpoint
+     * @param timeOfFlightLookup distance (meters) to how long the note is in the air (seconds)
+     * @param distanceOffset added to the distance before looking up the angle and power,
+     *     increasing it makes the robot shoot lower
+     */
+    public ShotSolver(LookupTable angleLookup, LookupTable powerLookup, LookupTable timeOfFlightLookup,
+            double distanceOffset) {
+        this.angleLookup = angleLookup;
+        this.powerLookup = powerLookup;
+        this.timeOfFlightLookup = timeOfFlightLookup;
+        this.distanceOffset = distanceOffset;
+    }
+
+    /**
+     * Solves a shot, read the results with the getters
+     * @param robotX blue origin x position of the robot (meters)
+     * @param robotY blue origin y position of the robot (meters)
+     * @param vx field relative x velocity of the robot (m/s)
+     * @param vy field relative y velocity of the robot (m/s)
+     * @param targetX blue origin x position of the target (meters)
+     * @param targetY blue origin y position of the target (meters)
+     * @return true if the solution converged within the iteration budget
+     */
+    public boolean solve(double robotX, double robotY, double vx, double vy, double targetX, double targetY) {
+        virtualX = targetX;
+        virtualY = targetY;
+        distance = Math.hypot(targetX - robotX, targetY - robotY);
+        timeOfFlight = timeOfFlightLookup.getInterpolated(distance);
+
+        converged = false;
+        for (iterations = 1; iterations <= Constants.maxIterations; iterations++) {
+            double nextX = targetX - vx * timeOfFlight;
+            double nextY = targetY - vy * timeOfFlight;
+            double change = Math.hypot(nextX - virtualX, nextY - virtualY);
+
+            virtualX = nextX;
+            virtualY = nextY;
+            distance = Math.hypot(virtualX - robotX, virtualY - robotY);
+            timeOfFlight = timeOfFlightLookup.getInterpolated(distance);
+
+            if (change < Constants.tolerance) {
+                converged = true;
+                break;
+            }
+        }
+        iterations = Math.min(iterations, Constants.maxIterations);
+
+        heading = Math.atan2(virtualY - robotY, virtualX - robotX);
+        pivotAngle = angleLookup.getInterpolated(distance + distanceOffset);
+        power = powerLookup.getInterpolated(distance + distanceOffset);
+        return converged;
+    }
+
+    /**
+     * @return blue origin x position of the point to aim at (meters)
+     */
+    public double getVirtualTargetX() { return virtualX; }
+
+    /**
+     * @return blue origin y position of the point to aim at (meters)
+     */
+    public double getVirtualTargetY() { return virtualY; }
+
+    /**
+     * @return distance from the robot to the virtual target (meters)
+     */
+    public double getDistance() { return distance; }
+
+    /**
+     * @return field direction from the robot to the virtual target (radians)
+     */
+    public double getHeading() { return heading; }
+
+    /**
+     * @return how long the note will be in the air (seconds)
+     */
+    public double getTimeOfFlight() { return timeOfFlight; }
+
+    /**
+     * @return the pivot angle for the shot
+     */
+    public double getPivotAngle() { return pivotAngle; }
+
+    /**
+     * @return the flywheel setpoint for the shot
+     */
+    public double getPower() { return power; }
+
+    /**
+     * @return the number of guesses the last solve took
+     */
+    public int getIterations() { return iterations; }
+
+    /**
+     * @return true if the last solve converged, otherwise the last guess is used
+     */
+    public boolean isConverged() { return converged; }
+}
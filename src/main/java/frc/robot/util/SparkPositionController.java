@@ -0,0 +1,173 @@
+package frc.robot.util;
+
+import com.revrobotics.AbsoluteEncoder;
+import com.revrobotics.CANSparkBase.ControlType;
+import com.revrobotics.CANSparkMax;
+import com.revrobotics.SparkPIDController;
+import com.revrobotics.SparkPIDController.ArbFFUnits;
+
+import edu.wpi.first.wpilibj.DriverStation;
+
+/**
+ * Runs a mechanism's position loop on its SPARK MAX instead of the roboRIO. The SPARK
+ * follows a Smart Motion profile at 1 kHz off the absolute encoder plugged into it, so
+ * the roboRIO only has to send a new setpoint when the target changes.
+ *
+ * <p>Positions are in degrees and velocities in degrees per second, the encoder's
+ * conversion factors are set up to match.
+ *
+ * <p>The velocity feedforward is the mechanism's measured power per degree per second. A
+ * warning is reported if cruising at the max velocity would need more than the output limit,
+ * since the SPARK would then fall behind its own profile.
+ *
+ * <p>A trajectory planned on the roboRIO can be streamed instead with {@link #follow}, one
+ * sample per loop. That uses a plain position loop in its own slot with the velocity as
+ * feedforward, so the SPARK follows the samples instead of profiling each one again.
+ */
+public class SparkPositionController {
+
+    private final CANSparkMax motor;
+    private final AbsoluteEncoder encoder;
+    private final SparkPIDController pid;
+    private final double tolerance;
+    private final double outputLimit;
+    private final double velocityFeedforward;
+    private boolean streaming = false;
+
+    private double gravityPower = 0;
+    private double horizontalAngle = 0;
+
+    private double target = Double.NaN;
+
+    /**
+     * Sets up the onboard PID and Smart Motion profile
+     * @param motor the motor driving the mechanism
+     * @param encoder the absolute encoder plugged into the motor's SPARK MAX
+     * @param pid P, I, D, IZone and FF for the Smart Motion velocity loop, FF is power per degree per second
+     * @param outputLimit the most power the SPARK can apply (0 - 1)
+     * @param maxVelocity the cruise velocity of the profile (degrees per second)
+     * @param maxAcceleration the acceleration of the profile (degrees per second squared)
+     * @param tolerance how close to the target counts as there (degrees)
+     */
+    public SparkPositionController(CANSparkMax motor, AbsoluteEncoder encoder, PID pid, double outputLimit,
+            double maxVelocity, double maxAcceleration, double tolerance) {
+        this.motor = motor;
+        this.encoder = encoder;
+        this.tolerance = tolerance;
+        this.outputLimit = outputLimit;
+        this.velocityFeedforward = pid.getFF();
+
+        if (velocityFeedforward * maxVelocity > outputLimit) {
+            DriverStation.reportWarning("Position profile on SPARK " + motor.getDeviceId() + " needs "
+                + velocityFeedforward * maxVelocity + " power to cruise but is limited to " + outputLimit, false);
+        }
+
+        encoder.setPositionConversionFactor(360);
+        encoder.setVelocityConversionFactor(360.0 / 60); // RPM to degrees per second
+
+        this.pid = motor.getPIDController();
+        this.pid.setFeedbackDevice(encoder);
+        this.pid.setP(pid.getP());
+        this.pid.setI(pid.getI());
+        this.pid.setD(pid.getD());
+        this.pid.setFF(velocityFeedforward);
+        this.pid.setIZone(pid.getIZ());
+        this.pid.setOutputRange(-outputLimit, outputLimit);
+
+        this.pid.setSmartMotionMaxVelocity(maxVelocity, 0);
+        this.pid.setSmartMotionMinOutputVelocity(0, 0);
+        this.pid.setSmartMotionMaxAccel(maxAcceleration, 0);
+        this.pid.setSmartMotionAllowedClosedLoopError(tolerance, 0);
+    }
+
+    /**
+     * Adds a feedforward that holds the mechanism up against gravity
+     * @param power the power it takes to hold the mechanism when it's horizontal
+     * @param horizontalAngle the encoder angle where the mechanism is horizontal (degrees)
+     * @return this controller
+     */
+    public SparkPositionController withGravity(double power, double horizontalAngle) {
+        this.gravityPower = power;
+        this.horizontalAngle = horizontalAngle;
+        return this;
+    }
+
+    /**
+     * Sets up the position loop {@link #follow} uses, in slot 1 so the Smart Motion gains stay as they are
+     * @param positionPid gains for the position loop, P is power per degree of error
+     * @return this controller
+     */
+    public SparkPositionController withStreaming(PID positionPid) {
+        pid.setP(positionPid.getP(), 1);
+        pid.setI(positionPid.getI(), 1);
+        pid.setD(positionPid.getD(), 1);
+        pid.setFF(0, 1);
+        pid.setIZone(positionPid.getIZ(), 1);
+        pid.setOutputRange(-outputLimit, outputLimit, 1);
+
+        streaming = true;
+        return this;
+    }
+
+    /**
+     * Sends a new target to the SPARK, does nothing if it's the same as the last one. The gravity
+     * feedforward is worked out for the target angle since it's only sent along with the target.
+     * @param degrees the target angle
+     */
+    public void setTarget(double degrees) {
+        if (degrees == target) return;
+        target = degrees;
+
+        pid.setReference(degrees, ControlType.kSmartMotion, 0, gravity(degrees), ArbFFUnits.kPercentOut);
+    }
+
+    /**
+     * Sends one sample of a trajectory to the position loop, call this every loop while following.
+     * Needs {@link #withStreaming} first.
+     * @param degrees the angle the trajectory is at
+     * @param velocity the velocity the trajectory is moving at (degrees per second)
+     */
+    public void follow(double degrees, double velocity) {
+        if (!streaming) throw new IllegalStateException("Set up the position loop with withStreaming before following");
+        target = degrees;
+
+        double feedforward = velocityFeedforward * velocity + gravity(degrees);
+        pid.setReference(degrees, ControlType.kPosition, 1, feedforward, ArbFFUnits.kPercentOut);
+    }
+
+    /**
+     * @return the power it takes to hold the mechanism at the angle
+     */
+    private double gravity(double degrees) {
+        return gravityPower * Math.cos(Math.toRadians(degrees - horizontalAngle));
+    }
+
+    /**
+     * @return the last target sent to the SPARK (degrees)
+     */
+    public double getTarget() {
+        return target;
+    }
+
+    /**
+     * @return the angle of the mechanism (degrees)
+     */
+    public double getPosition() {
+        return encoder.getPosition();
+    }
+
+    /**
+     * @return true if the mechanism is within tolerance of its target
+     */
+    public boolean atTarget() {
+        return Math.abs(target - encoder.getPosition()) <= tolerance;
+    }
+
+    /**
+     * Stops the motor until the next new target
+     */
+    public void stop() {
+        target = Double.NaN;
+        motor.stopMotor();
+    }
+}
@@ -0,0 +1,366 @@
+package frc.robot.util;
+
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+import edu.wpi.first.networktables.BooleanPublisher;
+import edu.wpi.first.networktables.DoublePublisher;
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.networktables.StructArrayPublisher;
+import edu.wpi.first.networktables.StructPublisher;
+import edu.wpi.first.util.struct.Struct;
+
+/**
+ * Dashboard values without the cost of SmartDashboard. Every key gets a cached publisher
+ * up front, the control loop only stores the latest value, and a background thread does the
+ * actual publishing once per loop. Each key has a max publish rate and values that didn't
+ * change since they were last published are skipped.
+ *
+ * <p>Numbers and booleans go in the SmartDashboard table so dashboards keep working,
+ * structs use the topic name as given.
+ */
+public class Telemetry {
+
+    public static class Constants {
+        /** Publish rate used when a key doesn't ask for one (hz) */
+        public static final double defaultRate = 50;
+    }
+
+    private static Telemetry inst;
+
+    private final NetworkTable dashboardTable = NetworkTableInstance.getDefault().getTable("SmartDashboard");
+    private final CopyOnWriteArrayList<Entry> entries = new CopyOnWriteArrayList<>();
+    private final Thread flushThread;
+
+    private Telemetry() {
+        flushThread = new Thread(this::runFlushThread, "Telemetry");
+        flushThread.setDaemon(true);
+        flushThread.start();
+    }
+
+    /**
+     * @param key The key in the SmartDashboard table
+     * @return A number entry published at the default rate
+     */
+    public NumberEntry number(String key) {
+        return number(key, Constants.defaultRate);
+    }
+
+    /**
+     * @param key The key in the SmartDashboard table
+     * @param rate The most times per second the value gets published
+     * @return A number entry
+     */
+    public NumberEntry number(String key, double rate) {
+        return add(new NumberEntry(dashboardTable.getDoubleTopic(key).publish(), rate));
+    }
+
+    /**
+     * @param key The key in the SmartDashboard table
+     * @return A boolean entry published at the default rate
+     */
+    public BooleanEntry bool(String key) {
+        return bool(key, Constants.defaultRate);
+    }
+
+    /**
+     * @param key The key in the SmartDashboard table
+     * @param rate The most times per second the value gets published
+     * @return A boolean entry
+     */
+    public BooleanEntry bool(String key, double rate) {
+        return add(new BooleanEntry(dashboardTable.getBooleanTopic(key).publish(), rate));
+    }
+
+    /**
+     * @param topic The full name of the topic
+     * @param struct The struct of the type, e.g. {@code Pose2d.struct}
+     * @return A struct entry published at the default rate
+     */
+    public <T> StructEntry<T> struct(String topic, Struct<T> struct) {
+        return struct(topic, struct, Constants.defaultRate);
+    }
+
+    /**
+     * Only use this for immutable types, the value is published from another thread
+     * @param topic The full name of the topic
+     * @param struct The struct of the type, e.g. {@code Pose2d.struct}
+     * @param rate The most times per second the value gets published
+     * @return A struct entry
+     */
+    public <T> StructEntry<T> struct(String topic, Struct<T> struct, double rate) {
+        return add(new StructEntry<>(NetworkTableInstance.getDefault().getStructTopic(topic, struct).publish(), rate));
+    }
+
+    /**
+     * @param topic The full name of the topic
+     * @return A pose entry published at the default rate
+     */
+    public PoseEntry pose(String topic) {
+        return pose(topic, Constants.defaultRate);
+    }
+
+    /**
+     * For poses worked out from numbers every loop, the Pose2d is only created when it gets published
+     * @param topic The full name of the topic
+     * @param rate The most times per second the value gets published
+     * @return A pose entry
+     */
+    public PoseEntry pose(String topic, double rate) {
+        return add(new PoseEntry(NetworkTableInstance.getDefault().getStructTopic(topic, Pose2d.struct).publish(), rate));
+    }
+
+    /**
+     * For module states read as numbers every loop, the states are only created when they get published
+     * @param topic The full name of the topic
+     * @param moduleCount The number of swerve modules
+     * @return A module states entry published at the default rate
+     */
+    public ModuleStatesEntry moduleStates(String topic, int moduleCount) {
+        return add(new ModuleStatesEntry(NetworkTableInstance.getDefault()
+            .getStructArrayTopic(topic, SwerveModuleState.struct).publish(), moduleCount, Constants.defaultRate));
+    }
+
+    private <E extends Entry> E add(E entry) {
+        entries.add(entry);
+        return entry;
+    }
+
+    /**
+     * Wakes up the background thread to publish the latest values, call once at the end of every loop
+     */
+    public void flush() {
+        LockSupport.unpark(flushThread);
+    }
+
+    private void runFlushThread() {
+        while (true) {
+            LockSupport.park(this);
+
+            long now = System.nanoTime();
+            for (int i = 0; i < entries.size(); i++) {
+                entries.get(i).flush(now);
+            }
+        }
+    }
+
+    /**
+     * A single published value, only touched by the flush thread after it's set
+     */
+    private static abstract class Entry {
+        private final long periodNanos;
+        private long lastPublish;
+        private boolean published = false;
+
+        private Entry(double rate) {
+            periodNanos = (long) (1e9 / rate);
+        }
+
+        private void flush(long now) {
+            if (published && now - lastPublish < periodNanos) return;
+
+            if (publishIfChanged()) {
+                lastPublish = now;
+                published = true;
+            }
+        }
+
+        /**
+         * @return true if a new value was published
+         */
+        abstract boolean publishIfChanged();
+    }
+
+    public static class NumberEntry extends Entry {
+        private final DoublePublisher publisher;
+        private volatile double value;
+        private volatile boolean hasValue = false;
+        private double publishedValue;
+        private boolean hasPublished = false;
+
+        private NumberEntry(DoublePublisher publisher, double rate) {
+            super(rate);
+            this.publisher = publisher;
+        }
+
+        /**
+         * @param value The value to publish on the next flush
+         */
+        public void set(double value) {
+            this.value = value;
+            hasValue = true;
+        }
+
+        @Override
+        boolean publishIfChanged() {
+            if (!hasValue) return false;
+
+            double current = value;
+            if (hasPublished && Double.compare(current, publishedValue) == 0) return false;
+
+            publisher.set(current);
+            publishedValue = current;
+            hasPublished = true;
+            return true;
+        }
+    }
+
+    public static class BooleanEntry extends Entry {
+        private final BooleanPublisher publisher;
+        private volatile boolean value;
+        private volatile boolean hasValue = false;
+        private boolean publishedValue;
+        private boolean hasPublished = false;
+
+        private BooleanEntry(BooleanPublisher publisher, double rate) {
+            super(rate);
+            this.publisher = publisher;
+        }
+
+        /**
+         * @param value The value to publish on the next flush
+         */
+        public void set(boolean value) {
+            this.value = value;
+            hasValue = true;
+        }
+
+        @Override
+        boolean publishIfChanged() {
+            if (!hasValue) return false;
+
+            boolean current = value;
+            if (hasPublished && current == publishedValue) return false;
+
+            publisher.set(current);
+            publishedValue = current;
+            hasPublished = true;
+            return true;
+        }
+    }
+
+    public static class StructEntry<T> extends Entry {
+        private final StructPublisher<T> publisher;
+        private volatile T value;
+        private T publishedValue;
+
+        private StructEntry(StructPublisher<T> publisher, double rate) {
+            super(rate);
+            this.publisher = publisher;
+        }
+
+        /**
+         * @param value The value to publish on the next flush, must not be modified afterwards
+         */
+        public void set(T value) {
+            this.value = value;
+        }
+
+        @Override
+        boolean publishIfChanged() {
+            T current = value;
+            if (current == null || current == publishedValue || current.equals(publishedValue)) return false;
+
+            publisher.set(current);
+            publishedValue = current;
+            return true;
+        }
+    }
+
+    public static class PoseEntry extends Entry {
+        private final StructPublisher<Pose2d> publisher;
+        private double x, y, heading;
+        private boolean hasValue = false;
+        private double publishedX, publishedY, publishedHeading;
+        private boolean hasPublished = false;
+
+        private PoseEntry(StructPublisher<Pose2d> publisher, double rate) {
+            super(rate);
+            this.publisher = publisher;
+        }
+
+        /**
+         * @param x The x position to publish on the next flush (meters)
+         * @param y The y position (meters)
+         * @param heading The rotation (radians)
+         */
+        public synchronized void set(double x, double y, double heading) {
+            this.x = x;
+            this.y = y;
+            this.heading = heading;
+            hasValue = true;
+        }
+
+        @Override
+        synchronized boolean publishIfChanged() {
+            if (!hasValue) return false;
+            if (hasPublished && x == publishedX && y == publishedY && heading == publishedHeading) return false;
+
+            publisher.set(new Pose2d(x, y, new Rotation2d(heading)));
+            publishedX = x;
+            publishedY = y;
+            publishedHeading = heading;
+            hasPublished = true;
+            return true;
+        }
+    }
+
+    public static class ModuleStatesEntry extends Entry {
+        private final StructArrayPublisher<SwerveModuleState> publisher;
+        private final double[] speeds, angles;
+        private final double[] publishedSpeeds, publishedAngles;
+        private boolean hasValue = false;
+        private boolean hasPublished = false;
+
+        private ModuleStatesEntry(StructArrayPublisher<SwerveModuleState> publisher, int moduleCount, double rate) {
+            super(rate);
+            this.publisher = publisher;
+            speeds = new double[moduleCount];
+            angles = new double[moduleCount];
+            publishedSpeeds = new double[moduleCount];
+            publishedAngles = new double[moduleCount];
+        }
+
+        /**
+         * @param speeds The drive speed of every module to publish on the next flush (m/s)
+         * @param angles The angle of every module (radians)
+         */
+        public synchronized void set(double[] speeds, double[] angles) {
+            System.arraycopy(speeds, 0, this.speeds, 0, this.speeds.length);
+            System.arraycopy(angles, 0, this.angles, 0, this.angles.length);
+            hasValue = true;
+        }
+
+        @Override
+        synchronized boolean publishIfChanged() {
+            if (!hasValue) return false;
+            if (hasPublished && Arrays.equals(speeds, publishedSpeeds) && Arrays.equals(angles, publishedAngles)) {
+                return false;
+            }
+
+            SwerveModuleState[] states = new SwerveModuleState[speeds.length];
+            for (int i = 0; i < states.length; i++) {
+                states[i] = new SwerveModuleState(speeds[i], new Rotation2d(angles[i]));
+            }
+            publisher.set(states);
+
+            System.arraycopy(speeds, 0, publishedSpeeds, 0, speeds.length);
+            System.arraycopy(angles, 0, publishedAngles, 0, angles.length);
+            hasPublished = true;
+            return true;
+        }
+    }
+
+    /**
+     * @return The telemetry service for the whole robot
+     */
+    public static synchronized Telemetry getInstance() {
+        if (inst == null) inst = new Telemetry();
+        return inst;
+    }
+}
@@ -2,105 +2,143 @@ package frc.robot.vision;
 
 import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.networktables.DoubleArrayPublisher;
+import edu.wpi.first.networktables.DoubleArraySubscriber;
+import edu.wpi.first.networktables.DoubleSubscriber;
 import edu.wpi.first.networktables.NetworkTable;
-import edu.wpi.first.networktables.NetworkTableEntry;
 import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.networktables.PubSubOption;
+import edu.wpi.first.networktables.TimestampedDoubleArray;
 
 public class AprilTagLimelight {
 
+    public static class Constants {
+        /** Frames kept between loops, more than the limelight can publish in one loop */
+        public static final int queueSize = 10;
+    }
+
     private String name;
-    
+
     private NetworkTable table;
-    private NetworkTableEntry botposeEntry;
-    private NetworkTableEntry orientationEntry;
-    private NetworkTableEntry latencyEntry;
-    
-    private double[] poseArray;
-    private Rotation2d rotation;
-    private double posX;
-    private double posY;
+    private DoubleArraySubscriber botposeSubscriber;
+    private DoubleSubscriber latencySubscriber;
+    private DoubleSubscriber captureLatencySubscriber;
+    private DoubleArrayPublisher orientationPublisher;
+
+    private final double[] orientationArray = new double[6];
 
-    private double latency;
+    // Every frame that came in since the last update, parsed into reused frames
+    private final LimelightFrame[] frames = new LimelightFrame[Constants.queueSize];
+    private int frameCount = 0;
+    private final LimelightFrame latestFrame = new LimelightFrame();
 
     public AprilTagLimelight(String name) {
         this.name = name;
         table = NetworkTableInstance.getDefault().getTable(name);
-        resetAlliance();
-    }
 
-    public void resetAlliance() {
-        botposeEntry = table.getEntry("botpose_orb_wpiblue"); // Use the new botpose
-        orientationEntry = table.getEntry("robot_orientation_set"); // 2024.5.0 requires robot orientation
-        latencyEntry = table.getEntry("tl");
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = new LimelightFrame();
+        }
+
+        // Keep every frame (even repeats) so each one gets read exactly once
+        botposeSubscriber = table.getDoubleArrayTopic("botpose_orb_wpiblue").subscribe(new double[0],
+            PubSubOption.keepDuplicates(true), PubSubOption.pollStorage(Constants.queueSize)); // Use the new botpose
+        latencySubscriber = table.getDoubleTopic("tl").subscribe(0);
+        captureLatencySubscriber = table.getDoubleTopic("cl").subscribe(0);
+        orientationPublisher = table.getDoubleArrayTopic("robot_orientation_set").publish(); // 2024.5.0 requires robot orientation
     }
 
     /**
-     * Updates the position of the robot using the aprilTags
+     * The botpose is always blue origin, so there is nothing to switch anymore
+     */
+    public void resetAlliance() {}
+
+    /**
+     * Reads every frame the limelight published since the last call and posts the robot orientation.
+     * Call this once per loop.
      */
     public void updateValues(Rotation2d fieldRotation, double rotationRate) {
-        // Update pose
-        poseArray = botposeEntry.getDoubleArray(new double[6]);
-        if (poseArray.length == 0) poseArray = new double[6];
-        posX = poseArray[0];
-        posY = poseArray[1];
-        rotation = Rotation2d.fromDegrees(poseArray[5]);
-
-        // Update latency
-        latency = latencyEntry.getDouble(0);
-
-        // Post orientation
-        double[] orientationArray = new double[6];
+        // Post orientation, the limelight needs it even when it doesn't see a tag
         orientationArray[0] = fieldRotation.getDegrees();
         orientationArray[1] = rotationRate;
-        orientationArray[2] = 0;
-        orientationArray[3] = 0;
-        orientationArray[4] = 0;
-        orientationArray[5] = 0;
-        orientationEntry.setDoubleArray(orientationArray);
+        orientationPublisher.set(orientationArray);
+
+        double latency = latencySubscriber.get();
+        double captureLatency = captureLatencySubscriber.get();
+        TimestampedDoubleArray[] queue = botposeSubscriber.readQueue();
+
+        // If more frames came in than fit, only the newest ones are kept
+        int start = Math.max(0, queue.length - frames.length);
+        frameCount = 0;
+        for (int i = start; i < queue.length; i++) {
+            frames[frameCount++].set(queue[i].value, queue[i].serverTime, latency, captureLatency);
+        }
+
+        if (frameCount > 0) latestFrame.copy(frames[frameCount - 1]);
     }
 
     public String getName() {
         return name;
     }
 
+    /**
+     * @return The number of frames read in the last update
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @param index The index of the frame, oldest first
+     * @return A frame read in the last update
+     */
+    public LimelightFrame getFrame(int index) {
+        return frames[index];
+    }
+
+    /**
+     * @return The newest frame the limelight has published, even if it was before the last update
+     */
+    public LimelightFrame getLatestFrame() {
+        return latestFrame;
+    }
+
     /**
      * @return The raw latency of the limelight images
      */
     public double getLatency() {
-        return latency;
+        return latestFrame.getPipelineLatency();
     }
 
     /**
-     * @return the x position of the robot relative to the bottom left corner of the field (inches)
+     * @return the x position of the robot relative to the bottom left corner of the field (meters)
      */
     public double getX() {
-        return posX;
+        return latestFrame.getX();
     }
-    
+
     /**
-     * @return the y position of the robot relative to the bottom left corner of the field (inches)
+     * @return the y position of the robot relative to the bottom left corner of the field (meters)
      */
     public double getY() {
-        return posY;
+        return latestFrame.getY();
     }
 
     /**
      * @return the z rotation of the robot (degrees)
      */
     public Rotation2d getRotation() {
-        return rotation;
+        return Rotation2d.fromDegrees(latestFrame.getYaw());
     }
 
     /**
      * @return true if the limelight is detecting an aprilTag, false if it isn't
      */
     public boolean hasTarget() {
-        poseArray = botposeEntry.getDoubleArray(new double[6]);
-        if (poseArray.length == 0 || poseArray[0] == 0) return false;
-        return true;
+        return latestFrame.hasTarget();
     }
 
     public Pose2d getPoseArray() {
-        return new Pose2d(getX(), getY(), getRotation());
+        return latestFrame.toPose();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,136 @@
+package frc.robot.vision;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+
+/**
+ * One botpose frame from a limelight, parsed once into primitives. Frames are pooled by
+ * their limelight and overwritten, so don't keep a reference past the loop it was read in.
+ */
+public class LimelightFrame {
+    private double x;
+    private double y;
+    private double yaw;
+    private double totalLatency;
+    private double pipelineLatency;
+    private double captureLatency;
+    private int tagCount;
+    private double tagDistance;
+    private long serverTime;
+    private boolean hasTarget;
+
+    /**
+     * Parses a botpose array into this frame
+     * @param botpose The raw botpose array
+     * @param serverTime The NT server time the frame was published at (microseconds)
+     * @param pipelineLatency The pipeline latency at the time the frame was read (ms)
+     * @param captureLatency The capture latency at the time the frame was read (ms)
+     */
+    void set(double[] botpose, long serverTime, double pipelineLatency, double captureLatency) {
+        this.serverTime = serverTime;
+        this.pipelineLatency = pipelineLatency;
+        this.captureLatency = captureLatency;
+
+        // An empty array or a pose at the origin means the limelight doesn't see a tag
+        hasTarget = botpose.length >= 6 && botpose[0] != 0;
+        x = botpose.length > 0 ? botpose[0] : 0;
+        y = botpose.length > 1 ? botpose[1] : 0;
+        yaw = botpose.length > 5 ? botpose[5] : 0;
+
+        // Newer limelight firmware adds the total latency and tag count after the pose
+        totalLatency = botpose.length > 6 ? botpose[6] : Double.NaN;
+        tagCount = botpose.length > 7 ? (int) botpose[7] : (hasTarget ? 1 : 0);
+        tagDistance = botpose.length > 9 ? botpose[9] : Double.NaN;
+    }
+
+    /**
+     * Copies another frame into this one
+     */
+    void copy(LimelightFrame other) {
+        x = other.x;
+        y = other.y;
+        yaw = other.yaw;
+        totalLatency = other.totalLatency;
+        pipelineLatency = other.pipelineLatency;
+        captureLatency = other.captureLatency;
+        tagCount = other.tagCount;
+        tagDistance = other.tagDistance;
+        serverTime = other.serverTime;
+        hasTarget = other.hasTarget;
+    }
+
+    /**
+     * @return true if the limelight saw an april tag in this frame
+     */
+    public boolean hasTarget() { return hasTarget; }
+
+    /**
+     * @return The blue origin x position of the robot (meters)
+     */
+    public double getX() { return x; }
+
+    /**
+     * @return The blue origin y position of the robot (meters)
+     */
+    public double getY() { return y; }
+
+    /**
+     * @return The rotation of the robot (degrees)
+     */
+    public double getYaw() { return yaw; }
+
+    /**
+     * @return The capture to publish latency sent with the pose (ms), NaN on older firmware
+     */
+    public double getTotalLatency() { return totalLatency; }
+
+    /**
+     * @return The pipeline latency from the tl entry (ms)
+     */
+    public double getPipelineLatency() { return pipelineLatency; }
+
+    /**
+     * @return The capture latency from the cl entry (ms)
+     */
+    public double getCaptureLatency() { return captureLatency; }
+
+    /**
+     * The total latency is published in the same frame as the pose, so it always matches.
+     * Older firmware only has tl and cl, which are read separately and might be off by a frame.
+     * @return The time from the image being captured to the frame being published (ms)
+     */
+    public double getLatency() {
+        return Double.isNaN(totalLatency) ? pipelineLatency + captureLatency : totalLatency;
+    }
+
+    /**
+     * The server time already includes the network delay, so only the latency
+     * on the limelight itself needs to be taken off
+     * @return The FPGA time the image was captured at (seconds)
+     */
+    public double getCaptureTimestamp() {
+        return serverTime / 1e6 - getLatency() / 1000.0;
+    }
+
+    /**
+     * @return The number of tags used for the pose
+     */
+    public int getTagCount() { return tagCount; }
+
+    /**
+     * @return The average distance from the camera to the tags used (meters), NaN on older firmware
+     */
+    public double getTagDistance() { return tagDistance; }
+
+    /**
+     * @return The NT server time the frame was published at (microseconds)
+     */
+    public long getServerTime() { return serverTime; }
+
+    /**
+     * @return A new pose from the frame
+     */
+    public Pose2d toPose() {
+        return new Pose2d(x, y, Rotation2d.fromDegrees(yaw));
+    }
+}
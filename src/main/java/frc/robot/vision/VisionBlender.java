@@ -8,14 +8,49 @@ import java.util.List;
 import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.geometry.Translation2d;
-import edu.wpi.first.networktables.NetworkTableInstance;
-import edu.wpi.first.networktables.StructPublisher;
 import edu.wpi.first.wpilibj.Timer;
+import frc.robot.subsystems.swerve.positioning.PoseHistory;
+import frc.robot.util.Telemetry;
 
 public class VisionBlender {
-    private HashMap<AprilTagLimelight, StructPublisher<Pose2d>> posePublishers = new HashMap<>();
+
+    public static class Constants {
+        /** Position standard deviation of one tag seen from close up (meters) */
+        public static final double baseStdDev = 0.3;
+        /** How fast the standard deviation grows with the square of the tag distance (1/m^2) */
+        public static final double distanceWeight = 0.1;
+        /** Tag distance used when the limelight doesn't report one (meters) */
+        public static final double defaultTagDistance = 3;
+        /** How fast the standard deviation grows with the yaw rate, motion blur and gyro lag (s/rad) */
+        public static final double yawRateWeight = 0.5;
+
+        /** Position standard deviation of odometry right after a vision reading was accepted (meters) */
+        public static final double predictionStdDev = 0.15;
+        /** How fast the odometry variance grows without vision readings (m^2/s) */
+        public static final double driftRate = 0.05;
+        /** Chi-square limit for the position error with 2 degrees of freedom, rejects 1% of good readings */
+        public static final double gateThreshold = 9.21;
+
+        /** Readings captured this close together are merged into one measurement (seconds) */
+        public static final double fusionWindow = 0.015;
+    }
+
+    private HashMap<AprilTagLimelight, Telemetry.StructEntry<Pose2d>> posePublishers = new HashMap<>();
     private ArrayList<AprilTagLimelight> limelights = new ArrayList<>();
 
+    // Readings from the last update, backed by a pool so they aren't created every loop
+    private ArrayList<VisionReading> readings = new ArrayList<>();
+    private ArrayList<VisionReading> readingPool = new ArrayList<>();
+
+    // Odometry history used to check readings against and to line up readings from different times
+    private PoseHistory poseHistory;
+    private PoseHistory.Sample sample;
+    private PoseHistory.Sample referenceSample;
+
+    // Written by the main loop on a pose reset, read by whichever thread updates the blender
+    private volatile double lastAcceptedTimestamp = Double.NEGATIVE_INFINITY;
+    private volatile long rejectedCount = 0;
+
     /**
      * Creates a new vision blender from a list of limelights
      */
@@ -23,8 +58,8 @@ public class VisionBlender {
         this.limelights.addAll(limelights);
 
         for (AprilTagLimelight limelight : limelights) {
-            posePublishers.put(limelight, NetworkTableInstance.getDefault()
-                .getStructTopic("VisionPose-" + limelight.getName(), Pose2d.struct).publish());
+            posePublishers.put(limelight, Telemetry.getInstance()
+                .struct("VisionPose-" + limelight.getName(), Pose2d.struct));
         }
     }
 
@@ -41,6 +76,17 @@ public class VisionBlender {
         return limelightList;
     }
 
+    /**
+     * Sets the odometry history readings get checked against and lined up with. Set this before
+     * the blender gets used from another thread. Without one every reading is accepted.
+     * @param poseHistory where the robot has been according to odometry
+     */
+    public void setPoseHistory(PoseHistory poseHistory) {
+        this.poseHistory = poseHistory;
+        this.sample = new PoseHistory.Sample(poseHistory.getModuleCount());
+        this.referenceSample = new PoseHistory.Sample(poseHistory.getModuleCount());
+    }
+
     /**
      * ( ! ) Make sure to call updateValues() regularly for this method to work properly
      * @return The blended pose of all the limelights that are displaying valid poses
@@ -48,29 +94,29 @@ public class VisionBlender {
     public Pose2d getBlendedPose() {
         if (limelights == null || limelights.size() == 0) return null;
 
-        ArrayList<Pose2d> currentPoses = new ArrayList<>(limelights.size());
-
-        // Add all valid vision poses to the list
-        limelights.forEach(limelight -> {
-            if (limelight != null && limelight.hasTarget()) {
-                Pose2d grabbedPose = limelight.getPoseArray();
-                if (grabbedPose != null) currentPoses.add(grabbedPose);
-            }
-        });
+        int poseCount = 0;
+        double x = 0, y = 0;
+        double cos = 0, sin = 0;
 
-        if (currentPoses.size() <= 0) return null;
+        // Average out the newest pose of every limelight that sees a tag
+        for (int i = 0; i < limelights.size(); i++) {
+            LimelightFrame frame = limelights.get(i).getLatestFrame();
+            if (!frame.hasTarget()) continue;
 
-        Translation2d translation = new Translation2d();
-        Rotation2d rotation = new Rotation2d();
+            x += frame.getX();
+            y += frame.getY();
 
-        // Average out all of the limelight poses
-        for (Pose2d pose : currentPoses) {
-            translation = translation.plus(pose.getTranslation());
-            rotation = rotation.plus(pose.getRotation());
+            // Angles are averaged as unit vectors, so 179 and -179 average to 180 instead of 0
+            double yaw = Math.toRadians(frame.getYaw());
+            cos += Math.cos(yaw);
+            sin += Math.sin(yaw);
+            poseCount++;
         }
 
-        translation = translation.div(currentPoses.size());
-        rotation = rotation.div(currentPoses.size());
+        if (poseCount <= 0) return null;
+
+        Translation2d translation = new Translation2d(x / poseCount, y / poseCount);
+        Rotation2d rotation = new Rotation2d(Math.atan2(sin, cos));
 
         // Create a new pose with the averaged values
         return new Pose2d(translation, rotation);
@@ -82,46 +128,158 @@ public class VisionBlender {
     public boolean hasTarget() {
         if (limelights == null || limelights.isEmpty()) return false;
 
-        for (AprilTagLimelight limelight : limelights) {
-            if (limelight.hasTarget()) return true; }
+        for (int i = 0; i < limelights.size(); i++) {
+            if (limelights.get(i).hasTarget()) return true; }
 
         return false;
     }
 
     /**
-     * Grabs and updates the data from each of the limelights
+     * Reads every frame the limelights published since the last update into readings.
+     * Call this once per loop.
      */
     public void updateValues(Rotation2d fieldRotation, double rotationRate) {
+        readings.clear();
         if (limelights == null) return;
-        limelights.forEach(limelight -> {
-            if (limelight.hasTarget()) limelight.updateValues(fieldRotation, rotationRate);
-        });
+
+        for (int i = 0; i < limelights.size(); i++) {
+            AprilTagLimelight limelight = limelights.get(i);
+            limelight.updateValues(fieldRotation, rotationRate);
+
+            for (int frameIndex = 0; frameIndex < limelight.getFrameCount(); frameIndex++) {
+                LimelightFrame frame = limelight.getFrame(frameIndex);
+                if (!frame.hasTarget()) continue;
+
+                // The robot turning while the image was taken blurs it and makes the gyro heading lag
+                double captureRate = rotationRate;
+                if (poseHistory != null && poseHistory.sample(frame.getCaptureTimestamp(), sample)) {
+                    captureRate = sample.getOmega();
+                }
+
+                nextReading().set(frame.getX(), frame.getY(), frame.getPipelineLatency(),
+                    frame.getCaptureTimestamp(), limelight, frame.getTagCount(), frame.getTagDistance(), captureRate);
+            }
+        }
     }
 
     /**
-     * Sets the current botpose entry of the limelights to the correct alliance
+     * Checks a reading against where odometry says the robot was when it was captured. The
+     * odometry uncertainty grows the longer it's been since a reading was accepted, so the
+     * pose can't get stuck rejecting every reading after it drifts. Accepted readings get
+     * merged by {@link #fuse}.
+     * @param reading a reading from the last update
+     * @return true if the reading is consistent with odometry
      */
-    public void resetAlliances() {
-        limelights.forEach(limelight -> limelight.resetAlliance());
+    public boolean gate(VisionReading reading) {
+        reading.accepted = false;
+
+        if (poseHistory != null && poseHistory.sample(reading.timestamp, sample)) {
+            double sinceAccepted = Math.max(0, reading.timestamp - lastAcceptedTimestamp);
+            double predictionVariance = Constants.predictionStdDev * Constants.predictionStdDev
+                + Constants.driftRate * sinceAccepted;
+
+            // Squared Mahalanobis distance, both covariances are treated as the same in x and y
+            double dx = reading.x - sample.getX();
+            double dy = reading.y - sample.getY();
+            double distance = (dx * dx + dy * dy) / (predictionVariance + reading.stdDev * reading.stdDev);
+
+            if (distance > Constants.gateThreshold) {
+                rejectedCount++;
+                return false;
+            }
+        }
+
+        reading.accepted = true;
+        if (reading.timestamp > lastAcceptedTimestamp) lastAcceptedTimestamp = reading.timestamp;
+        return true;
     }
 
     /**
-     * @return A list of all the semi-valid readings from the limelights that are
-     * currently seeing april tags
+     * Merges the accepted readings into measurements. Readings captured within the fusion window
+     * are moved to the newest capture time along the odometry, then averaged weighted by the
+     * inverse of their variance.
+     * @param queue the queue to add the measurements to
+     * @param rotation the rotation of the robot (radians)
+     * @return the number of measurements added
      */
-    public ArrayList<VisionReading> getReadings() {
-        ArrayList<VisionReading> readings = new ArrayList<>();
+    public int fuse(VisionMeasurementQueue queue, double rotation) {
+        int measurements = 0;
+
+        for (int i = 0; i < readings.size(); i++) {
+            VisionReading first = readings.get(i);
+            if (!first.accepted) continue;
+
+            // The group is every accepted reading close enough to the first one
+            double timestamp = first.timestamp;
+            for (int j = i + 1; j < readings.size(); j++) {
+                VisionReading other = readings.get(j);
+                if (other.accepted && Math.abs(other.timestamp - first.timestamp) <= Constants.fusionWindow) {
+                    timestamp = Math.max(timestamp, other.timestamp);
+                }
+            }
 
-        limelights.forEach(limelight -> {
-            if (!limelight.hasTarget()) return;
+            boolean canShift = poseHistory != null && poseHistory.sample(timestamp, referenceSample);
+
+            double weight = 0, x = 0, y = 0;
+            for (int j = i; j < readings.size(); j++) {
+                VisionReading reading = readings.get(j);
+                if (!reading.accepted || Math.abs(reading.timestamp - first.timestamp) > Constants.fusionWindow) continue;
+                reading.accepted = false;
+
+                // Move the reading by how far odometry moved between its capture and the group's
+                double shiftX = 0, shiftY = 0;
+                if (canShift && poseHistory.sample(reading.timestamp, sample)) {
+                    shiftX = referenceSample.getX() - sample.getX();
+                    shiftY = referenceSample.getY() - sample.getY();
+                }
+
+                double readingWeight = 1 / (reading.stdDev * reading.stdDev);
+                weight += readingWeight;
+                x += (reading.x + shiftX) * readingWeight;
+                y += (reading.y + shiftY) * readingWeight;
+            }
 
-            Pose2d visionPose = limelight.getPoseArray();
-            if (visionPose == null) return;
+            queue.offer(x / weight, y / weight, rotation, timestamp, Math.sqrt(1 / weight));
+            measurements++;
+        }
 
-            readings.add(new VisionReading(visionPose.getX(), visionPose.getY(),
-                limelight.getLatency(), limelight));
-        });
+        return measurements;
+    }
 
+    /**
+     * Accepts the next reading no matter how far it is from odometry, call this when the pose gets reset
+     */
+    public void resetGate() {
+        lastAcceptedTimestamp = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * @return The number of readings thrown out for disagreeing with odometry
+     */
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    private VisionReading nextReading() {
+        if (readings.size() == readingPool.size()) readingPool.add(new VisionReading());
+
+        VisionReading reading = readingPool.get(readings.size());
+        readings.add(reading);
+        return reading;
+    }
+
+    /**
+     * Sets the current botpose entry of the limelights to the correct alliance
+     */
+    public void resetAlliances() {
+        limelights.forEach(limelight -> limelight.resetAlliance());
+    }
+
+    /**
+     * The list and readings are reused, they're only valid until the next update
+     * @return Every frame from the last update where a limelight saw april tags
+     */
+    public ArrayList<VisionReading> getReadings() {
         return readings;
     }
 
@@ -132,7 +290,7 @@ public class VisionBlender {
      */
     public void postLimelightPose(Pose2d visionPose, AprilTagLimelight limelight) {
         if (!posePublishers.containsKey(limelight)) return;
-        StructPublisher<Pose2d> publisher = posePublishers.get(limelight);
+        Telemetry.StructEntry<Pose2d> publisher = posePublishers.get(limelight);
         publisher.set(visionPose);
     }
 
@@ -143,24 +301,80 @@ public class VisionBlender {
         // TODO tune this better
         private static final double LATENCY_CUTOFF = 84.0;
 
-        private final double x, y;
-        private final double latency;
-        private final AprilTagLimelight limelight;
+        private double x, y;
+        private double latency;
+        private double timestamp;
+        private AprilTagLimelight limelight;
+        private int tagCount;
+        private double tagDistance;
+        private double stdDev;
+        private boolean accepted;
 
-        public VisionReading(double x, double y, double latency, AprilTagLimelight limelight) {
+        private VisionReading() {}
+
+        public VisionReading(double x, double y, double latency, double timestamp, AprilTagLimelight limelight) {
+            set(x, y, latency, timestamp, limelight, 1, Double.NaN, 0);
+        }
+
+        private void set(double x, double y, double latency, double timestamp, AprilTagLimelight limelight,
+                int tagCount, double tagDistance, double rotationRate) {
             this.x = x; this.y = y;
             this.latency = latency;
+            this.timestamp = timestamp;
             this.limelight = limelight;
+            this.tagCount = tagCount;
+            this.tagDistance = tagDistance;
+            this.accepted = false;
+
+            // Error grows with distance squared and shrinks with more tags seen at once
+            double distance = Double.isNaN(tagDistance) ? Constants.defaultTagDistance : tagDistance;
+            stdDev = Constants.baseStdDev * (1 + Constants.distanceWeight * distance * distance)
+                / Math.sqrt(Math.max(1, tagCount)) * (1 + Constants.yawRateWeight * Math.abs(rotationRate));
+        }
+
+        /**
+         * Moves the reading, used for a fixed offset on every vision pose
+         */
+        void translate(double dx, double dy) {
+            x += dx;
+            y += dy;
         }
 
         public double getX() { return x; }
         public double getY() { return y; }
 
         public double getLatency() { return latency; }
+
+        /**
+         * @return The number of april tags used for the pose
+         */
+        public int getTagCount() { return tagCount; }
+
+        /**
+         * @return The average distance to the tags used (meters), NaN if the limelight didn't report it
+         */
+        public double getTagDistance() { return tagDistance; }
+
+        /**
+         * @return How far off the position is expected to be (meters)
+         */
+        public double getStdDev() { return stdDev; }
+
         
         public AprilTagLimelight getLimelight() { return limelight; }
 
+        /**
+         * @return The FPGA time the image was captured at (seconds)
+         */
         public double getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * The old way of timestamping readings, only kept to compare against
+         * @return The current time minus the pipeline latency (seconds)
+         */
+        public double getPipelineTimestamp() {
             return Timer.getFPGATimestamp() - latency / 1000.0;
         }
 
@@ -0,0 +1,121 @@
+package frc.robot.vision;
+
+/**
+ * A lock free queue of vision measurements for exactly one producer thread and one consumer
+ * thread. The measurements are stored in preallocated primitive arrays so nothing is created
+ * while the robot is running. If the queue is full new measurements are dropped.
+ */
+public class VisionMeasurementQueue {
+    private final int mask;
+    private final double[] x;
+    private final double[] y;
+    private final double[] rotation;
+    private final double[] timestamp;
+    private final double[] stdDev;
+
+    // Only the consumer writes head and only the producer writes tail
+    private volatile long head = 0;
+    private volatile long tail = 0;
+    private volatile long dropped = 0;
+
+    /**
+     * @param capacity The most measurements the queue can hold, rounded up to a power of two
+     */
+    public VisionMeasurementQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        mask = size - 1;
+
+        x = new double[size];
+        y = new double[size];
+        rotation = new double[size];
+        timestamp = new double[size];
+        stdDev = new double[size];
+    }
+
+    /**
+     * Adds a measurement, only call this from the producer thread
+     * @param x The blue origin x position (meters)
+     * @param y The blue origin y position (meters)
+     * @param rotation The rotation of the robot (radians)
+     * @param timestamp The FPGA time the measurement was taken at (seconds)
+     * @param stdDev How far off the position is expected to be (meters)
+     * @return false if the queue was full and the measurement was dropped
+     */
+    public boolean offer(double x, double y, double rotation, double timestamp, double stdDev) {
+        long currentTail = tail;
+        if (currentTail - head > mask) {
+            dropped++;
+            return false;
+        }
+
+        int index = (int) (currentTail & mask);
+        this.x[index] = x;
+        this.y[index] = y;
+        this.rotation[index] = rotation;
+        this.timestamp[index] = timestamp;
+        this.stdDev[index] = stdDev;
+
+        // Publishing the new tail makes the writes above visible to the consumer
+        tail = currentTail + 1;
+        return true;
+    }
+
+    /**
+     * Takes the oldest measurement out of the queue, only call this from the consumer thread
+     * @param output The measurement to copy the values into
+     * @return false if the queue was empty
+     */
+    public boolean poll(Measurement output) {
+        long currentHead = head;
+        if (currentHead == tail) return false;
+
+        int index = (int) (currentHead & mask);
+        output.x = x[index];
+        output.y = y[index];
+        output.rotation = rotation[index];
+        output.timestamp = timestamp[index];
+        output.stdDev = stdDev[index];
+
+        head = currentHead + 1;
+        return true;
+    }
+
+    /**
+     * @return The number of measurements waiting in the queue
+     */
+    public int size() {
+        return (int) (tail - head);
+    }
+
+    /**
+     * @return The number of measurements dropped because the queue was full
+     */
+    public long getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * A reusable holder for a measurement taken out of the queue
+     */
+    public static class Measurement {
+        private double x, y, rotation, timestamp, stdDev;
+
+        public double getX() { return x; }
+        public double getY() { return y; }
+
+        /**
+         * @return The rotation of the robot (radians)
+         */
+        public double getRotation() { return rotation; }
+
+        /**
+         * @return The FPGA time the measurement was taken at (seconds)
+         */
+        public double getTimestamp() { return timestamp; }
+
+        /**
+         * @return How far off the position is expected to be (meters)
+         */
+        public double getStdDev() { return stdDev; }
+    }
+}
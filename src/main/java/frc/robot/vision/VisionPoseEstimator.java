@@ -1,91 +1,223 @@
 package frc.robot.vision;
 
-import edu.wpi.first.math.VecBuilder;
-import edu.wpi.first.math.Vector;
-import edu.wpi.first.math.estimator.SwerveDrivePoseEstimator;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.ReentrantLock;
+
 import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.geometry.Translation2d;
-import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
 import edu.wpi.first.math.kinematics.SwerveModulePosition;
-import edu.wpi.first.math.numbers.N3;
 import edu.wpi.first.math.util.Units;
 import edu.wpi.first.wpilibj.Timer;
-import frc.robot.vision.VisionBlender.VisionReading;
+import frc.robot.subsystems.swerve.SwerveStateBuffer;
+import frc.robot.subsystems.swerve.positioning.PoseHistory;
+import frc.robot.subsystems.swerve.positioning.SwervePoseEstimator;
+import frc.robot.util.LoopProfiler;
+import frc.robot.util.Telemetry;
 
 public class VisionPoseEstimator {
 
     public static class Constants {
         /** Standard deviation for the module states pose. <p>
             Increase these values to put less trust in the pose */
-        private static final Vector<N3> stateStdDevs = VecBuilder.fill(
+        private static final double[] stateStdDevs = {
             0.05, // Meters
             0.05, // Meters
             Units.degreesToRadians(5) // Radians
-        );
+        };
 
         /** Standard deviation for the limelight(s) pose. <p>
-            Increase these values to put less trust in the pose */
-        private static final Vector<N3> visionStdDevs = VecBuilder.fill(
+            Increase these values to put less trust in the pose. <p>
+            Only the heading is used for measurements from the vision worker, which work out their own position trust */
+        private static final double[] visionStdDevs = {
             0.8, // Meters
             0.8, // Meters
             Units.degreesToRadians(20) // Radians
-        );
+        };
 
         /** Offsets the position of the received vision poses. */
         private static final Translation2d poseOffset = new Translation2d(0, 0);
+
+        /** Most vision measurements added in one loop, any extra wait for the next loop.
+            Keeps the loop time bounded if the cameras get ahead of it. */
+        private static final int maxMeasurementsPerLoop = 4;
     }
 
-    public SwerveDrivePoseEstimator poseEstimator;
+    private SwervePoseEstimator poseEstimator;
     public VisionBlender visionBlender;
 
+    private PoseHistory poseHistory;
+
+    // The odometry thread and the main loop both touch the estimator, so every call into it is locked
+    private final ReentrantLock estimatorLock = new ReentrantLock();
+    // Latest estimate, published with a sequence lock after every update so readers never wait on
+    // the estimator lock and no pose has to be created for each sample. The sequence is odd while
+    // the estimate is being written.
+    private volatile int poseSequence = 0;
+    private double poseX, poseY, poseHeading;
+    // Odometry samples from before the last reset have the old module distances
+    private double resetTimestamp = Double.NEGATIVE_INFINITY;
+    // Only used by update, which is given module positions
+    private final double[] moduleDistances, moduleAngles;
+
+    // Reads the limelights in the background and hands over finished measurements
+    private final VisionWorker visionWorker;
+    private final VisionMeasurementQueue.Measurement measurement = new VisionMeasurementQueue.Measurement();
+
+    private final LoopProfiler.Stage visionStage = LoopProfiler.getInstance().stage("Vision");
+    private final Telemetry.NumberEntry rejectedEntry = Telemetry.getInstance().number("Vision Rejected");
+
     /**
      * Creates a new vision-blended swerve pose estimator
-     * @param kinematics kinematics of the swerve drivetrain
+     * @param moduleLocations locations of the modules relative to the center of the robot
      * @param gyroAngle the current angle of the gyro
      * @param modulePositions the current positions of the modules
      * @param visionBlender the vision blender to use for AprilTag data
      */
-    public VisionPoseEstimator(SwerveDriveKinematics kinematics, Rotation2d gyroAngle,
+    public VisionPoseEstimator(Translation2d[] moduleLocations, Rotation2d gyroAngle,
             SwerveModulePosition[] modulePositions, VisionBlender visionBlender) {
 
         this.visionBlender = visionBlender;
-        this.poseEstimator = new SwerveDrivePoseEstimator(kinematics, gyroAngle, modulePositions,
-            new Pose2d(), Constants.stateStdDevs, Constants.visionStdDevs);
+        this.moduleDistances = new double[modulePositions.length];
+        this.moduleAngles = new double[modulePositions.length];
+        this.visionWorker = new VisionWorker(visionBlender, Constants.poseOffset);
+        this.poseEstimator = new SwervePoseEstimator(new SwerveStateBuffer(moduleLocations),
+            Constants.stateStdDevs, Constants.visionStdDevs);
+        this.poseEstimator.reset(gyroAngle.getRadians(), modulePositions, 0, 0, 0);
+        publishPose();
+    }
+
+    /**
+     * @param poseHistory where every odometry sample's pose gets recorded
+     */
+    public void setPoseHistory(PoseHistory poseHistory) {
+        this.poseHistory = poseHistory;
+    }
+
+    /**
+     * Starts reading the limelights on a background thread. Until this is called
+     * the limelights are read on the main loop.
+     */
+    public void startVisionWorker() {
+        if (!visionWorker.isAlive()) visionWorker.start();
     }
 
     /**
      * Updates the pose estimator with valid vision values and the current swerve module positions
      * @param fieldGyroAngle the measured angle of the gyro
      * @param modulePositions the current positions of the swerve modules
+     * @param moduleSpeeds the drive speed of every module (m/s)
      */
-    public void update(Rotation2d fieldGyroAngle, SwerveModulePosition[] modulePositions) {
-        poseEstimator.updateWithTime(Timer.getFPGATimestamp(), fieldGyroAngle, modulePositions);
-
-        if (!shouldUseVision()) return;
+    public void update(Rotation2d fieldGyroAngle, SwerveModulePosition[] modulePositions, double[] moduleSpeeds) {
+        for (int i = 0; i < modulePositions.length; i++) {
+            moduleDistances[i] = modulePositions[i].distanceMeters;
+            moduleAngles[i] = modulePositions[i].angle.getRadians();
+        }
+        updateOdometry(Timer.getFPGATimestamp(), fieldGyroAngle.getRadians(), moduleDistances, moduleAngles,
+            moduleSpeeds);
+        updateVision(fieldGyroAngle);
+    }
 
-        visionBlender.updateValues(fieldGyroAngle, 0);
-        if (!visionBlender.hasTarget()) return;
+    /**
+     * Adds a single odometry sample to the estimator, and its pose to the pose history if there
+     * is one. Samples taken before the last reset are ignored. Safe to call from the odometry
+     * thread, and creates no objects.
+     * @param timestamp the FPGA time the sample was taken at in seconds
+     * @param fieldHeading the measured field perspective angle of the gyro in radians
+     * @param moduleDistances the drive distance of every module at the timestamp (meters)
+     * @param moduleAngles the angle of every module at the timestamp (radians)
+     * @param moduleSpeeds the drive speed of every module at the timestamp (m/s)
+     */
+    public void updateOdometry(double timestamp, double fieldHeading, double[] moduleDistances,
+            double[] moduleAngles, double[] moduleSpeeds) {
+        estimatorLock.lock();
+        try {
+            // The odometry thread can read the modules just before a reset and add the sample after it
+            if (timestamp <= resetTimestamp) return;
+
+            poseEstimator.update(timestamp, fieldHeading, moduleDistances, moduleAngles);
+            publishPose();
+
+            if (poseHistory != null) {
+                poseHistory.add(timestamp, poseEstimator.getX(), poseEstimator.getY(), poseEstimator.getHeading(),
+                    moduleSpeeds);
+            }
+        } finally {
+            estimatorLock.unlock();
+        }
+    }
 
-        for (VisionReading reading : visionBlender.getReadings()) {
-            // Create the vision pose
-            Pose2d visionPose = new Pose2d(reading.getX() + Constants.poseOffset.getX(),
-                reading.getY() + Constants.poseOffset.getY(), fieldGyroAngle);
+    /**
+     * Adds any valid vision readings to the estimator
+     * @param fieldGyroAngle the measured angle of the gyro
+     */
+    public void updateVision(Rotation2d fieldGyroAngle) {
+        visionStage.start();
+        addVisionMeasurements(fieldGyroAngle);
+        visionStage.stop();
+    }
 
-            // Ignore invalid vision readings
-            if (!reading.isInField() || !reading.isRecent()) continue;
+    private void addVisionMeasurements(Rotation2d fieldGyroAngle) {
+        if (!shouldUseVision()) return;
 
-            // Contribute the pose to the estimator
-            visionBlender.postLimelightPose(visionPose, reading.getLimelight());
-            poseEstimator.addVisionMeasurement(visionPose, reading.getTimestamp());
+        visionWorker.setFieldRotation(fieldGyroAngle);
+
+        // Without the background thread the frames have to be processed here
+        if (!visionWorker.isAlive()) visionWorker.processFrames();
+
+        VisionMeasurementQueue queue = visionWorker.getQueue();
+        for (int i = 0; i < Constants.maxMeasurementsPerLoop && queue.poll(measurement); i++) {
+            estimatorLock.lock();
+            try {
+                if (poseEstimator.addVisionMeasurement(measurement.getX(), measurement.getY(),
+                        measurement.getRotation(), measurement.getTimestamp(), measurement.getStdDev(),
+                        measurement.getStdDev(), Constants.visionStdDevs[2])) {
+                    publishPose();
+                }
+            } finally {
+                estimatorLock.unlock();
+            }
         }
+
+        rejectedEntry.set(visionBlender.getRejectedCount());
     }
 
     /**
-     * @return the current estimated position
+     * Never waits on the estimator lock, even while the odometry thread is updating the estimator
+     * @return the current estimated position, created for this call
      */
     public Pose2d grabEstimatedPose() {
-        return poseEstimator.getEstimatedPosition();
+        double x, y, heading;
+        int sequence;
+
+        // Read again if a write started before or during the read
+        while (true) {
+            sequence = poseSequence;
+            x = poseX;
+            y = poseY;
+            heading = poseHeading;
+            VarHandle.loadLoadFence();
+
+            if ((sequence & 1) == 0 && sequence == poseSequence) break;
+            Thread.onSpinWait();
+        }
+
+        return new Pose2d(x, y, new Rotation2d(heading));
+    }
+
+    /**
+     * Publishes the estimator's pose to readers, only call this while holding the estimator lock
+     */
+    private void publishPose() {
+        int sequence = poseSequence;
+        poseSequence = sequence + 1;
+        VarHandle.storeStoreFence();
+
+        poseX = poseEstimator.getX();
+        poseY = poseEstimator.getY();
+        poseHeading = poseEstimator.getHeading();
+
+        poseSequence = sequence + 2;
     }
 
     /**
@@ -103,6 +235,17 @@ public class VisionPoseEstimator {
      * @param modulePositions the current positions of the modules
      */
     public void resetPosition(Rotation2d rotation, Pose2d pose2d, SwerveModulePosition[] modulePositions) {
-        poseEstimator.resetPosition(rotation, modulePositions, pose2d);
+        estimatorLock.lock();
+        try {
+            poseEstimator.reset(rotation.getRadians(), modulePositions, pose2d.getX(), pose2d.getY(),
+                pose2d.getRotation().getRadians());
+            resetTimestamp = Timer.getFPGATimestamp();
+            publishPose();
+        } finally {
+            estimatorLock.unlock();
+        }
+
+        // The old pose could be anywhere, so don't judge vision against it
+        visionBlender.resetGate();
     }
 }
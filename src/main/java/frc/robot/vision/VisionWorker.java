@@ -0,0 +1,130 @@
+package frc.robot.vision;
+
+import java.util.ArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.util.datalog.DoubleLogEntry;
+import edu.wpi.first.wpilibj.DataLogManager;
+import frc.robot.vision.VisionBlender.VisionReading;
+
+/**
+ * A background thread that does all of the limelight work: reading the frames, throwing out
+ * the bad ones and building the measurements. Finished measurements go into a queue that the
+ * main loop drains into the pose estimator, so the main loop never parses anything itself.
+ *
+ * <p>Once this is started the vision blender belongs to this thread.
+ */
+public class VisionWorker extends Thread {
+
+    public static class Constants {
+        /** Time between checks for new frames (seconds), readings are timestamped so this only adds delay */
+        public static final double period = 0.005;
+        /** Measurements that can wait in the queue */
+        public static final int queueSize = 32;
+        /** Logs how far the old pipeline latency timestamps are from the capture timestamps */
+        public static final boolean measureTimestamps = false;
+    }
+
+    private final VisionBlender visionBlender;
+    private final VisionMeasurementQueue queue = new VisionMeasurementQueue(Constants.queueSize);
+    private final Translation2d poseOffset;
+
+    // Written by the main loop every loop
+    private volatile Rotation2d fieldRotation = new Rotation2d();
+
+    private volatile boolean running = true;
+
+    private DoubleLogEntry timestampErrorLog;
+
+    /**
+     * Creates the worker. Call {@code start()} to process frames in the background,
+     * or call {@link #processFrames()} directly to do it on the calling thread.
+     * @param visionBlender the limelights to read from
+     * @param poseOffset offset added to every vision pose
+     */
+    public VisionWorker(VisionBlender visionBlender, Translation2d poseOffset) {
+        this.visionBlender = visionBlender;
+        this.poseOffset = poseOffset;
+
+        setName("Vision");
+        setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+        long periodNanos = (long) (Constants.period * 1e9);
+
+        while (running) {
+            processFrames();
+            LockSupport.parkNanos(periodNanos);
+        }
+    }
+
+    /**
+     * Reads every new frame from the limelights, throws out the bad ones and queues up the
+     * rest merged by capture time
+     */
+    public void processFrames() {
+        Rotation2d rotation = fieldRotation;
+
+        // Only frames that saw a target become readings. The latest frame can miss the tags
+        // while earlier frames in the same batch saw them, so don't check the limelights here.
+        visionBlender.updateValues(rotation, 0);
+
+        ArrayList<VisionReading> readings = visionBlender.getReadings();
+        if (readings.isEmpty()) return;
+
+        for (int i = 0; i < readings.size(); i++) {
+            VisionReading reading = readings.get(i);
+            reading.translate(poseOffset.getX(), poseOffset.getY());
+
+            // Ignore invalid vision readings
+            if (!reading.isInField() || !reading.isRecent()) continue;
+
+            visionBlender.postLimelightPose(new Pose2d(reading.getX(), reading.getY(), rotation), reading.getLimelight());
+
+            if (Constants.measureTimestamps) logTimestampError(reading);
+
+            // Ignore readings too far from where odometry says the robot was
+            visionBlender.gate(reading);
+        }
+
+        visionBlender.fuse(queue, rotation.getRadians());
+    }
+
+    /**
+     * Logs the old timestamp minus the capture timestamp of a reading in milliseconds
+     */
+    private void logTimestampError(VisionReading reading) {
+        if (timestampErrorLog == null) {
+            timestampErrorLog = new DoubleLogEntry(DataLogManager.getLog(), "Vision/Timestamp Error", "ms");
+        }
+
+        timestampErrorLog.append((reading.getPipelineTimestamp() - reading.getTimestamp()) * 1000.0);
+    }
+
+    /**
+     * Sets the rotation used for the vision poses and sent to the limelights
+     * @param fieldRotation the field perspective rotation of the robot
+     */
+    public void setFieldRotation(Rotation2d fieldRotation) {
+        this.fieldRotation = fieldRotation;
+    }
+
+    /**
+     * @return The queue of finished measurements, only the main loop may take from it
+     */
+    public VisionMeasurementQueue getQueue() {
+        return queue;
+    }
+
+    /**
+     * Stops the thread after its current pass
+     */
+    public void stopProcessing() {
+        running = false;
+    }
+}
@@ -0,0 +1,181 @@
+package frc.robot;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.wpilibj.simulation.DriverStationSim;
+import edu.wpi.first.wpilibj.simulation.XboxControllerSim;
+import edu.wpi.first.wpilibj2.command.Command;
+import edu.wpi.first.wpilibj2.command.CommandScheduler;
+
+/**
+ * Runs teleop the way Robot does, with simulated controllers, and checks steady state teleop
+ * doesn't allocate more while driving, doesn't build or schedule new commands every loop, and
+ * doesn't bind its triggers again when it's enabled again
+ */
+class TeleopAllocationTest {
+    private static final int LOOPS = 500;
+    private static final int PRESSES = 20;
+
+    /**
+     * Driving may allocate this much more per loop than sitting still (bytes). Building a single
+     * command is well over this, its constructor alone registers it with the SendableRegistry.
+     */
+    private static final long DRIVING_BYTES_PER_LOOP = 128;
+
+    private static final com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // The hardware can only be allocated once, so every test shares one robot
+    private static RobotContainer container;
+    private static XboxControllerSim driver;
+    private static XboxControllerSim operator;
+
+    private static final Set<Command> initialized = Collections.newSetFromMap(new IdentityHashMap<>());
+    private static int initializeCount = 0;
+
+    @BeforeAll
+    static void createRobot() {
+        assertTrue(HAL.initialize(500, 0));
+        DriverStationSim.setEnabled(true);
+        DriverStationSim.setAutonomous(false);
+        DriverStationSim.notifyNewData();
+
+        container = new RobotContainer();
+        driver = new XboxControllerSim(0);
+        operator = new XboxControllerSim(1);
+
+        CommandScheduler.getInstance().onCommandInitialize(command -> {
+            initializeCount++;
+            initialized.add(command);
+        });
+    }
+
+    @BeforeEach
+    void startTeleop() {
+        container.runTeleop();
+        loops(10); // Lets the start commands finish and the default command start
+
+        initializeCount = 0;
+        initialized.clear();
+    }
+
+    @AfterEach
+    void releaseControllers() {
+        driver.setLeftX(0);
+        driver.setLeftY(0);
+        driver.setRightX(0);
+        driver.setLeftTriggerAxis(0);
+        operator.setRightY(0);
+        operator.setAButton(false);
+        loops(1);
+        CommandScheduler.getInstance().cancelAll();
+    }
+
+    @Test
+    void drivingSchedulesNoCommands() {
+        // Both drive sticks and the operator's roller stick held over, which used to schedule
+        // a new roller command every loop
+        driver.setLeftX(0.6);
+        driver.setLeftY(-0.4);
+        driver.setRightX(0.5);
+        operator.setRightY(0.8);
+        loops(LOOPS);
+
+        assertEquals(0, initializeCount, "Commands started while only driving: " + initialized);
+    }
+
+    @Test
+    void drivingAllocatesNoMoreThanSittingStill() {
+        // Sticks released, same loops as driving otherwise
+        double idle = allocatedPerLoop();
+
+        driver.setLeftX(0.6);
+        driver.setLeftY(-0.4);
+        driver.setRightX(0.5);
+        operator.setRightY(0.8);
+        loops(10);
+        double driving = allocatedPerLoop();
+
+        assertTrue(driving - idle < DRIVING_BYTES_PER_LOOP,
+            "Driving allocated " + driving + " bytes per loop, sitting still " + idle);
+    }
+
+    @Test
+    void enablingAgainAddsNoTriggers() {
+        int triggers = container.teleop.getTriggerCount();
+        assertTrue(triggers > 0);
+
+        container.runTeleop();
+        container.runTeleop();
+        loops(10);
+
+        assertEquals(triggers, container.teleop.getTriggerCount());
+    }
+
+    @Test
+    void buttonsReuseTheirCommands() {
+        // Every later press is compared to the commands the first one started
+        pressAndRelease();
+        Set<Command> firstPress = Collections.newSetFromMap(new IdentityHashMap<>());
+        firstPress.addAll(initialized);
+        assertFalse(firstPress.isEmpty());
+
+        for (int press = 1; press < PRESSES; press++) {
+            initialized.clear();
+            pressAndRelease();
+
+            for (Command command : initialized) {
+                assertTrue(firstPress.contains(command), "Press " + press + " started a new command " + command);
+            }
+        }
+    }
+
+    /**
+     * Presses and releases the operator's arm roller button and the driver's slow trigger
+     */
+    private static void pressAndRelease() {
+        operator.setAButton(true);
+        driver.setLeftTriggerAxis(1);
+        loops(5);
+
+        operator.setAButton(false);
+        driver.setLeftTriggerAxis(0);
+        loops(5);
+    }
+
+    /**
+     * @return the average bytes this thread allocated per loop over {@code LOOPS} loops
+     */
+    private static double allocatedPerLoop() {
+        loops(LOOPS); // Warms up the JIT so escape analysis is the same for both measurements
+
+        long before = threads.getCurrentThreadAllocatedBytes();
+        loops(LOOPS);
+        return (threads.getCurrentThreadAllocatedBytes() - before) / (double) LOOPS;
+    }
+
+    /**
+     * Runs teleop loops in the same order as Robot
+     */
+    private static void loops(int count) {
+        for (int i = 0; i < count; i++) {
+            DriverStationSim.notifyNewData();
+            container.updateRobotState();
+            container.teleop.periodic();
+            CommandScheduler.getInstance().run();
+        }
+    }
+}
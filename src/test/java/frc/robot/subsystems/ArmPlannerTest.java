@@ -0,0 +1,143 @@
+package frc.robot.subsystems;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import frc.robot.subsystems.ArmSubsystem.ArmPose;
+import frc.robot.subsystems.ArmSubsystem.Constants;
+
+class ArmPlannerTest {
+    private static final double DT = ArmPlanner.Constants.dt;
+
+    private final ArmPlanner planner = new ArmPlanner(Constants.ARM_MAX_VELOCITY, Constants.ARM_MAX_ACCELERATION,
+        Constants.WRIST_MAX_VELOCITY, Constants.WRIST_MAX_ACCELERATION, Constants.KEEP_OUT_ARM_MIN,
+        Constants.KEEP_OUT_ARM_MAX, Constants.KEEP_OUT_WRIST_MIN, Constants.KEEP_OUT_WRIST_MAX, Constants.KEEP_OUT_MARGIN);
+
+    @Test
+    void homeToAmpRoundsTheCorner() {
+        // The arm reaches the corner (152) at 0.791s on its own profile, the wrist reaches it
+        // (248) 0.235s into its profile, so the wrist starts at 0.556s and takes 0.962s
+        assertDuration(1.518, plan(ArmPose.HOME, ArmPose.AMP));
+        assertDuration(1.518, plan(ArmPose.AMP, ArmPose.HOME));
+    }
+
+    @Test
+    void homeToTrapRoundsTheCorner() {
+        // Arm at the corner at 0.745s, wrist 0.235s into its 1.079s profile
+        assertDuration(1.589, plan(ArmPose.HOME, ArmPose.TRAP));
+        assertDuration(1.589, plan(ArmPose.TRAP, ArmPose.HOME));
+    }
+
+    @Test
+    void fasterThanStoppingAtTheCorner() {
+        // Profiling each line rest to rest through the corner took 1.85s and 1.97s
+        assertTrue(plan(ArmPose.HOME, ArmPose.AMP).getDuration() < 1.85 - 0.3);
+        assertTrue(plan(ArmPose.HOME, ArmPose.TRAP).getDuration() < 1.97 - 0.3);
+    }
+
+    @Test
+    void movesOutsideTheRegionOverlapFully() {
+        // Neither joint waits, so the move takes as long as the slower joint
+        ArmPlanner.Trajectory trajectory = plan(ArmPose.AMP, ArmPose.EXTEND);
+        double arm = profileTime(ArmPose.EXTEND.arm - ArmPose.AMP.arm, Constants.ARM_MAX_VELOCITY, Constants.ARM_MAX_ACCELERATION);
+        double wrist = profileTime(ArmPose.EXTEND.wrist - ArmPose.AMP.wrist, Constants.WRIST_MAX_VELOCITY,
+            Constants.WRIST_MAX_ACCELERATION);
+        assertEquals(Math.ceil(Math.max(arm, wrist) / DT) * DT, trajectory.getDuration(), 1e-9);
+    }
+
+    @Test
+    void everyMoveStaysClear() {
+        for (ArmPose from : ArmPose.values()) {
+            for (ArmPose to : ArmPose.values()) {
+                ArmPlanner.Trajectory trajectory = plan(from, to);
+                String move = from + " to " + to;
+
+                assertEquals(from.arm, trajectory.getArm(0), 1e-9, move);
+                assertEquals(from.wrist, trajectory.getWrist(0), 1e-9, move);
+                int last = trajectory.indexAt(trajectory.getDuration());
+                assertTrue(trajectory.isEnd(last), move);
+                assertEquals(to.arm, trajectory.getArm(last), 1e-9, move);
+                assertEquals(to.wrist, trajectory.getWrist(last), 1e-9, move);
+                assertEquals(0, trajectory.getArmVelocity(last), move);
+                assertEquals(0, trajectory.getWristVelocity(last), move);
+
+                assertClear(trajectory, move);
+                assertWithinLimits(trajectory, move);
+            }
+        }
+    }
+
+    @Test
+    void escapesFromInsideTheRegion() {
+        ArmPlanner.Trajectory trajectory = planner.plan(200, 100, ArmPose.AMP.arm, ArmPose.AMP.wrist);
+
+        // Straight up until the wrist is clear, then around
+        for (int i = 0; i < trajectory.indexAt(trajectory.getDuration()); i++) {
+            if (trajectory.getWrist(i) >= Constants.KEEP_OUT_WRIST_MAX) break;
+            assertEquals(200, trajectory.getArm(i), 1e-9);
+        }
+        assertEquals(ArmPose.AMP.wrist, trajectory.getWrist(trajectory.indexAt(trajectory.getDuration())), 1e-9);
+    }
+
+    @Test
+    void rejectsGoalsInsideTheRegion() {
+        assertTrue(planner.isKeepOut(200, 100));
+        assertFalse(planner.isKeepOut(ArmPose.HOME.arm, ArmPose.HOME.wrist));
+        assertThrows(IllegalArgumentException.class, () -> planner.plan(ArmPose.HOME.arm, ArmPose.HOME.wrist, 200, 100));
+    }
+
+    private ArmPlanner.Trajectory plan(ArmPose from, ArmPose to) {
+        return planner.plan(from.arm, from.wrist, to.arm, to.wrist);
+    }
+
+    /**
+     * Allows the two samples of slack the sampling and the delay search can add
+     */
+    private static void assertDuration(double expected, ArmPlanner.Trajectory trajectory) {
+        assertTrue(trajectory.getDuration() <= expected + 2 * DT, "Took " + trajectory.getDuration());
+        assertTrue(trajectory.getDuration() >= expected - DT, "Took " + trajectory.getDuration());
+    }
+
+    /**
+     * The SPARKs get one sample per loop, so the box between two samples must stay out of
+     * the region (without the margin)
+     */
+    private static void assertClear(ArmPlanner.Trajectory trajectory, String move) {
+        int last = trajectory.indexAt(trajectory.getDuration());
+        for (int i = 1; i <= last; i++) {
+            double armLow = Math.min(trajectory.getArm(i - 1), trajectory.getArm(i));
+            double armHigh = Math.max(trajectory.getArm(i - 1), trajectory.getArm(i));
+            double wristLow = Math.min(trajectory.getWrist(i - 1), trajectory.getWrist(i));
+            double wristHigh = Math.max(trajectory.getWrist(i - 1), trajectory.getWrist(i));
+
+            boolean inside = armHigh > Constants.KEEP_OUT_ARM_MIN && armLow < Constants.KEEP_OUT_ARM_MAX
+                && wristHigh > Constants.KEEP_OUT_WRIST_MIN && wristLow < Constants.KEEP_OUT_WRIST_MAX;
+            assertFalse(inside, move + " enters the keep-out region at " + i * DT + "s");
+        }
+    }
+
+    private static void assertWithinLimits(ArmPlanner.Trajectory trajectory, String move) {
+        int last = trajectory.indexAt(trajectory.getDuration());
+        for (int i = 0; i <= last; i++) {
+            assertTrue(Math.abs(trajectory.getArmVelocity(i)) <= Constants.ARM_MAX_VELOCITY + 1e-6, move);
+            assertTrue(Math.abs(trajectory.getWristVelocity(i)) <= Constants.WRIST_MAX_VELOCITY + 1e-6, move);
+
+            if (i == 0) continue;
+            // No joint steps further in a sample than its max velocity allows
+            double armStep = trajectory.getArm(i) - trajectory.getArm(i - 1);
+            double wristStep = trajectory.getWrist(i) - trajectory.getWrist(i - 1);
+            assertTrue(Math.abs(armStep) <= Constants.ARM_MAX_VELOCITY * DT + 1e-6, move);
+            assertTrue(Math.abs(wristStep) <= Constants.WRIST_MAX_VELOCITY * DT + 1e-6, move);
+        }
+    }
+
+    private static double profileTime(double distance, double maxVelocity, double maxAcceleration) {
+        distance = Math.abs(distance);
+        if (maxVelocity * maxVelocity / maxAcceleration > distance) return 2 * Math.sqrt(distance / maxAcceleration);
+        return maxVelocity / maxAcceleration + distance / maxVelocity;
+    }
+}
@@ -0,0 +1,106 @@
+package frc.robot.subsystems.swerve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import frc.robot.subsystems.swerve.positioning.SwervePoseEstimator;
+
+/**
+ * Resets the drive encoders of simulated Falcon modules mid-drive, the way PathPlanner and
+ * perspective resets do, and checks the pose doesn't move
+ */
+class FalconModuleResetTest {
+    private static final double LOOP_TIME = 0.02;
+    /** Rotor rotations each drive motor turns per loop */
+    private static final double ROTOR_STEP = 2;
+
+    private static FalconModule[] modules;
+    private static final SwerveSignals signals = new SwerveSignals();
+    private static final double[] rotorPositions = new double[4];
+
+    private final SwerveModulePosition[] positions = {
+        new SwerveModulePosition(), new SwerveModulePosition(), new SwerveModulePosition(), new SwerveModulePosition()
+    };
+
+    @BeforeAll
+    static void createModules() {
+        assertTrue(HAL.initialize(500, 0));
+
+        modules = new FalconModule[] {
+            new FalconModule(SwerveDrivetrain.Constants.frontLeft),
+            new FalconModule(SwerveDrivetrain.Constants.frontRight),
+            new FalconModule(SwerveDrivetrain.Constants.backLeft),
+            new FalconModule(SwerveDrivetrain.Constants.backRight)
+        };
+        for (FalconModule module : modules) module.registerSignals(signals);
+    }
+
+    @Test
+    void resetMidDriveKeepsThePose() throws InterruptedException {
+        SwervePoseEstimator estimator = new SwervePoseEstimator(new SwerveStateBuffer(locations()),
+            new double[] {0.05, 0.05, 0.1}, new double[] {0.8, 0.8, 0.3});
+
+        readPositions();
+        estimator.reset(0, positions, 0, 0, 0);
+
+        for (int loop = 1; loop <= 25; loop++) {
+            drive();
+            estimator.update(loop * LOOP_TIME, 0, positions);
+        }
+        double x = estimator.getX(), y = estimator.getY();
+        assertTrue(Math.hypot(x, y) > 0.5, "Didn't drive");
+
+        // Same order as RobotPositioner.resetDriveDistances then resetOdometry, without a refresh between
+        for (FalconModule module : modules) module.resetDriveEncoder();
+        readCachedPositions();
+        for (SwerveModulePosition position : positions) assertEquals(0, position.distanceMeters, 1e-3);
+        estimator.reset(0, positions, x, y, 0);
+
+        // Standing still after the reset
+        for (int loop = 26; loop <= 30; loop++) {
+            Thread.sleep((long) (LOOP_TIME * 1000));
+            readPositions();
+            estimator.update(loop * LOOP_TIME, 0, positions);
+        }
+        assertEquals(x, estimator.getX(), 1e-3);
+        assertEquals(y, estimator.getY(), 1e-3);
+    }
+
+    /**
+     * Turns every simulated drive motor forward and waits for the new positions
+     */
+    private void drive() throws InterruptedException {
+        for (int i = 0; i < modules.length; i++) {
+            rotorPositions[i] += ROTOR_STEP;
+            modules[i].getDriveSimState().setRawRotorPosition(rotorPositions[i]);
+        }
+        Thread.sleep((long) (LOOP_TIME * 1000));
+        readPositions();
+    }
+
+    private void readPositions() {
+        signals.refresh();
+        readCachedPositions();
+    }
+
+    private void readCachedPositions() {
+        for (int i = 0; i < modules.length; i++) {
+            positions[i].distanceMeters = modules[i].getDriveDistance();
+            positions[i].angle = modules[i].getModuleRotation();
+        }
+    }
+
+    private static Translation2d[] locations() {
+        double x = SwerveDrivetrain.Constants.length / 2;
+        double y = SwerveDrivetrain.Constants.width / 2;
+        return new Translation2d[] {
+            new Translation2d(x, y), new Translation2d(x, -y), new Translation2d(-x, y), new Translation2d(-x, -y)
+        };
+    }
+}
@@ -0,0 +1,135 @@
+package frc.robot.subsystems.swerve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+
+class SwerveStateBufferTest {
+    private static final double EPSILON = 1e-9;
+    private static final int RUNS = 1000;
+
+    private static final Translation2d[] LOCATIONS = {
+        new Translation2d(SwerveDrivetrain.Constants.length / 2, SwerveDrivetrain.Constants.width / 2),
+        new Translation2d(SwerveDrivetrain.Constants.length / 2, -SwerveDrivetrain.Constants.width / 2),
+        new Translation2d(-SwerveDrivetrain.Constants.length / 2, SwerveDrivetrain.Constants.width / 2),
+        new Translation2d(-SwerveDrivetrain.Constants.length / 2, -SwerveDrivetrain.Constants.width / 2)
+    };
+
+    private final SwerveDriveKinematics kinematics = new SwerveDriveKinematics(LOCATIONS);
+    private final SwerveStateBuffer buffer = new SwerveStateBuffer(LOCATIONS);
+    private final Random random = new Random(2137);
+
+    @Test
+    void toModuleStatesMatchesKinematics() {
+        for (int run = 0; run < RUNS; run++) {
+            double vx = randomSpeed(), vy = randomSpeed(), omega = randomSpeed() * 3;
+
+            buffer.toModuleStates(vx, vy, omega);
+            assertMatches(kinematics.toSwerveModuleStates(new ChassisSpeeds(vx, vy, omega)));
+        }
+    }
+
+    @Test
+    void zeroSpeedKeepsAngles() {
+        for (int run = 0; run < RUNS; run++) {
+            double vx = randomSpeed(), vy = randomSpeed(), omega = randomSpeed();
+
+            buffer.toModuleStates(vx, vy, omega);
+            kinematics.toSwerveModuleStates(new ChassisSpeeds(vx, vy, omega));
+
+            // Both should hold the last angles with the wheels stopped
+            buffer.toModuleStates(0, 0, 0);
+            SwerveModuleState[] expected = kinematics.toSwerveModuleStates(new ChassisSpeeds());
+            assertMatches(expected);
+            for (int i = 0; i < LOCATIONS.length; i++) assertEquals(0, buffer.getSpeed(i));
+        }
+    }
+
+    @Test
+    void desaturateMatchesKinematics() {
+        for (int run = 0; run < RUNS; run++) {
+            double vx = randomSpeed(), vy = randomSpeed(), omega = randomSpeed() * 3;
+            double maxSpeed = random.nextDouble() * 5;
+
+            buffer.toModuleStates(vx, vy, omega);
+            buffer.desaturate(maxSpeed);
+
+            SwerveModuleState[] expected = kinematics.toSwerveModuleStates(new ChassisSpeeds(vx, vy, omega));
+            SwerveDriveKinematics.desaturateWheelSpeeds(expected, maxSpeed);
+            assertMatches(expected);
+        }
+
+        // Nothing to scale when everything is stopped
+        buffer.toModuleStates(0, 0, 0);
+        buffer.desaturate(4);
+        for (int i = 0; i < LOCATIONS.length; i++) assertEquals(0, buffer.getSpeed(i));
+    }
+
+    @Test
+    void optimizeMatchesModuleState() {
+        for (int run = 0; run < RUNS; run++) {
+            double speed = randomSpeed();
+            double angle = randomAngle();
+            double current = randomAngle();
+
+            buffer.setModuleState(0, speed, angle);
+            buffer.optimize(0, current);
+
+            SwerveModuleState expected = SwerveModuleState.optimize(
+                new SwerveModuleState(speed, new Rotation2d(angle)), new Rotation2d(current));
+            assertEquals(expected.speedMetersPerSecond, buffer.getSpeed(0), EPSILON);
+            assertAngle(expected.angle.getRadians(), buffer.getAngle(0));
+        }
+    }
+
+    @Test
+    void toChassisSpeedsMatchesKinematics() {
+        ChassisSpeeds output = new ChassisSpeeds();
+
+        for (int run = 0; run < RUNS; run++) {
+            SwerveModuleState[] states = new SwerveModuleState[LOCATIONS.length];
+            for (int i = 0; i < states.length; i++) {
+                // Every tenth run has all of the wheels stopped
+                double speed = run % 10 == 0 ? 0 : randomSpeed();
+                double angle = randomAngle();
+
+                states[i] = new SwerveModuleState(speed, new Rotation2d(angle));
+                buffer.setModuleState(i, speed, angle);
+            }
+
+            ChassisSpeeds expected = kinematics.toChassisSpeeds(states);
+            buffer.toChassisSpeeds(output);
+            assertEquals(expected.vxMetersPerSecond, output.vxMetersPerSecond, EPSILON);
+            assertEquals(expected.vyMetersPerSecond, output.vyMetersPerSecond, EPSILON);
+            assertEquals(expected.omegaRadiansPerSecond, output.omegaRadiansPerSecond, EPSILON);
+        }
+    }
+
+    private void assertMatches(SwerveModuleState[] expected) {
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i].speedMetersPerSecond, buffer.getSpeed(i), EPSILON);
+            assertAngle(expected[i].angle.getRadians(), buffer.getAngle(i));
+        }
+    }
+
+    private static void assertAngle(double expected, double actual) {
+        assertEquals(0, MathUtil.angleModulus(expected - actual), EPSILON);
+    }
+
+    private double randomSpeed() {
+        return (random.nextDouble() * 2 - 1) * 5;
+    }
+
+    private double randomAngle() {
+        return (random.nextDouble() * 2 - 1) * Math.PI;
+    }
+}
@@ -0,0 +1,173 @@
+package frc.robot.subsystems.swerve.positioning;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import edu.wpi.first.math.MathUtil;
+
+class PoseHistoryTest {
+    private static final double EPSILON = 1e-9;
+    private static final double PERIOD = 1 / PoseHistory.Constants.maxSampleRate;
+    private static final int CAPACITY = 512;
+
+    private final PoseHistory history = new PoseHistory(2);
+    private final PoseHistory.Sample sample = new PoseHistory.Sample(2);
+
+    @Test
+    void emptyHistoryHasNoSample() {
+        assertFalse(history.sample(1, sample));
+        assertTrue(Double.isNaN(history.getOldestTimestamp()));
+        assertTrue(Double.isNaN(history.getNewestTimestamp()));
+    }
+
+    @Test
+    void singleSampleIsReturnedForAnyTime() {
+        history.add(2, 1, 3, 0.5, new double[] {1, 2});
+
+        for (double time : new double[] {0, 2, 5}) {
+            assertTrue(history.sample(time, sample));
+            assertEquals(2, sample.getTimestamp(), EPSILON);
+            assertEquals(1, sample.getX(), EPSILON);
+            assertEquals(3, sample.getY(), EPSILON);
+            assertEquals(0, sample.getVx(), EPSILON);
+        }
+    }
+
+    @Test
+    void exactTimestampsReturnTheSample() {
+        fill(100);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(history.sample(time(i), sample));
+            assertEquals(time(i), sample.getTimestamp(), EPSILON);
+            assertEquals(x(i), sample.getX(), EPSILON);
+            assertEquals(y(i), sample.getY(), EPSILON);
+            assertEquals(heading(i), sample.getHeading(), EPSILON);
+            assertEquals(speed(i, 1), sample.getModuleSpeed(1), EPSILON);
+        }
+    }
+
+    @Test
+    void interpolatesBetweenSamples() {
+        fill(100);
+
+        for (int i = 0; i < 99; i++) {
+            double t = 0.3;
+            assertTrue(history.sample(time(i) + t * PERIOD, sample));
+            assertEquals(MathUtil.interpolate(x(i), x(i + 1), t), sample.getX(), EPSILON);
+            assertEquals(MathUtil.interpolate(y(i), y(i + 1), t), sample.getY(), EPSILON);
+            assertEquals(0, MathUtil.angleModulus(heading(i)
+                + MathUtil.angleModulus(heading(i + 1) - heading(i)) * t - sample.getHeading()), EPSILON);
+            assertEquals(MathUtil.interpolate(speed(i, 0), speed(i + 1, 0), t), sample.getModuleSpeed(0), EPSILON);
+
+            // Velocity is the slope between the two samples around the time
+            assertEquals((x(i + 1) - x(i)) / PERIOD, sample.getVx(), 1e-6);
+            assertEquals((y(i + 1) - y(i)) / PERIOD, sample.getVy(), 1e-6);
+            assertEquals(MathUtil.angleModulus(heading(i + 1) - heading(i)) / PERIOD, sample.getOmega(), 1e-6);
+        }
+    }
+
+    @Test
+    void headingInterpolatesAcrossTheWrap() {
+        history.add(0, 0, 0, Math.PI - 0.1, new double[2]);
+        history.add(1, 0, 0, -Math.PI + 0.1, new double[2]);
+
+        assertTrue(history.sample(0.5, sample));
+        assertEquals(Math.PI, Math.abs(sample.getHeading()), EPSILON);
+        assertEquals(0.2, sample.getOmega(), EPSILON);
+    }
+
+    @Test
+    void outOfRangeTimesAreClamped() {
+        fill(100);
+
+        assertTrue(history.sample(time(0) - 10, sample));
+        assertEquals(time(0), sample.getTimestamp(), EPSILON);
+        assertEquals(x(0), sample.getX(), EPSILON);
+
+        assertTrue(history.sample(time(99) + 10, sample));
+        assertEquals(time(99), sample.getTimestamp(), EPSILON);
+        assertEquals(x(99), sample.getX(), EPSILON);
+    }
+
+    @Test
+    void wrapsAroundPastCapacity() {
+        int total = CAPACITY * 2 + 37;
+        fill(total);
+
+        // Only the newest samples are kept
+        int oldest = total - CAPACITY;
+        assertEquals(time(oldest), history.getOldestTimestamp(), EPSILON);
+        assertEquals(time(total - 1), history.getNewestTimestamp(), EPSILON);
+
+        for (int i = oldest; i < total; i++) {
+            assertTrue(history.sample(time(i), sample));
+            assertEquals(x(i), sample.getX(), EPSILON);
+            assertEquals(y(i), sample.getY(), EPSILON);
+            assertEquals(speed(i, 0), sample.getModuleSpeed(0), EPSILON);
+        }
+
+        // Anything older than the overwritten samples clamps to the oldest one kept
+        assertTrue(history.sample(time(oldest - 10), sample));
+        assertEquals(x(oldest), sample.getX(), EPSILON);
+    }
+
+    @Test
+    void olderSamplesAreIgnored() {
+        fill(10);
+        history.add(time(5), 100, 100, 0, new double[2]);
+        history.add(time(9), 100, 100, 0, new double[2]);
+
+        assertEquals(time(9), history.getNewestTimestamp(), EPSILON);
+        assertTrue(history.sample(time(9), sample));
+        assertEquals(x(9), sample.getX(), EPSILON);
+    }
+
+    @Test
+    void transformAfterOnlyMovesNewerSamples() {
+        fill(10);
+        history.transformAfter(time(4), x(4), y(4), x(4) + 1, y(4), 0);
+
+        assertTrue(history.sample(time(4), sample));
+        assertEquals(x(4), sample.getX(), EPSILON);
+        assertTrue(history.sample(time(5), sample));
+        assertEquals(x(5) + 1, sample.getX(), EPSILON);
+    }
+
+    @Test
+    void clearEmptiesTheHistory() {
+        fill(10);
+        history.clear();
+        assertFalse(history.sample(time(5), sample));
+    }
+
+    private void fill(int samples) {
+        for (int i = 0; i < samples; i++) {
+            history.add(time(i), x(i), y(i), heading(i), new double[] {speed(i, 0), speed(i, 1)});
+        }
+    }
+
+    private static double time(int i) {
+        return 3 + i * PERIOD;
+    }
+
+    private static double x(int i) {
+        return i * 0.01;
+    }
+
+    private static double y(int i) {
+        return Math.sin(i * 0.05);
+    }
+
+    private static double heading(int i) {
+        // Turns through the wrap a few times
+        return MathUtil.angleModulus(i * 0.07);
+    }
+
+    private static double speed(int i, int module) {
+        return Math.cos(i * 0.1 + module);
+    }
+}
@@ -0,0 +1,189 @@
+package frc.robot.subsystems.swerve.positioning;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.estimator.SwerveDrivePoseEstimator;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import frc.robot.subsystems.swerve.SwerveStateBuffer;
+
+/**
+ * Drives SwervePoseEstimator and WPILib's SwerveDrivePoseEstimator with the same simulated
+ * odometry and delayed vision, they should always agree
+ */
+class SwervePoseEstimatorTest {
+    private static final double ODOMETRY_PERIOD = 0.004;
+    private static final double VISION_LATENCY = 0.05;
+    private static final int STEPS = 5000;
+
+    // Replaying odometry and moving the later poses by the corrected transform only differ
+    // by floating point and interpolation error
+    private static final double POSITION_TOLERANCE = 1e-3;
+    private static final double HEADING_TOLERANCE = 1e-6;
+
+    private static final double[] STATE_STD_DEVS = {0.05, 0.05, Math.toRadians(5)};
+    private static final double[] VISION_STD_DEVS = {0.8, 0.8, Math.toRadians(20)};
+
+    private static final Translation2d[] LOCATIONS = {
+        new Translation2d(0.3, 0.3),
+        new Translation2d(0.3, -0.3),
+        new Translation2d(-0.3, 0.3),
+        new Translation2d(-0.3, -0.3)
+    };
+
+    private final Random random = new Random(2137);
+    private final SwerveModulePosition[] positions = new SwerveModulePosition[LOCATIONS.length];
+
+    private SwervePoseEstimator estimator;
+    private SwerveDrivePoseEstimator reference;
+
+    // Simulated robot
+    private double x = 1, y = 2, heading = 0.3;
+    private double gyroDrift = 0;
+
+    @BeforeEach
+    void createEstimators() {
+        for (int i = 0; i < positions.length; i++) positions[i] = new SwerveModulePosition();
+
+        estimator = new SwervePoseEstimator(new SwerveStateBuffer(LOCATIONS), STATE_STD_DEVS, VISION_STD_DEVS);
+        estimator.reset(heading, positions, x, y, heading);
+
+        reference = new SwerveDrivePoseEstimator(new SwerveDriveKinematics(LOCATIONS), new Rotation2d(heading),
+            copy(positions), new Pose2d(x, y, new Rotation2d(heading)),
+            VecBuilder.fill(STATE_STD_DEVS[0], STATE_STD_DEVS[1], STATE_STD_DEVS[2]),
+            VecBuilder.fill(VISION_STD_DEVS[0], VISION_STD_DEVS[1], VISION_STD_DEVS[2]));
+    }
+
+    @Test
+    void matchesWpilibWithDelayedVision() {
+        // Vision every 8 odometry samples, handed over once it's VISION_LATENCY old
+        ArrayDeque<double[]> pending = new ArrayDeque<>();
+        int measurements = 0;
+
+        for (int step = 1; step <= STEPS; step++) {
+            double time = step * ODOMETRY_PERIOD;
+            double gyro = drive(time);
+
+            estimator.update(time, gyro, positions);
+            reference.updateWithTime(time, new Rotation2d(gyro), copy(positions));
+
+            if (step % 8 == 0) {
+                pending.add(new double[] {
+                    x + 0.1 * random.nextGaussian(),
+                    y + 0.1 * random.nextGaussian(),
+                    heading + 0.05 * random.nextGaussian(),
+                    time - ODOMETRY_PERIOD * random.nextDouble()
+                });
+            }
+
+            while (!pending.isEmpty() && pending.peek()[3] < time - VISION_LATENCY) {
+                double[] vision = pending.poll();
+                assertTrue(estimator.addVisionMeasurement(vision[0], vision[1], vision[2], vision[3]));
+                reference.addVisionMeasurement(new Pose2d(vision[0], vision[1], new Rotation2d(vision[2])), vision[3]);
+                measurements++;
+            }
+
+            assertSamePose("Step " + step);
+        }
+
+        assertTrue(measurements > 600);
+    }
+
+    @Test
+    void matchesWpilibWithPerMeasurementStdDevs() {
+        for (int step = 1; step <= STEPS / 5; step++) {
+            double time = step * ODOMETRY_PERIOD;
+            double gyro = drive(time);
+
+            estimator.update(time, gyro, positions);
+            reference.updateWithTime(time, new Rotation2d(gyro), copy(positions));
+
+            if (step % 25 == 0) {
+                // A measurement far off the estimate, trusted more the closer the tag
+                double trust = 0.1 + random.nextDouble();
+                double visionX = x + 0.5, visionY = y - 0.3, visionHeading = heading + 0.2;
+                double timestamp = time - 0.12;
+
+                estimator.addVisionMeasurement(visionX, visionY, visionHeading, timestamp, trust, trust, trust);
+                reference.addVisionMeasurement(new Pose2d(visionX, visionY, new Rotation2d(visionHeading)), timestamp,
+                    VecBuilder.fill(trust, trust, trust));
+            }
+
+            assertSamePose("Step " + step);
+        }
+    }
+
+    @Test
+    void ignoresMeasurementsOlderThanTheHistory() {
+        for (int step = 1; step <= 500; step++) {
+            double time = step * ODOMETRY_PERIOD;
+            double gyro = drive(time);
+            estimator.update(time, gyro, positions);
+            reference.updateWithTime(time, new Rotation2d(gyro), copy(positions));
+        }
+
+        double old = 500 * ODOMETRY_PERIOD - SwervePoseEstimator.Constants.historyLength - 0.1;
+        assertFalse(estimator.addVisionMeasurement(0, 0, 0, old));
+        reference.addVisionMeasurement(new Pose2d(), old);
+
+        assertSamePose("Old measurement");
+    }
+
+    /**
+     * Moves the simulated robot one odometry period along a curvy path, the wheels slip a bit
+     * and the gyro drifts
+     * @return the gyro angle (radians)
+     */
+    private double drive(double time) {
+        double vx = 2 * Math.sin(time * 0.7);
+        double vy = 1.5 * Math.cos(time * 0.5);
+        double omega = 2 * Math.sin(time * 1.3);
+
+        x += (vx * Math.cos(heading) - vy * Math.sin(heading)) * ODOMETRY_PERIOD;
+        y += (vx * Math.sin(heading) + vy * Math.cos(heading)) * ODOMETRY_PERIOD;
+        heading += omega * ODOMETRY_PERIOD;
+
+        for (int i = 0; i < positions.length; i++) {
+            double moduleX = vx - omega * LOCATIONS[i].getY();
+            double moduleY = vy + omega * LOCATIONS[i].getX();
+            double slip = 1 + 0.03 * random.nextGaussian();
+
+            positions[i] = new SwerveModulePosition(
+                positions[i].distanceMeters + Math.hypot(moduleX, moduleY) * ODOMETRY_PERIOD * slip,
+                new Rotation2d(Math.atan2(moduleY, moduleX)));
+        }
+
+        gyroDrift += 0.005 * ODOMETRY_PERIOD;
+        return heading + gyroDrift;
+    }
+
+    private void assertSamePose(String message) {
+        Pose2d expected = reference.getEstimatedPosition();
+
+        assertEquals(0, Math.hypot(estimator.getX() - expected.getX(), estimator.getY() - expected.getY()),
+            POSITION_TOLERANCE, message);
+        assertEquals(0, MathUtil.angleModulus(estimator.getHeading() - expected.getRotation().getRadians()),
+            HEADING_TOLERANCE, message);
+    }
+
+    private static SwerveModulePosition[] copy(SwerveModulePosition[] positions) {
+        SwerveModulePosition[] copy = new SwerveModulePosition[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            copy[i] = new SwerveModulePosition(positions[i].distanceMeters, positions[i].angle);
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,145 @@
+package frc.robot.subsystems.swerve.positioning;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+
+/**
+ * Feeds VelocityEstimator a known trajectory through noisy, slipping sensors and compares
+ * the estimate to the true velocity and acceleration
+ */
+class VelocityEstimatorTest {
+    private static final double LOOP_TIME = 0.02;
+    private static final int ODOMETRY_PER_LOOP = 5;
+    private static final int LOOPS = 500;
+
+    /** Noise on the module kinematics (m/s) and the gyro rate (rad/s) */
+    private static final double SPEED_NOISE = 0.05;
+    private static final double GYRO_NOISE = 0.01;
+
+    private final Random random = new Random(2137);
+    private final PoseHistory history = new PoseHistory(4);
+    private final VelocityEstimator estimator = new VelocityEstimator(4);
+    private final ChassisSpeeds robotSpeeds = new ChassisSpeeds();
+
+    // True state of the simulated robot
+    private double time, x, y, heading;
+
+    @Test
+    void filtersNoiseWithLittleLag() {
+        Errors errors = drive(1);
+
+        // A single measurement is off by about 0.06 m/s on average
+        assertTrue(errors.meanVelocity < 0.045, "Mean velocity error " + errors.meanVelocity);
+        assertTrue(errors.maxVelocity < 0.15, "Max velocity error " + errors.maxVelocity);
+        assertTrue(errors.meanOmega < 0.01, "Mean omega error " + errors.meanOmega);
+        assertTrue(errors.meanVelocity < 0.7 * errors.meanRaw, "Raw error " + errors.meanRaw);
+    }
+
+    @Test
+    void tracksAcceleration() {
+        Errors errors = drive(1);
+
+        // The path accelerates at up to 2.4 m/s^2
+        assertTrue(errors.meanAcceleration < 0.6, "Mean acceleration error " + errors.meanAcceleration);
+        assertTrue(errors.meanAngularAcceleration < 0.3, "Mean angular acceleration error "
+            + errors.meanAngularAcceleration);
+    }
+
+    @Test
+    void poseHistoryPullsTowardsTheTrueVelocityWhenSlipping() {
+        // The wheels spin 20% faster than the robot moves, the pose history follows the robot
+        // and takes out about historyWeight of the slip
+        Errors errors = drive(1.2);
+
+        assertTrue(errors.meanVelocity < 0.85 * errors.meanRaw,
+            "Mean velocity error " + errors.meanVelocity + ", raw error " + errors.meanRaw);
+    }
+
+    @Test
+    void startsOverAfterAGap() {
+        drive(1);
+
+        time += 2 * VelocityEstimator.Constants.maxTimeStep;
+        robotSpeeds.vxMetersPerSecond = 1;
+        robotSpeeds.vyMetersPerSecond = 0;
+        estimator.update(time, robotSpeeds, 0, 0.5, new PoseHistory(4));
+
+        assertEquals(1, estimator.getFieldSpeeds().vxMetersPerSecond, 1e-9);
+        assertEquals(0, estimator.getFieldSpeeds().vyMetersPerSecond, 1e-9);
+        assertEquals(0.5, estimator.getFieldSpeeds().omegaRadiansPerSecond, 1e-9);
+        assertEquals(0, estimator.getFieldAcceleration().vxMetersPerSecond, 1e-9);
+        assertEquals(0, estimator.getFieldAcceleration().omegaRadiansPerSecond, 1e-9);
+    }
+
+    /**
+     * Drives a curvy path while spinning, the first second is skipped to let the filters settle
+     * @param slip how much faster the wheels report than the robot really moves
+     */
+    private Errors drive(double slip) {
+        Errors errors = new Errors();
+        double[] moduleSpeeds = new double[4];
+        int counted = 0;
+
+        for (int loop = 0; loop < LOOPS; loop++) {
+            for (int i = 0; i < ODOMETRY_PER_LOOP; i++) {
+                double dt = LOOP_TIME / ODOMETRY_PER_LOOP;
+                time += dt;
+                x += vx(time) * dt;
+                y += vy(time) * dt;
+                heading += omega(time) * dt;
+                history.add(time, x, y, heading, moduleSpeeds);
+            }
+
+            // The kinematics measure robot relative speeds
+            double cos = Math.cos(heading);
+            double sin = Math.sin(heading);
+            double measuredX = slip * vx(time) + SPEED_NOISE * random.nextGaussian();
+            double measuredY = slip * vy(time) + SPEED_NOISE * random.nextGaussian();
+            robotSpeeds.vxMetersPerSecond = measuredX * cos + measuredY * sin;
+            robotSpeeds.vyMetersPerSecond = -measuredX * sin + measuredY * cos;
+
+            estimator.update(time, robotSpeeds, heading, omega(time) + GYRO_NOISE * random.nextGaussian(), history);
+
+            if (loop < 1 / LOOP_TIME) continue;
+            counted++;
+
+            ChassisSpeeds speeds = estimator.getFieldSpeeds();
+            ChassisSpeeds acceleration = estimator.getFieldAcceleration();
+            double velocityError = Math.hypot(speeds.vxMetersPerSecond - vx(time), speeds.vyMetersPerSecond - vy(time));
+
+            errors.meanVelocity += velocityError;
+            errors.maxVelocity = Math.max(errors.maxVelocity, velocityError);
+            errors.meanRaw += Math.hypot(measuredX - vx(time), measuredY - vy(time));
+            errors.meanOmega += Math.abs(speeds.omegaRadiansPerSecond - omega(time));
+            errors.meanAcceleration += Math.hypot(acceleration.vxMetersPerSecond - ax(time),
+                acceleration.vyMetersPerSecond - ay(time));
+            errors.meanAngularAcceleration += Math.abs(acceleration.omegaRadiansPerSecond - alpha(time));
+        }
+
+        errors.meanVelocity /= counted;
+        errors.meanRaw /= counted;
+        errors.meanOmega /= counted;
+        errors.meanAcceleration /= counted;
+        errors.meanAngularAcceleration /= counted;
+        return errors;
+    }
+
+    // The true field relative velocity and acceleration
+    private static double vx(double t) { return 3 * Math.sin(0.8 * t); }
+    private static double vy(double t) { return 2 * Math.sin(0.5 * t + 1); }
+    private static double omega(double t) { return 2 * Math.sin(1.1 * t); }
+    private static double ax(double t) { return 2.4 * Math.cos(0.8 * t); }
+    private static double ay(double t) { return Math.cos(0.5 * t + 1); }
+    private static double alpha(double t) { return 2.2 * Math.cos(1.1 * t); }
+
+    private static class Errors {
+        private double meanVelocity, maxVelocity, meanRaw, meanOmega;
+        private double meanAcceleration, meanAngularAcceleration;
+    }
+}
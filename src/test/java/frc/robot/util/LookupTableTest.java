@@ -0,0 +1,177 @@
+package frc.robot.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+import frc.robot.subsystems.ShooterSubsystem;
+
+class LookupTableTest {
+    private static final double EPSILON = 1e-9;
+
+    @Test
+    void linearMatchesTreeMapOnShooterMaps() {
+        assertMatchesTreeMap(ShooterSubsystem.Constants.angleMap, ShooterSubsystem.Constants.angleLookup);
+        assertMatchesTreeMap(ShooterSubsystem.Constants.powerMap, ShooterSubsystem.Constants.powerLookup);
+    }
+
+    @Test
+    void exactKeysReturnTheirValues() {
+        for (Interpolated table : tables()) {
+            for (Map.Entry<Double, Double> entry : table.map.entrySet()) {
+                assertEquals(entry.getValue(), table.lookup.getInterpolated(entry.getKey()), EPSILON);
+            }
+        }
+    }
+
+    @Test
+    void clampUsesTheEndValues() {
+        LookupTable table = new LookupTable(ShooterSubsystem.Constants.angleMap,
+            LookupTable.Interpolation.Cubic, LookupTable.Bounds.Clamp);
+
+        assertEquals(34.5, table.getInterpolated(-3), EPSILON);
+        assertEquals(61.7, table.getInterpolated(9), EPSILON);
+        assertEquals(0.20, table.getMinKey(), EPSILON);
+        assertEquals(5.00, table.getMaxKey(), EPSILON);
+    }
+
+    @Test
+    void extrapolateContinuesTheEndSlopes() {
+        LookupTable table = new LookupTable(ShooterSubsystem.Constants.powerMap);
+
+        // Same as the TreeMap table, which used the last two points
+        assertEquals(0.6 - 0.02 / 1.4, table.getInterpolated(-1), EPSILON);
+        assertEquals(0.7 + 0.05 / 3, table.getInterpolated(6), EPSILON);
+    }
+
+    @Test
+    void cubicIsMonotoneBetweenDataPoints() {
+        for (Interpolated table : cubicTables()) {
+            Double[] keys = table.map.keySet().toArray(new Double[0]);
+
+            for (int i = 0; i < keys.length - 1; i++) {
+                double low = table.map.get(keys[i]);
+                double high = table.map.get(keys[i + 1]);
+                double previous = low;
+
+                for (int step = 1; step <= 100; step++) {
+                    double key = keys[i] + (keys[i + 1] - keys[i]) * step / 100;
+                    double value = table.lookup.getInterpolated(key);
+
+                    // Never overshoots the data points and never turns back
+                    assertTrue(value >= Math.min(low, high) - EPSILON && value <= Math.max(low, high) + EPSILON,
+                        "Overshoot at " + key);
+                    assertTrue((value - previous) * (high - low) >= -EPSILON, "Turned back at " + key);
+                    previous = value;
+                }
+            }
+        }
+    }
+
+    @Test
+    void cubicIsContinuous() {
+        for (Interpolated table : cubicTables()) {
+            for (double key : table.map.keySet()) {
+                assertEquals(table.lookup.getInterpolated(key - 1e-9), table.lookup.getInterpolated(key + 1e-9), 1e-6);
+            }
+        }
+    }
+
+    @Test
+    void unevenAndEvenKeysFindTheSameSegments() {
+        double[] keys = {0, 1, 2, 3, 4};
+        double[] values = {0, 2, 1, 5, 4};
+        LookupTable even = new LookupTable(keys, values, LookupTable.Interpolation.Linear, LookupTable.Bounds.Clamp);
+
+        TreeMap<Double, Double> map = new TreeMap<>();
+        for (int i = 0; i < keys.length; i++) map.put(keys[i], values[i]);
+
+        for (double key = -1; key <= 5; key += 0.01) {
+            assertEquals(treeMapInterpolate(map, Math.max(0, Math.min(4, key))), even.getInterpolated(key), EPSILON);
+        }
+    }
+
+    @Test
+    void singlePointTable() {
+        LookupTable table = new LookupTable(new double[] {2}, new double[] {7},
+            LookupTable.Interpolation.Cubic, LookupTable.Bounds.Extrapolate);
+
+        assertEquals(7, table.getInterpolated(-5), EPSILON);
+        assertEquals(7, table.getInterpolated(2), EPSILON);
+        assertEquals(7, table.getInterpolated(9), EPSILON);
+    }
+
+    @Test
+    void rejectsBadData() {
+        assertThrows(IllegalArgumentException.class, () -> new LookupTable(new double[0], new double[0],
+            LookupTable.Interpolation.Linear, LookupTable.Bounds.Clamp));
+        assertThrows(IllegalArgumentException.class, () -> new LookupTable(new double[] {1, 1}, new double[] {1, 2},
+            LookupTable.Interpolation.Linear, LookupTable.Bounds.Clamp));
+    }
+
+    private static void assertMatchesTreeMap(NavigableMap<Double, Double> map, LookupTable table) {
+        for (double key = map.firstKey() - 2; key <= map.lastKey() + 2; key += 0.001) {
+            assertEquals(treeMapInterpolate(map, key), table.getInterpolated(key), EPSILON, "Key " + key);
+        }
+    }
+
+    /**
+     * The interpolation the TreeMap backed table did before the lookup tables were replaced
+     */
+    private static double treeMapInterpolate(NavigableMap<Double, Double> dataPoints, double key) {
+        if (dataPoints.containsKey(key)) return dataPoints.get(key);
+
+        Double higherKey = dataPoints.ceilingKey(key);
+        Double lowerKey = dataPoints.floorKey(key);
+
+        if (higherKey == null) {
+            higherKey = lowerKey;
+            lowerKey = dataPoints.lowerKey(higherKey);
+        }
+
+        if (lowerKey == null) {
+            lowerKey = higherKey;
+            higherKey = dataPoints.higherKey(lowerKey);
+        }
+
+        double slope = (dataPoints.get(higherKey) - dataPoints.get(lowerKey)) / (higherKey - lowerKey);
+        return slope * key + dataPoints.get(lowerKey) - slope * lowerKey;
+    }
+
+    private static Interpolated[] tables() {
+        return new Interpolated[] {
+            new Interpolated(ShooterSubsystem.Constants.angleMap, ShooterSubsystem.Constants.angleLookup),
+            new Interpolated(ShooterSubsystem.Constants.powerMap, ShooterSubsystem.Constants.powerLookup),
+            new Interpolated(ShooterSubsystem.Constants.timeOfFlightMap, ShooterSubsystem.Constants.timeOfFlightLookup),
+            cubicTables()[0],
+            cubicTables()[1]
+        };
+    }
+
+    private static Interpolated[] cubicTables() {
+        return new Interpolated[] {
+            cubic(ShooterSubsystem.Constants.angleMap),
+            cubic(ShooterSubsystem.Constants.powerMap)
+        };
+    }
+
+    private static Interpolated cubic(TreeMap<Double, Double> map) {
+        return new Interpolated(map, new LookupTable(map, LookupTable.Interpolation.Cubic, LookupTable.Bounds.Clamp));
+    }
+
+    private static class Interpolated {
+        private final NavigableMap<Double, Double> map;
+        private final LookupTable lookup;
+
+        private Interpolated(NavigableMap<Double, Double> map, LookupTable lookup) {
+            this.map = map;
+            this.lookup = lookup;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package frc.robot.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.function.DoubleUnaryOperator;
+
+import org.junit.jupiter.api.Test;
+
+class ShotSolverTest {
+    /** Horizontal speed of the note relative to the robot in the projectile model (m/s) */
+    private static final double NOTE_SPEED = 11;
+
+    private static final double TARGET_X = 0.1, TARGET_Y = 5.43;
+    private static final double DISTANCE = 4;
+
+    private final ShotSolver solver = new ShotSolver(table(d -> 30 + d), table(d -> 0.5 + d / 20), table(d -> d / NOTE_SPEED), 0);
+
+    @Test
+    void stationaryAimsAtTheTarget() {
+        assertTrue(solve(0, 0));
+
+        assertEquals(1, solver.getIterations());
+        assertEquals(TARGET_X, solver.getVirtualTargetX(), 1e-9);
+        assertEquals(TARGET_Y, solver.getVirtualTargetY(), 1e-9);
+        assertEquals(DISTANCE, solver.getDistance(), 1e-9);
+        assertEquals(DISTANCE / NOTE_SPEED, solver.getTimeOfFlight(), 1e-9);
+        assertEquals(Math.PI, Math.abs(solver.getHeading()), 1e-9);
+        assertEquals(30 + DISTANCE, solver.getPivotAngle(), 1e-9);
+        assertLands(0, 0);
+    }
+
+    @Test
+    void radialVelocityShortensTheShot() {
+        // Driving straight at the target, the note carries the robot's speed towards it
+        double speed = 2;
+        assertTrue(solve(-speed, 0));
+
+        // Virtual distance d solves d = D - speed * d / NOTE_SPEED
+        double expected = DISTANCE / (1 + speed / NOTE_SPEED);
+        assertEquals(expected, solver.getDistance(), ShotSolver.Constants.tolerance);
+        assertEquals(expected / NOTE_SPEED, solver.getTimeOfFlight(), ShotSolver.Constants.tolerance / NOTE_SPEED);
+        assertEquals(Math.PI, Math.abs(solver.getHeading()), 1e-9);
+        assertTrue(solver.getIterations() <= ShotSolver.Constants.maxIterations);
+        assertLands(-speed, 0);
+    }
+
+    @Test
+    void tangentialVelocityLeadsTheTarget() {
+        // Driving across the target, the robot aims behind it
+        double speed = 2;
+        assertTrue(solve(0, speed));
+
+        // Virtual distance d solves d^2 = D^2 + (speed * d / NOTE_SPEED)^2
+        double expected = DISTANCE / Math.sqrt(1 - speed * speed / (NOTE_SPEED * NOTE_SPEED));
+        double time = expected / NOTE_SPEED;
+        assertEquals(expected, solver.getDistance(), ShotSolver.Constants.tolerance);
+        assertEquals(time, solver.getTimeOfFlight(), ShotSolver.Constants.tolerance / NOTE_SPEED);
+        assertEquals(TARGET_Y - speed * time, solver.getVirtualTargetY(), ShotSolver.Constants.tolerance);
+        assertEquals(Math.atan2(-speed * time, -DISTANCE), solver.getHeading(), 1e-3);
+        assertTrue(solver.getIterations() <= ShotSolver.Constants.maxIterations);
+        assertLands(0, speed);
+    }
+
+    @Test
+    void convergesWithinTheBudgetAtDrivingSpeeds() {
+        for (double angle = 0; angle < 2 * Math.PI; angle += Math.PI / 12) {
+            double vx = 2 * Math.cos(angle);
+            double vy = 2 * Math.sin(angle);
+
+            assertTrue(solve(vx, vy), "Didn't converge at " + Math.toDegrees(angle) + " degrees");
+            assertTrue(solver.getIterations() <= ShotSolver.Constants.maxIterations);
+            assertLands(vx, vy);
+        }
+    }
+
+    @Test
+    void stopsAtTheBudgetWhenNotConverging() {
+        // The guess only closes in by speed / NOTE_SPEED each time, too slow for the budget
+        assertFalse(solve(0, 9));
+
+        assertFalse(solver.isConverged());
+        assertEquals(ShotSolver.Constants.maxIterations, solver.getIterations());
+        assertTrue(Double.isFinite(solver.getVirtualTargetY()));
+        assertTrue(Double.isFinite(solver.getHeading()));
+        assertTrue(Double.isFinite(solver.getPivotAngle()));
+    }
+
+    private boolean solve(double vx, double vy) {
+        return solver.solve(TARGET_X + DISTANCE, TARGET_Y, vx, vy, TARGET_X, TARGET_Y);
+    }
+
+    /**
+     * Flies a note from the solution, it keeps the robot's velocity and covers the solved
+     * distance along the solved heading at the note speed
+     */
+    private void assertLands(double vx, double vy) {
+        double time = solver.getDistance() / NOTE_SPEED;
+        double landingX = TARGET_X + DISTANCE + vx * time + Math.cos(solver.getHeading()) * solver.getDistance();
+        double landingY = TARGET_Y + vy * time + Math.sin(solver.getHeading()) * solver.getDistance();
+
+        assertEquals(0, Math.hypot(landingX - TARGET_X, landingY - TARGET_Y), 2 * ShotSolver.Constants.tolerance);
+    }
+
+    private static LookupTable table(DoubleUnaryOperator model) {
+        double[] keys = new double[11];
+        double[] values = new double[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = i;
+            values[i] = model.applyAsDouble(i);
+        }
+        return new LookupTable(keys, values, LookupTable.Interpolation.Linear, LookupTable.Bounds.Extrapolate);
+    }
+}
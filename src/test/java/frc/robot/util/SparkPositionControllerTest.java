@@ -0,0 +1,118 @@
+package frc.robot.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.AdditionalMatchers;
+
+import com.revrobotics.AbsoluteEncoder;
+import com.revrobotics.CANSparkBase.ControlType;
+import com.revrobotics.CANSparkMax;
+import com.revrobotics.SparkPIDController;
+import com.revrobotics.SparkPIDController.ArbFFUnits;
+
+/**
+ * Checks what the controller sends to a mocked SPARK
+ */
+class SparkPositionControllerTest {
+    private static final double VELOCITY_FF = 0.001;
+    private static final double GRAVITY_POWER = 0.04;
+
+    private final CANSparkMax motor = mock(CANSparkMax.class);
+    private final AbsoluteEncoder encoder = mock(AbsoluteEncoder.class);
+    private final SparkPIDController pid = mock(SparkPIDController.class);
+
+    private SparkPositionController controller;
+
+    @BeforeEach
+    void createController() {
+        when(motor.getPIDController()).thenReturn(pid);
+        controller = new SparkPositionController(motor, encoder, new PID(0.0002, 0, 0, VELOCITY_FF), 0.3, 200, 400, 2)
+            .withGravity(GRAVITY_POWER, 90);
+    }
+
+    @Test
+    void setTargetSendsNothingWhenTheTargetRepeats() {
+        controller.setTarget(30);
+        controller.setTarget(30);
+        controller.setTarget(30);
+        verify(pid, times(1)).setReference(eq(30.0), eq(ControlType.kSmartMotion), eq(0), anyDouble(),
+            eq(ArbFFUnits.kPercentOut));
+
+        controller.setTarget(45);
+        verify(pid, times(1)).setReference(eq(45.0), eq(ControlType.kSmartMotion), eq(0), anyDouble(),
+            eq(ArbFFUnits.kPercentOut));
+    }
+
+    @Test
+    void setTargetSendsAgainAfterStopping() {
+        controller.setTarget(30);
+        controller.stop();
+        verify(motor).stopMotor();
+
+        controller.setTarget(30);
+        verify(pid, times(2)).setReference(eq(30.0), eq(ControlType.kSmartMotion), eq(0), anyDouble(),
+            eq(ArbFFUnits.kPercentOut));
+    }
+
+    @Test
+    void setTargetSendsGravityAtTheTarget() {
+        // 60 degrees from horizontal (90)
+        controller.setTarget(150);
+        verify(pid).setReference(eq(150.0), eq(ControlType.kSmartMotion), eq(0),
+            AdditionalMatchers.eq(GRAVITY_POWER * 0.5, 1e-9), eq(ArbFFUnits.kPercentOut));
+    }
+
+    @Test
+    void atTargetIsFalseWhileTheTargetIsNaN() {
+        when(encoder.getPosition()).thenReturn(0.0);
+        assertTrue(Double.isNaN(controller.getTarget()));
+        assertFalse(controller.atTarget());
+
+        controller.setTarget(1);
+        assertTrue(controller.atTarget());
+        controller.setTarget(5);
+        assertFalse(controller.atTarget());
+
+        controller.stop();
+        assertFalse(controller.atTarget());
+    }
+
+    @Test
+    void followNeedsStreaming() {
+        assertThrows(IllegalStateException.class, () -> controller.follow(30, 10));
+        verify(pid, never()).setReference(anyDouble(), eq(ControlType.kPosition), anyInt(), anyDouble(),
+            eq(ArbFFUnits.kPercentOut));
+    }
+
+    @Test
+    void followSendsTheVelocityAsFeedforward() {
+        controller.withStreaming(new PID(0.01, 0, 0));
+        verify(pid).setP(0.01, 1);
+
+        // Horizontal, so only the velocity feedforward
+        controller.follow(90, 120);
+        controller.follow(90, 120);
+        verify(pid, times(2)).setReference(eq(90.0), eq(ControlType.kPosition), eq(1),
+            AdditionalMatchers.eq(VELOCITY_FF * 120, 1e-9), eq(ArbFFUnits.kPercentOut));
+        assertEquals(90, controller.getTarget());
+    }
+
+    @Test
+    void usesTheGivenVelocityFeedforward() {
+        verify(pid).setFF(VELOCITY_FF);
+        verify(pid).setOutputRange(-0.3, 0.3);
+    }
+}